@@ -1,10 +1,10 @@
 package com.toomasr.sgf4j;
 
+import java.io.IOException;
+import java.nio.CharBuffer;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -216,184 +216,147 @@ public class Parser {
     nodeProps.add("TE");
   }
 
-  private Stack<GameNode> treeStack = new Stack<>();
+  private final Readable input;
 
   public Parser(String game) {
     originalGame = game;
+    input = CharBuffer.wrap(game);
+  }
+
+  /**
+   * Parses straight from a stream of characters, the original SGF is not kept
+   * in the game.
+   *
+   * @param input a Reader, a CharBuffer or any other source of characters
+   */
+  public Parser(Readable input) {
+    originalGame = null;
+    this.input = input;
   }
 
   public Game parse() {
     Game game = new Game(originalGame);
+    try {
+      new SgfLexer(input).lex(new GameBuilder(game));
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return game;
+  }
 
-    // the root node
-    GameNode parentNode = null;
-    // replace token delimiters
+  /**
+   * Builds the game tree from the lexer events.
+   */
+  private static class GameBuilder implements SgfLexer.Listener {
+    private final Game game;
+    private final Stack<GameNode> treeStack = new Stack<>();
+    private final StringBuilder propertyValue = new StringBuilder();
 
-    int moveNo = 1;
+    private GameNode parentNode = null;
+    private GameNode node = null;
+    private int moveNo = 1;
 
-    for (int i = 0; i < originalGame.length(); i++) {
-      char chr = originalGame.charAt(i);
-      if (';' == chr && (i == 0 || originalGame.charAt(i - 1) != '\\')) {
-        String nodeContents = consumeUntil(originalGame, i);
-        i = i + nodeContents.length();
+    private String key = null;
+    private String valueSeparator = null;
+    private boolean firstValue;
 
-        GameNode node = parseToken(nodeContents, parentNode, game);
-        if (node.isMove()) {
-          node.setMoveNo(moveNo++);
-        }
+    GameBuilder(Game game) {
+      this.game = game;
+    }
 
-        if (parentNode == null) {
-          parentNode = node;
-          game.setRootNode(parentNode);
-        }
-        else if (!node.isEmpty()) {
-          parentNode.addChild(node);
-          parentNode = node;
-        }
-      }
-      else if ('(' == chr && parentNode != null) {
+    @Override
+    public void gameTreeStart() {
+      if (parentNode != null) {
         treeStack.push(parentNode);
       }
-      else if (')' == chr) {
-        if (treeStack.size() > 0) {
-          parentNode = treeStack.pop();
-          moveNo = parentNode.getMoveNo() + 1;
-        }
-      }
-      else {
+    }
+
+    @Override
+    public void gameTreeEnd() {
+      if (treeStack.size() > 0) {
+        parentNode = treeStack.pop();
+        moveNo = parentNode.getMoveNo() + 1;
       }
     }
 
-    return game;
-  }
+    @Override
+    public void nodeStart() {
+      node = new GameNode(parentNode);
+    }
 
-  private String consumeUntil(String gameStr, int i) {
-    StringBuffer rtrn = new StringBuffer();
-    boolean insideComment = false;
-    boolean insideValue = false;
-    for (int j = i + 1; j < gameStr.length(); j++) {
-      char chr = gameStr.charAt(j);
-      if (insideComment) {
-        if (']' == chr && gameStr.charAt(j - 1) != '\\') {
-          insideComment = false;
-        }
-        rtrn.append(chr);
+    @Override
+    public void nodeEnd() {
+      addProperty();
+
+      if (node.isMove()) {
+        node.setMoveNo(moveNo++);
       }
-      else {
-        if ('C' == chr && '[' == gameStr.charAt(j + 1)) {
-          insideComment = true;
-          rtrn.append(chr);
-        }
-        else if ('[' == chr) {
-          insideValue = true;
-          rtrn.append(chr);
-        }
-        else if (']' == chr) {
-          insideValue = false;
-          rtrn.append(chr);
-        }
-        // while inside the value lets consume everything -
-        // even chars that otherwise would have special meaning
-        // like ;()
-        else if (insideValue) {
-          rtrn.append(chr);
-        }
-        else if ('\n' == chr) {
-          // skip newlines
-        }
-        else if (';' != chr && ')' != chr && '(' != chr) {
-          rtrn.append(chr);
-        }
-        else {
-          break;
-        }
+
+      if (parentNode == null) {
+        parentNode = node;
+        game.setRootNode(parentNode);
+      }
+      else if (!node.isEmpty()) {
+        parentNode.addChild(node);
+        parentNode = node;
       }
+      node = null;
     }
-    return rtrn.toString().trim();
-  }
 
-  private GameNode parseToken(String token, final GameNode parentNode, Game game) {
-    GameNode rtrnNode = new GameNode(parentNode);
-    // replace delimiters
-    token = Parser.prepareToken("'" + token + "'");
-
-    // lets find all the properties
-    Pattern p = Pattern.compile("([a-zA-Z]{1,})((\\[[^\\]]*\\]){1,})");
-    Matcher m = p.matcher(token);
-    while (m.find()) {
-      String group = m.group();
-      if (group.length() == 0)
-        continue;
-
-      String key = m.group(1);
-      String value = m.group(2);
-      if (value.startsWith("[")) {
-        value = value.substring(1, value.length() - 1);
-      }
+    @Override
+    public void propertyStart(CharSequence identifier) {
+      addProperty();
 
-      value = Parser.normaliseToken(value);
+      key = identifier.toString();
+      // these come in as a list of coordinates
+      valueSeparator = "AB".equals(key) || "AW".equals(key) ? "," : "][";
+      propertyValue.setLength(0);
+      firstValue = true;
+    }
 
-      // these properties require some cleanup
-      if ("AB".equals(key) || "AW".equals(key)) {
-        // these come in as a list of coordinates while the first [ is cut off
-        // and also the last ], easy to split by ][
-        String[] list = value.split("\\]\\[");
-        // if the parent node is null then these are
-        // game properties, if not null then the node properties
-        if (parentNode == null) {
-          game.addProperty(key, String.join(",", list));
-        }
-        else {
-          rtrnNode.addProperty(key, String.join(",", list));
-        }
+    @Override
+    public void propertyValue(CharSequence value) {
+      if (!firstValue) {
+        propertyValue.append(valueSeparator);
+      }
+      propertyValue.append(value);
+      firstValue = false;
+    }
+
+    private void addProperty() {
+      if (key == null) {
+        return;
       }
-      else if ("C".equals(key) || "N".equals(key)) {
-        // nodes and the game can have a comment or name
-        // if parent is null it is a game property
+
+      String value = propertyValue.toString();
+      if ("AB".equals(key) || "AW".equals(key) || "C".equals(key) || "N".equals(key)) {
+        // nodes and the game can have these, if the parent is null
+        // then these are game properties
         if (parentNode == null) {
           game.addProperty(key, value);
         }
         else {
-          rtrnNode.addProperty(key, value);
+          node.addProperty(key, value);
         }
       }
       else if (generalProps.contains(key)) {
         game.addProperty(key, value);
       }
       else if (nodeProps.contains(key)) {
-        rtrnNode.addProperty(key, cleanValue(value));
+        node.addProperty(key, cleanValue(value));
       }
       else if ("L".equals(key)) {
         log.debug("Not handling " + key + " = " + value);
       }
       else {
-         log.error("Not able to parse property '" + m.group(1) + "'=" + m.group(2) + ". Found it from " + m.group(0));
-//        throw new SgfParseException("Ignoring property '" + m.group(1) + "'=" + m.group(2) + " Found it from '" + m.group(0) + "'");
+        log.error("Not able to parse property '" + key + "'=" + value);
       }
+      key = null;
     }
-
-    return rtrnNode;
   }
 
-  private String cleanValue(String value) {
-    String cleaned = value.replaceAll("\\\\;", ";");
-    return cleaned;
+  private static String cleanValue(String value) {
+    return value.indexOf('\\') < 0 ? value : value.replace("\\;", ";");
   }
-
-  private static String prepareToken(String token) {
-    token = token.replaceAll("\\\\\\[", "@@@@@");
-    token = token.replaceAll("\\\\\\]", "#####");
-
-    // Fix []\r[] line breaks in some SGF files
-    token = REGEX_REMOVE_LINE_BREAK.matcher(token).replaceAll("][");
-    return token;
-  }
-
-  public static String normaliseToken(String token) {
-    token = token.replaceAll("@@@@@", "\\\\\\[");
-    token = token.replaceAll("#####", "\\\\\\]");
-    return token;
-  }
-
-  private static final Pattern REGEX_REMOVE_LINE_BREAK = Pattern.compile("\\][\r\n]+\\[", Pattern.DOTALL);
 }
@@ -1,13 +1,13 @@
 package com.toomasr.sgf4j;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,7 +22,11 @@ public class Sgf {
   private Game game;
 
   private Sgf(String sgf) {
-    parser = new Parser(sgf);
+    this(new Parser(sgf));
+  }
+
+  private Sgf(Parser parser) {
+    this.parser = parser;
     game = parser.parse();
 
     game.postProcess();
@@ -54,19 +58,21 @@ public class Sgf {
   }
 
   public static Game createFromInputStream(InputStream in) {
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8").newDecoder()))) {
-      StringBuilder out = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        out.append(line);
-      }
-      Sgf rtrn = new Sgf(out.toString());
-      return rtrn.getGame();
+    try (Reader reader = new InputStreamReader(in, Charset.forName("UTF-8").newDecoder())) {
+      return createFromReader(reader);
     }
     catch (IOException e) {
       throw new RuntimeException(e);
     }
+  }
 
+  /**
+   * Parses the game while reading it, without keeping the whole SGF in memory.
+   * The reader is not closed.
+   */
+  public static Game createFromReader(Reader reader) {
+    Sgf rtrn = new Sgf(new Parser(reader));
+    return rtrn.getGame();
   }
 
   public static void writeToFile(Game game, Path destination) {
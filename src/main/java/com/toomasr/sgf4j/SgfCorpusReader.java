@@ -0,0 +1,469 @@
+package com.toomasr.sgf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.toomasr.sgf4j.parser.Game;
+
+/**
+ * Parses large collections of SGF files in parallel.
+ *
+ * Every file may hold one game or many concatenated ones. Files larger than
+ * {@link #MAP_THRESHOLD} are memory mapped instead of being read onto the heap.
+ * The games are split on the raw bytes and each one is decoded on its own, in
+ * the charset of the CA property of its root node, UTF-8 when there is none or
+ * it is not supported. A file whose first game is in a charset that may use the
+ * bytes of ( ) [ ] \ inside multi-byte characters, such as Shift_JIS or Big5,
+ * is decoded whole in that charset and split afterwards instead.
+ *
+ * The files are parsed on a ForkJoinPool. The walk over the files blocks while
+ * the files being parsed would take more than the in-flight limit, counting
+ * their bytes and their decoded text, so memory use stays bounded however large
+ * the collection is.
+ */
+public class SgfCorpusReader {
+  private static final Logger log = LoggerFactory.getLogger(SgfCorpusReader.class);
+
+  public static final long MAP_THRESHOLD = 256 * 1024;
+  private static final int PERMIT_SIZE = 1024;
+  // a decoded char takes two bytes, and no charset gives more chars than bytes
+  private static final int DECODED_BYTES_PER_BYTE = 2;
+
+  private final int parallelism;
+  private final long maxInFlightBytes;
+
+  /**
+   * Receives the outcome of every game. Called concurrently from the parsing
+   * threads.
+   */
+  public interface Listener {
+    /**
+     * @param file the file the game came from
+     * @param index position of the game in the file, starting from 0
+     * @param game the parsed and post processed game
+     */
+    void gameParsed(Path file, int index, Game game);
+
+    /**
+     * @param file the file that failed
+     * @param index position of the game in the file, -1 when the whole file
+     *          could not be read
+     * @param error the cause
+     */
+    void gameFailed(Path file, int index, Exception error);
+  }
+
+  /**
+   * @param parallelism number of parsing threads
+   * @param maxInFlightBytes upper bound of the memory taken by the files being
+   *          parsed at the same time, their bytes and their decoded text
+   */
+  public SgfCorpusReader(int parallelism, long maxInFlightBytes) {
+    this.parallelism = parallelism;
+    this.maxInFlightBytes = maxInFlightBytes;
+  }
+
+  public SgfCorpusReader() {
+    this(Runtime.getRuntime().availableProcessors(), 256L * 1024 * 1024);
+  }
+
+  /**
+   * Parses every .sgf file under root and waits until all of them are done.
+   *
+   * @param root a directory or a single file
+   * @param listener receiver of the games and the failures
+   * @return the totals of the run
+   */
+  public Statistics read(Path root, Listener listener) throws IOException {
+    List<Path> files;
+    try (Stream<Path> paths = Files.walk(root)) {
+      files = paths.filter(file -> file.getFileName().toString().toLowerCase().endsWith("sgf"))
+          .filter(Files::isRegularFile)
+          .collect(Collectors.toList());
+    }
+    return read(files, listener);
+  }
+
+  /**
+   * Parses the given files and waits until all of them are done.
+   */
+  public Statistics read(List<Path> files, Listener listener) {
+    int maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlightBytes / PERMIT_SIZE));
+    Semaphore inFlight = new Semaphore(maxPermits);
+    Statistics statistics = new Statistics();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    long start = System.nanoTime();
+
+    try {
+      for (Path file : files) {
+        long size;
+        try {
+          size = Files.size(file);
+        }
+        catch (IOException e) {
+          statistics.failures.increment();
+          listener.gameFailed(file, -1, e);
+          continue;
+        }
+
+        long inFlightBytes = size * (1 + DECODED_BYTES_PER_BYTE);
+        int permits = (int) Math.max(1, Math.min(maxPermits, inFlightBytes / PERMIT_SIZE));
+        inFlight.acquireUninterruptibly(permits);
+        pool.execute(() -> {
+          try {
+            readFile(file, listener, statistics);
+          }
+          finally {
+            inFlight.release(permits);
+          }
+        });
+      }
+    }
+    finally {
+      pool.shutdown();
+      try {
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+      catch (InterruptedException e) {
+        pool.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    statistics.elapsedNanos = System.nanoTime() - start;
+    return statistics;
+  }
+
+  private void readFile(Path file, Listener listener, Statistics statistics) {
+    ByteBuffer bytes;
+    try {
+      bytes = load(file);
+    }
+    catch (IOException e) {
+      statistics.failures.increment();
+      listener.gameFailed(file, -1, e);
+      return;
+    }
+    statistics.files.increment();
+    statistics.bytes.add(bytes.remaining());
+
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    Charset charset = detectCharset(bytes);
+    if (isAsciiTransparent(charset)) {
+      // every game is decoded when it is parsed, in its own charset
+      List<ByteBuffer> games = splitGames(bytes);
+      for (int i = 0; i < games.size(); i++) {
+        int index = i;
+        ByteBuffer game = games.get(i);
+        tasks.add(ForkJoinTask.adapt(() -> parseGame(file, index, game, detectCharset(game), listener, statistics)));
+      }
+    }
+    else {
+      CharBuffer content;
+      try {
+        content = decode(bytes, charset);
+      }
+      catch (CharacterCodingException e) {
+        statistics.failures.increment();
+        listener.gameFailed(file, -1, e);
+        return;
+      }
+
+      List<CharBuffer> games = splitGames(content);
+      for (int i = 0; i < games.size(); i++) {
+        int index = i;
+        CharBuffer game = games.get(i);
+        tasks.add(ForkJoinTask.adapt(() -> parseGame(file, index, game, listener, statistics)));
+      }
+    }
+    ForkJoinTask.invokeAll(tasks);
+  }
+
+  private static void parseGame(Path file, int index, ByteBuffer sgf, Charset charset, Listener listener, Statistics statistics) {
+    CharBuffer content;
+    try {
+      content = decode(sgf, charset);
+    }
+    catch (CharacterCodingException e) {
+      statistics.failures.increment();
+      listener.gameFailed(file, index, e);
+      return;
+    }
+    parseGame(file, index, content, listener, statistics);
+  }
+
+  private static void parseGame(Path file, int index, CharBuffer sgf, Listener listener, Statistics statistics) {
+    Game game;
+    try {
+      game = new Parser(sgf).parse();
+      game.postProcess();
+    }
+    catch (RuntimeException e) {
+      statistics.failures.increment();
+      listener.gameFailed(file, index, e);
+      return;
+    }
+    statistics.games.increment();
+    listener.gameParsed(file, index, game);
+  }
+
+  private static CharBuffer decode(ByteBuffer bytes, Charset charset) throws CharacterCodingException {
+    return charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+        .decode(bytes.duplicate());
+  }
+
+  private static ByteBuffer load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("File is too large: " + size + " bytes");
+      }
+      if (size >= MAP_THRESHOLD) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // keep reading
+      }
+      buffer.flip();
+      return buffer;
+    }
+  }
+
+  /**
+   * Looks for the CA property in the root node of the first game. The property
+   * name, the charset names and the SGF syntax are ASCII, so the bytes can be
+   * scanned before decoding.
+   *
+   * @param bytes the raw SGF, its position is not changed
+   * @return the charset named by CA, UTF-8 if there is none or it is unknown
+   */
+  public static Charset detectCharset(ByteBuffer bytes) {
+    boolean insideRoot = false;
+    boolean insideValue = false;
+    boolean escaped = false;
+    for (int i = bytes.position(); i < bytes.limit(); i++) {
+      byte chr = bytes.get(i);
+      if (insideValue) {
+        if (escaped) {
+          escaped = false;
+        }
+        else if ('\\' == chr) {
+          escaped = true;
+        }
+        else if (']' == chr) {
+          insideValue = false;
+        }
+      }
+      else if ('[' == chr) {
+        insideValue = true;
+      }
+      else if (';' == chr || '(' == chr || ')' == chr) {
+        if (insideRoot) {
+          // the root node is over
+          break;
+        }
+        insideRoot = ';' == chr;
+      }
+      else if (insideRoot && 'C' == chr && i + 1 < bytes.limit() && 'A' == bytes.get(i + 1)
+          && !isUpperCase(bytes.get(i - 1))) {
+        int j = i + 2;
+        while (j < bytes.limit() && Character.isWhitespace(bytes.get(j))) {
+          j++;
+        }
+        if (j < bytes.limit() && bytes.get(j) == '[') {
+          StringBuilder name = new StringBuilder();
+          for (j++; j < bytes.limit() && bytes.get(j) != ']'; j++) {
+            name.append((char) (bytes.get(j) & 0xFF));
+          }
+          return toCharset(name.toString().trim());
+        }
+      }
+    }
+    return StandardCharsets.UTF_8;
+  }
+
+  /**
+   * @return whether or not every byte below 0x80 stands for its ASCII
+   *         character, so that games can be split before they are decoded
+   */
+  static boolean isAsciiTransparent(Charset charset) {
+    String name = charset.name();
+    return name.equals("UTF-8") || name.equals("US-ASCII") || name.equals("GB2312")
+        || name.startsWith("ISO-8859-") || name.startsWith("windows-125")
+        || name.startsWith("EUC-") || name.startsWith("KOI8-");
+  }
+
+  private static Charset toCharset(String name) {
+    try {
+      if (Charset.isSupported(name)) {
+        return Charset.forName(name);
+      }
+    }
+    catch (IllegalCharsetNameException e) {
+      // fall through to the default
+    }
+    log.warn("Unsupported charset '" + name + "', using UTF-8");
+    return StandardCharsets.UTF_8;
+  }
+
+  private static boolean isUpperCase(byte b) {
+    return b >= 'A' && b <= 'Z';
+  }
+
+  /**
+   * Splits the content into top level game trees. Parentheses inside property
+   * values do not count.
+   *
+   * @return views of the games, sharing the content
+   */
+  static List<CharBuffer> splitGames(CharBuffer content) {
+    List<int[]> bounds = findGames(content.position(), content.limit(), content::get);
+    List<CharBuffer> games = new ArrayList<>(bounds.size());
+    for (int[] game : bounds) {
+      CharBuffer view = content.duplicate();
+      view.limit(game[1]).position(game[0]);
+      games.add(view.slice());
+    }
+    return games;
+  }
+
+  /**
+   * Splits raw SGF into top level game trees, like
+   * {@link #splitGames(CharBuffer)}. Only sound for the charsets of
+   * {@link #isAsciiTransparent(Charset)}.
+   *
+   * @return views of the games, sharing the content
+   */
+  static List<ByteBuffer> splitGames(ByteBuffer content) {
+    List<int[]> bounds = findGames(content.position(), content.limit(), content::get);
+    List<ByteBuffer> games = new ArrayList<>(bounds.size());
+    for (int[] game : bounds) {
+      ByteBuffer view = content.duplicate();
+      view.limit(game[1]).position(game[0]);
+      games.add(view.slice());
+    }
+    return games;
+  }
+
+  /**
+   * @param symbolAt the character or byte at an index of the content
+   * @return the start and end index of every game
+   */
+  private static List<int[]> findGames(int start, int end, IntUnaryOperator symbolAt) {
+    List<int[]> games = new ArrayList<>(1);
+    int depth = 0;
+    int gameStart = -1;
+    boolean insideValue = false;
+    boolean escaped = false;
+
+    for (int i = start; i < end; i++) {
+      int chr = symbolAt.applyAsInt(i);
+      if (insideValue) {
+        if (escaped) {
+          escaped = false;
+        }
+        else if ('\\' == chr) {
+          escaped = true;
+        }
+        else if (']' == chr) {
+          insideValue = false;
+        }
+      }
+      else if ('[' == chr) {
+        insideValue = true;
+      }
+      else if ('(' == chr) {
+        if (depth++ == 0) {
+          gameStart = i;
+        }
+      }
+      else if (')' == chr && depth > 0) {
+        if (--depth == 0) {
+          games.add(new int[] { gameStart, i + 1 });
+        }
+      }
+    }
+
+    // an unterminated game is still handed to the parser
+    if (depth > 0) {
+      games.add(new int[] { gameStart, end });
+    }
+    return games;
+  }
+
+  /**
+   * Totals of one {@link SgfCorpusReader#read} run.
+   */
+  public static class Statistics {
+    private final LongAdder files = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile long elapsedNanos;
+
+    public long getFiles() {
+      return files.sum();
+    }
+
+    public long getGames() {
+      return games.sum();
+    }
+
+    /**
+     * @return number of games and files that could not be parsed
+     */
+    public long getFailures() {
+      return failures.sum();
+    }
+
+    public long getBytes() {
+      return bytes.sum();
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    public double getGamesPerSecond() {
+      return elapsedNanos == 0 ? 0 : getGames() / (elapsedNanos / 1e9);
+    }
+
+    public double getBytesPerSecond() {
+      return elapsedNanos == 0 ? 0 : getBytes() / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d files, %d games, %d failures, %d bytes in %.2f s (%.0f games/s, %.1f MB/s)",
+          getFiles(), getGames(), getFailures(), getBytes(), elapsedNanos / 1e9,
+          getGamesPerSecond(), getBytesPerSecond() / 1e6);
+    }
+  }
+}
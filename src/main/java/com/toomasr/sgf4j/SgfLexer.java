@@ -0,0 +1,146 @@
+package com.toomasr.sgf4j;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Single pass, character level SGF lexer.
+ *
+ * The input is read through one fixed size buffer and the structure of the
+ * game is reported to a {@link Listener} as it is found. Property identifiers
+ * and values are collected into reused builders, no string is created per node
+ * or per token.
+ *
+ * Values may contain any character, including ;() and line breaks. A backslash
+ * escapes the next character and is kept in the value, as the rest of sgf4j
+ * expects. Whitespace between an identifier and its values, and between the
+ * values of one property, is skipped.
+ */
+public class SgfLexer {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Readable input;
+  private final CharBuffer buffer;
+  private final StringBuilder identifier;
+  private final StringBuilder value;
+
+  public interface Listener {
+    void gameTreeStart();
+
+    void gameTreeEnd();
+
+    void nodeStart();
+
+    void nodeEnd();
+
+    /**
+     * @param identifier the property identifier, only valid during the call
+     */
+    void propertyStart(CharSequence identifier);
+
+    /**
+     * @param value one value of the current property, only valid during the call
+     */
+    void propertyValue(CharSequence value);
+  }
+
+  /**
+   * @param input a Reader, a CharBuffer or any other source of characters
+   */
+  public SgfLexer(Readable input) {
+    this.input = input;
+    this.buffer = CharBuffer.allocate(BUFFER_SIZE);
+    this.identifier = new StringBuilder(8);
+    this.value = new StringBuilder(64);
+  }
+
+  public void lex(Listener listener) throws IOException {
+    boolean insideNode = false;
+    boolean insideValue = false;
+    boolean escaped = false;
+    // whether the collected identifier already has values
+    boolean identifierUsed = false;
+    // values without identifier are skipped
+    boolean reportValue = false;
+    char previous = 0;
+
+    while (input.read(buffer) >= 0 || buffer.position() > 0) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        char chr = buffer.get();
+
+        if (insideValue) {
+          if (escaped) {
+            escaped = false;
+            value.append(chr);
+          }
+          else if ('\\' == chr) {
+            escaped = true;
+            value.append(chr);
+          }
+          else if (']' == chr) {
+            insideValue = false;
+            if (reportValue) {
+              listener.propertyValue(value);
+            }
+          }
+          else {
+            value.append(chr);
+          }
+        }
+        else if ('[' == chr) {
+          insideValue = true;
+          value.setLength(0);
+          reportValue = insideNode && identifier.length() > 0;
+          if (reportValue && !identifierUsed) {
+            listener.propertyStart(identifier);
+          }
+          identifierUsed = true;
+        }
+        else if (';' == chr && previous != '\\') {
+          if (insideNode) {
+            listener.nodeEnd();
+          }
+          listener.nodeStart();
+          insideNode = true;
+          identifier.setLength(0);
+          identifierUsed = false;
+        }
+        else if ('(' == chr || ')' == chr) {
+          if (insideNode) {
+            listener.nodeEnd();
+            insideNode = false;
+          }
+          if ('(' == chr) {
+            listener.gameTreeStart();
+          }
+          else {
+            listener.gameTreeEnd();
+          }
+        }
+        else if (isLetter(chr)) {
+          if (identifierUsed) {
+            identifier.setLength(0);
+            identifierUsed = false;
+          }
+          identifier.append(chr);
+        }
+        else if (!Character.isWhitespace(chr)) {
+          identifier.setLength(0);
+          identifierUsed = false;
+        }
+
+        previous = chr;
+      }
+      buffer.clear();
+    }
+
+    if (insideNode) {
+      listener.nodeEnd();
+    }
+  }
+
+  private static boolean isLetter(char chr) {
+    return (chr >= 'A' && chr <= 'Z') || (chr >= 'a' && chr <= 'z');
+  }
+}
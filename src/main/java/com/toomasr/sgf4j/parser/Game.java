@@ -1,10 +1,12 @@
 package com.toomasr.sgf4j.parser;
 
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +20,7 @@ public class Game {
   private GameNode rootNode;
   private int noMoves = 0;
   private int noNodes = 0;
+  private boolean visualDepthCalculated = false;
 
   // great for debugging
   private String originalSgf = null;
@@ -102,34 +105,58 @@ public class Game {
 
     // number all the moves
     numberTheMoves(getRootNode(), 1, 0);
+  }
 
-    // calculate the visual depth
+  /**
+   * Calculates the visual depth of the nodes, see {@link VisualDepthHelper}.
+   * Only a GUI needs it, so it is not part of {@link #postProcess()} and is
+   * done on the first call only.
+   */
+  public synchronized void calculateVisualDepth() {
+    if (visualDepthCalculated) {
+      return;
+    }
     VisualDepthHelper helper = new VisualDepthHelper();
     helper.calculateVisualDepth(getLastMove(), 1);
+    visualDepthCalculated = true;
   }
 
   private void numberTheMoves(GameNode startNode, int moveNo, int nodeNo) {
-    GameNode node = startNode;
-    int nextMoveNo = moveNo;
-    int nextNodeNo = nodeNo;
-
-    if (node.isMove()) {
-      startNode.setMoveNo(moveNo);
-      nextMoveNo++;
+    // an explicit stack of lines to number, recursing per node would overflow
+    // the call stack on long games
+    Deque<NumberingTask> tasks = new ArrayDeque<>();
+    tasks.push(new NumberingTask(startNode, moveNo, nodeNo));
+
+    while (!tasks.isEmpty()) {
+      NumberingTask task = tasks.pop();
+      int nextMoveNo = task.moveNo;
+      int nextNodeNo = task.nodeNo;
+
+      for (GameNode node = task.node; node != null; node = node.getNextNode()) {
+        if (node.isMove()) {
+          node.setMoveNo(nextMoveNo);
+          nextMoveNo++;
+        }
+
+        node.setNodeNo(nextNodeNo);
+        nextNodeNo++;
+
+        for (Iterator<GameNode> ite = node.getChildren().iterator(); ite.hasNext();) {
+          tasks.push(new NumberingTask(ite.next(), nextMoveNo, nextNodeNo));
+        }
+      }
     }
+  }
 
-    startNode.setNodeNo(nodeNo);
-    nextNodeNo++;
+  private static class NumberingTask {
+    private final GameNode node;
+    private final int moveNo;
+    private final int nodeNo;
 
-    if (node.getNextNode() != null) {
-      numberTheMoves(node.getNextNode(), nextMoveNo, nextNodeNo);
-    }
-
-    if (node.hasChildren()) {
-      for (Iterator<GameNode> ite = node.getChildren().iterator(); ite.hasNext();) {
-        GameNode childNode = ite.next();
-        numberTheMoves(childNode, nextMoveNo, nextNodeNo);
-      }
+    NumberingTask(GameNode node, int moveNo, int nodeNo) {
+      this.node = node;
+      this.moveNo = moveNo;
+      this.nodeNo = nodeNo;
     }
   }
 
@@ -197,7 +224,7 @@ public class Game {
     }
 
     // alrighty, lets check alllllll the moves
-    boolean allSame = compareAllNodes(this, this.getRootNode(), otherGame, otherGame.getRootNode());
+    boolean allSame = compareAllNodes(this.getRootNode(), otherGame.getRootNode());
     if (!allSame) {
       return false;
     }
@@ -205,36 +232,41 @@ public class Game {
     return true;
   }
 
-  private boolean compareAllNodes(Game game, GameNode node, Game otherGame, GameNode otherNode) {
-    if (!node.equals(otherNode)) {
-      return false;
-    }
+  private boolean compareAllNodes(GameNode startNode, GameNode otherStartNode) {
+    Deque<GameNode[]> pairs = new ArrayDeque<>();
+    pairs.push(new GameNode[] { startNode, otherStartNode });
 
-    GameNode nextNode = node.getNextNode();
-    GameNode nextOtherNode = otherNode.getNextNode();
-    if (nextNode != null) {
-      compareAllNodes(game, nextNode, otherGame, nextOtherNode);
-    }
-    // if nextNode is null lets make sure the other one is too
-    else if (nextNode != nextOtherNode) {
-      return false;
-    }
+    while (!pairs.isEmpty()) {
+      GameNode[] pair = pairs.pop();
+      GameNode node = pair[0];
+      GameNode otherNode = pair[1];
 
-    Set<GameNode> children = node.getChildren();
-    Set<GameNode> otherChildren = otherNode.getChildren();
+      if (!node.equals(otherNode)) {
+        return false;
+      }
 
-    if (!children.equals(otherChildren)) {
-      return false;
-    }
+      // the lines continuing through the next nodes have never been part of
+      // the result, only the ones reached through the children
+      GameNode nextNode = node.getNextNode();
+      GameNode nextOtherNode = otherNode.getNextNode();
+      // if nextNode is null lets make sure the other one is too
+      if (nextNode == null && nextOtherNode != null) {
+        return false;
+      }
+
+      List<GameNode> children = node.getChildren();
+      List<GameNode> otherChildren = otherNode.getChildren();
 
-    Iterator<GameNode> ite = children.iterator();
-    Iterator<GameNode> otherIte = otherChildren.iterator();
-    for (; ite.hasNext();) {
-      GameNode childNode = ite.next();
-      GameNode otherChildNode = otherIte.next();
-      if (!compareAllNodes(game, childNode, otherGame, otherChildNode)) {
+      // the children themselves are compared once they are popped
+      if (children.size() != otherChildren.size()) {
         return false;
       }
+
+      Iterator<GameNode> ite = children.iterator();
+      Iterator<GameNode> otherIte = otherChildren.iterator();
+      for (; ite.hasNext();) {
+        pairs.push(new GameNode[] { ite.next(), otherIte.next() });
+      }
     }
 
     return true;
@@ -1,19 +1,78 @@
 package com.toomasr.sgf4j.parser;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
 
 import com.toomasr.sgf4j.board.StoneState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A node of the game tree.
+ *
+ * Large collections keep millions of nodes in memory, so the layout is kept
+ * small. The children are a plain array in the order of the SGF, the common
+ * properties live in a slot array indexed by {@link CommonProperty} and only
+ * the rare ones need a map.
+ */
 public class GameNode implements Comparable<GameNode>, Cloneable {
   private static final Logger log = LoggerFactory.getLogger(GameNode.class);
 
-  private final Set<GameNode> children = new TreeSet<>();
-  private final Map<String, String> properties = new HashMap<>();
+  private static final GameNode[] NO_CHILDREN = new GameNode[0];
+  private static final String[] NO_VALUES = new String[0];
+  private static final CommonProperty[] COMMON_PROPERTIES = CommonProperty.values();
+
+  // move values like "dd" are shared between all nodes, and so are the slot
+  // arrays of the nodes that only have a move
+  private static final String[][] moveValues = new String[26][26];
+  private static final String[][][] blackMoveSlots = new String[26][26][];
+  private static final String[][][] whiteMoveSlots = new String[26][26][];
+
+  static {
+    for (int i = 0; i < 26; i++) {
+      for (int j = 0; j < 26; j++) {
+        moveValues[i][j] = new String(new char[] { (char) ('a' + i), (char) ('a' + j) });
+        blackMoveSlots[i][j] = new String[] { moveValues[i][j] };
+        whiteMoveSlots[i][j] = new String[] { null, moveValues[i][j] };
+      }
+    }
+  }
+
+  /**
+   * Properties most of the nodes have. The moves come first so that a move
+   * node needs the shortest slot array.
+   */
+  private enum CommonProperty {
+    B, W, C, N, AB, AW;
+
+    static CommonProperty forKey(String key) {
+      switch (key) {
+        case "B":
+          return B;
+        case "W":
+          return W;
+        case "C":
+          return C;
+        case "N":
+          return N;
+        case "AB":
+          return AB;
+        case "AW":
+          return AW;
+        default:
+          return null;
+      }
+    }
+  }
+
+  private GameNode[] children = NO_CHILDREN;
+  // indexed by CommonProperty.ordinal(), only as long as the last used slot.
+  // May be shared with other nodes, so it is copied on every change
+  private String[] commonValues = NO_VALUES;
+  private Map<String, String> otherProperties = null;
 
   private int moveNo = -1;
   private int nodeNo = -1;
@@ -33,34 +92,129 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
   }
 
   public void addProperty(String key, String value) {
-    properties.put(key, value);
+    CommonProperty property = CommonProperty.forKey(key);
+    if (property == null) {
+      if (otherProperties == null) {
+        otherProperties = new HashMap<>(4);
+      }
+      otherProperties.put(key.intern(), value);
+      return;
+    }
+
+    String[] values = Arrays.copyOf(commonValues, Math.max(commonValues.length, property.ordinal() + 1));
+    values[property.ordinal()] = value;
+    commonValues = shareMoveSlots(values);
+  }
+
+  /*
+   * Returns the shared slot array when the node only has a move, otherwise the
+   * argument with the move value replaced by the shared one.
+   */
+  private static String[] shareMoveSlots(String[] values) {
+    for (int i = CommonProperty.B.ordinal(); i <= CommonProperty.W.ordinal() && i < values.length; i++) {
+      String value = values[i];
+      if (value == null || value.length() != 2) {
+        continue;
+      }
+      int x = value.charAt(0) - 'a';
+      int y = value.charAt(1) - 'a';
+      if (x < 0 || x >= 26 || y < 0 || y >= 26) {
+        continue;
+      }
+
+      if (values.length == 1) {
+        return blackMoveSlots[x][y];
+      }
+      else if (values.length == 2 && values[0] == null) {
+        return whiteMoveSlots[x][y];
+      }
+      values[i] = moveValues[x][y];
+    }
+    return values;
+  }
+
+  private String getCommonValue(CommonProperty property) {
+    return property.ordinal() < commonValues.length ? commonValues[property.ordinal()] : null;
   }
 
   public String getProperty(String key) {
-    return properties.get(key);
+    CommonProperty property = CommonProperty.forKey(key);
+    if (property != null) {
+      return getCommonValue(property);
+    }
+    return otherProperties == null ? null : otherProperties.get(key);
   }
 
   public String getProperty(String key, String defaultValue) {
-    if (properties.get(key) == null)
+    String value = getProperty(key);
+    if (value == null)
       return defaultValue;
     else
-      return properties.get(key);
+      return value;
   }
 
+  /**
+   * @return a copy of the properties of this node
+   */
   public Map<String, String> getProperties() {
+    Map<String, String> properties = otherProperties == null ? new HashMap<>() : new HashMap<>(otherProperties);
+    for (int i = 0; i < commonValues.length; i++) {
+      if (commonValues[i] != null) {
+        properties.put(COMMON_PROPERTIES[i].name(), commonValues[i]);
+      }
+    }
     return properties;
   }
 
+  private boolean hasProperties() {
+    if (otherProperties != null && !otherProperties.isEmpty())
+      return true;
+    for (String value : commonValues) {
+      if (value != null)
+        return true;
+    }
+    return false;
+  }
+
+  /*
+   * Same value as getProperties().hashCode() without building the map.
+   */
+  private int propertiesHashCode() {
+    int hash = otherProperties == null ? 0 : otherProperties.hashCode();
+    for (int i = 0; i < commonValues.length; i++) {
+      if (commonValues[i] != null) {
+        hash += COMMON_PROPERTIES[i].name().hashCode() ^ commonValues[i].hashCode();
+      }
+    }
+    return hash;
+  }
+
+  private boolean propertiesEqual(GameNode other) {
+    int length = Math.max(commonValues.length, other.commonValues.length);
+    for (int i = 0; i < length; i++) {
+      String value = i < commonValues.length ? commonValues[i] : null;
+      String otherValue = i < other.commonValues.length ? other.commonValues[i] : null;
+      if (value == null ? otherValue != null : !value.equals(otherValue))
+        return false;
+    }
+
+    boolean noOthers = otherProperties == null || otherProperties.isEmpty();
+    boolean otherNoOthers = other.otherProperties == null || other.otherProperties.isEmpty();
+    if (noOthers || otherNoOthers)
+      return noOthers == otherNoOthers;
+    return otherProperties.equals(other.otherProperties);
+  }
+
   public boolean isMove() {
-    return properties.get("W") != null || properties.get("B") != null;
+    return getCommonValue(CommonProperty.W) != null || getCommonValue(CommonProperty.B) != null;
   }
 
   public String getMoveString() {
-    if (properties.get("W") != null) {
-      return properties.get("W");
+    if (getCommonValue(CommonProperty.W) != null) {
+      return getCommonValue(CommonProperty.W);
     }
-    else if (properties.get("B") != null) {
-      return properties.get("B");
+    else if (getCommonValue(CommonProperty.B) != null) {
+      return getCommonValue(CommonProperty.B);
     }
     else {
       //throw new RuntimeException("Unable to extract move from " + properties.toString());
@@ -75,21 +229,21 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
   }
 
   public boolean isWhite() {
-    return properties.get("W") != null;
+    return getCommonValue(CommonProperty.W) != null;
   }
 
   public boolean isBlack() {
-    return properties.get("B") != null;
+    return getCommonValue(CommonProperty.B) != null;
   }
 
   public String getColor() {
-    if (properties.get("W") != null)
+    if (getCommonValue(CommonProperty.W) != null)
       return "W";
     return "B";
   }
 
   public StoneState getColorAsEnum() {
-    if (properties.get("W") != null)
+    if (getCommonValue(CommonProperty.W) != null)
       return StoneState.WHITE;
     return StoneState.BLACK;
   }
@@ -102,20 +256,27 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
       return;
     }
 
-    if (children.contains(node)) {
-      log.warn("Node '" + node + "' already exists for " + this);
-//      throw new RuntimeException("Node '" + node + "' already exists for " + this);
-    } else {
-      children.add(node);
+    for (GameNode child : children) {
+      if (child.compareTo(node) == 0) {
+        log.warn("Node '" + node + "' already exists for " + this);
+//        throw new RuntimeException("Node '" + node + "' already exists for " + this);
+        return;
+      }
     }
+    children = Arrays.copyOf(children, children.length + 1);
+    children[children.length - 1] = node;
   }
 
   public boolean hasChildren() {
-    return children.size() > 0;
+    return children.length > 0;
   }
 
-  public Set<GameNode> getChildren() {
-    return children;
+  /**
+   * @return the variations branching off this node in the order of the SGF,
+   *         the main line continues with {@link #getNextNode()}
+   */
+  public List<GameNode> getChildren() {
+    return Collections.unmodifiableList(Arrays.asList(children));
   }
 
   public GameNode getParentNode() {
@@ -127,7 +288,8 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
   }
 
   public String toString() {
-    return "Props: keys=" + properties.keySet().toString() + " all=" + properties.toString() + " moveNo: " + moveNo + " children: " + children.size() + " vdepth: " + visualDepth;
+    Map<String, String> properties = getProperties();
+    return "Props: keys=" + properties.keySet().toString() + " all=" + properties.toString() + " moveNo: " + moveNo + " children: " + children.length + " vdepth: " + visualDepth;
   }
 
   public void setMoveNo(int i) {
@@ -139,7 +301,7 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
   }
 
   public boolean isEmpty() {
-    if (properties.isEmpty() && children.size() == 0)
+    if (!hasProperties() && children.length == 0)
       return true;
     return false;
   }
@@ -153,14 +315,23 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
   public int hashCode() {
     final int prime = 31;
     int result = 1;
-    result = prime * result + ((children == null) ? 0 : children.hashCode());
+    result = prime * result + childrenHashCode();
     result = prime * result + moveNo;
-    result = prime * result + ((parentNode == null) ? 0 : parentNode.properties.hashCode());
-    result = prime * result + ((properties == null) ? 0 : properties.hashCode());
+    result = prime * result + ((parentNode == null) ? 0 : parentNode.propertiesHashCode());
+    result = prime * result + propertiesHashCode();
     result = prime * result + visualDepth;
     return result;
   }
 
+  private int childrenHashCode() {
+    // a sum, the same as the set of children used to give
+    int hash = 0;
+    for (GameNode child : children) {
+      hash += child.hashCode();
+    }
+    return hash;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (this == obj)
@@ -169,26 +340,29 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
       return false;
     if (getClass() != obj.getClass())
       return false;
+
+    // the parents have to be equal too, walk up in a loop as the chain of
+    // parents is as long as the game
+    GameNode node = this;
     GameNode other = (GameNode) obj;
-    if (children == null) {
-      if (other.children != null)
+    while (node != other) {
+      if (node == null || other == null)
+        return false;
+      if (!node.equalsIgnoringParent(other))
         return false;
+      node = node.parentNode;
+      other = other.parentNode;
     }
-    else if (!children.equals(other.children))
+
+    return true;
+  }
+
+  private boolean equalsIgnoringParent(GameNode other) {
+    if (!childrenEqual(other))
       return false;
     if (moveNo != other.moveNo)
       return false;
-    if (parentNode == null) {
-      if (other.parentNode != null)
-        return false;
-    }
-    else if (!parentNode.equals(other.parentNode))
-      return false;
-    if (properties == null) {
-      if (other.properties != null)
-        return false;
-    }
-    else if (!properties.equals(other.properties))
+    if (!propertiesEqual(other))
       return false;
     if (visualDepth != other.visualDepth)
       return false;
@@ -196,6 +370,20 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
     return true;
   }
 
+  /*
+   * The children are matched with compareTo(), calling equals() on them
+   * would walk back up to this node.
+   */
+  private boolean childrenEqual(GameNode other) {
+    if (children.length != other.children.length)
+      return false;
+    for (int i = 0; i < children.length; i++) {
+      if (children[i].compareTo(other.children[i]) != 0)
+        return false;
+    }
+    return true;
+  }
+
   @Override
   public int compareTo(GameNode o) {
     if (this.visualDepth < o.visualDepth)
@@ -223,6 +411,10 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
     this.visualDepth = visualDepth;
   }
 
+  /**
+   * @return the depth to show this node at in a tree view, -1 until
+   *         {@link Game#calculateVisualDepth()} has been called
+   */
   public int getVisualDepth() {
     return visualDepth;
   }
@@ -256,8 +448,8 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
    * @return
    */
   public boolean isPlacementMove() {
-    return properties.get("W") == null && properties.get("B") == null
-        && (properties.get("AB") != null || properties.get("AW") != null);
+    return getCommonValue(CommonProperty.W) == null && getCommonValue(CommonProperty.B) == null
+        && (getCommonValue(CommonProperty.AB) != null || getCommonValue(CommonProperty.AW) != null);
   }
 
   public void setNodeNo(int nodeNo) {
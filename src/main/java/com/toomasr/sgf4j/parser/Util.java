@@ -5,7 +5,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public class Util {
   //@formatter:off
@@ -65,7 +64,7 @@ public class Util {
 
   public static void printNodeTree(GameNode rootNode) {
     if (rootNode.hasChildren()) {
-      Set<GameNode> children = rootNode.getChildren();
+      List<GameNode> children = rootNode.getChildren();
       for (Iterator<GameNode> ite = children.iterator(); ite.hasNext();) {
         GameNode node = ite.next();
         printNodeTree(node);
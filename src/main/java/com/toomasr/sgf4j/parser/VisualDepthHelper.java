@@ -1,6 +1,8 @@
 package com.toomasr.sgf4j.parser;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 
@@ -51,22 +53,39 @@ public class VisualDepthHelper {
     this.depthMatrix = depthMatrix;
   }
 
-  private void calculateVisualDepthFor(GameNode node, List<List<Integer>> depthMatrix, int minDepth, int variationDepth) {
-    int depth = findVisualDepthForNode(node, depthMatrix, minDepth, variationDepth);
-    GameNode lastNodeInLine = setVisualDepthForLine(node, depth);
-
-    GameNode activeNode = lastNodeInLine;
-    do {
-      if (activeNode.hasChildren()) {
-        for (Iterator<GameNode> ite = activeNode.getChildren().iterator(); ite.hasNext();) {
-          calculateVisualDepthFor(ite.next(), depthMatrix, depth + 1, variationDepth);
+  private void calculateVisualDepthFor(GameNode branch, List<List<Integer>> depthMatrix, int minDepth, int variationDepth) {
+    // the branches to place are kept on an explicit stack instead of
+    // recursing, they are visited in the same order as a depth first
+    // recursion would visit them
+    Deque<GameNode> branches = new ArrayDeque<>();
+    Deque<Integer> minDepths = new ArrayDeque<>();
+    branches.push(branch);
+    minDepths.push(minDepth);
+
+    List<GameNode> subBranches = new ArrayList<>();
+    while (!branches.isEmpty()) {
+      GameNode node = branches.pop();
+      int depth = findVisualDepthForNode(node, depthMatrix, minDepths.pop(), variationDepth);
+      GameNode lastNodeInLine = setVisualDepthForLine(node, depth);
+
+      subBranches.clear();
+      GameNode activeNode = lastNodeInLine;
+      do {
+        if (activeNode.hasChildren()) {
+          subBranches.addAll(activeNode.getChildren());
+        }
+        if (activeNode == node) {
+          break;
         }
       }
-      if (activeNode.equals(node)) {
-        break;
+      while ((activeNode = activeNode.getPrevNode()) != null);
+
+      // pushed in reverse so that the first one is placed first
+      for (int i = subBranches.size() - 1; i >= 0; i--) {
+        branches.push(subBranches.get(i));
+        minDepths.push(depth + 1);
       }
     }
-    while ((activeNode = activeNode.getPrevNode()) != null);
   }
 
   private void initializeMainLine(GameNode lastNode, List<List<Integer>> depthMatrix) {
@@ -0,0 +1,40 @@
+package com.toomasr.sgf4j.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.toomasr.sgf4j.SgfCorpusReader;
+import com.toomasr.sgf4j.parser.Game;
+
+/**
+ * Parses every SGF file under a directory in parallel, printing the failures
+ * and the totals.
+ *
+ * Usage: BulkParse directory [threads] [max in-flight MB]
+ */
+public class BulkParse {
+  public static void main(String[] args) throws IOException {
+    Path path = Paths.get(args[0]);
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    long maxInFlight = (args.length > 2 ? Long.parseLong(args[2]) : 256) * 1024 * 1024;
+    System.out.println(path.toAbsolutePath());
+
+    SgfCorpusReader reader = new SgfCorpusReader(threads, maxInFlight);
+    SgfCorpusReader.Statistics statistics = reader.read(path, new SgfCorpusReader.Listener() {
+      @Override
+      public void gameParsed(Path file, int index, Game game) {
+      }
+
+      @Override
+      public void gameFailed(Path file, int index, Exception error) {
+        synchronized (System.out) {
+          System.out.format("Parsing %s, game %d\n", file, index);
+          error.printStackTrace(System.out);
+        }
+      }
+    });
+
+    System.out.println(statistics);
+  }
+}
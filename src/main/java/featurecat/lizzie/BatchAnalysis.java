@@ -0,0 +1,485 @@
+package featurecat.lizzie;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.toomasr.sgf4j.Sgf;
+import com.toomasr.sgf4j.parser.Game;
+import featurecat.lizzie.analysis.AnalysisEnginePool;
+import featurecat.lizzie.analysis.BoardStateSynchronizer;
+import featurecat.lizzie.analysis.GtpClientBuilder;
+import featurecat.lizzie.analysis.MoveData;
+import featurecat.lizzie.rules.*;
+import featurecat.lizzie.util.GenericLizzieException;
+import featurecat.lizzie.util.ThreadPoolUtil;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Analyzes SGF games without any window, e.g. overnight on a server.
+ * <p>
+ * Every position of the main line of every game is analyzed on an {@link AnalysisEnginePool} until a visit or time
+ * budget is spent. Each game gets an annotated SGF, with the analysis as comments and variations, and a short winrate
+ * and blunder summary. Only a bounded number of positions are queued on the engines at a time. Every analyzed
+ * position is appended to a progress file, so an interrupted run goes on where it stopped when started again, and
+ * games already written are skipped.
+ * <p>
+ * Usage: Lizzie --batch [options] file-or-directory...
+ */
+public class BatchAnalysis {
+    private static final Logger logger = LogManager.getLogger(BatchAnalysis.class);
+
+    private static final String ANALYZED_SUFFIX = ".analyzed.sgf";
+    private static final String SUMMARY_SUFFIX = ".summary.txt";
+    private static final String PROGRESS_SUFFIX = ".progress";
+    private static final long REPORT_INTERVAL_SECONDS = 30;
+    private static final int WINRATES_PER_SUMMARY_LINE = 20;
+
+    private static final String USAGE = String.join("\n",
+            "Usage: Lizzie --batch [options] file-or-directory...",
+            "Analyzes every position of the SGF games given, or found in the directories given.",
+            "  --engine <command line>  engine to run, the one of the settings by default",
+            "  --engines <count>        number of engines run side by side, 1 by default",
+            "  --visits <count>         visits per position, 1000 by default, 0 for no limit",
+            "  --time <seconds>         seconds per position at most, no limit by default",
+            "  --blunder <percent>      winrate drop reported as a blunder, 10 by default",
+            "  --pending <count>        positions queued on the engines at most, twice the engines by default",
+            "  --output <directory>     where to write the results, next to each game by default");
+
+    private String engineCommandLine = Lizzie.optionSetting.getLeelazCommandLine();
+    private int engineCount = 1;
+    private int maxVisits = 1000;
+    private long maxMillis = 0;
+    private double blunderThreshold = 10.0;
+    private int maxPendingPositionCount = 0;
+    private Path outputDirectory = null;
+    private final List<Path> gameFiles = new ArrayList<>();
+
+    private AnalysisEnginePool enginePool;
+    private Semaphore pendingPositionPermits;
+    // Writes the results, one game event at a time
+    private final ExecutorService outputExecutor = Executors.newSingleThreadExecutor();
+    private final Phaser runningGames = new Phaser(1);
+    private final AtomicInteger analyzedPositionCount = new AtomicInteger();
+    private final AtomicInteger finishedGameCount = new AtomicInteger();
+    private final AtomicInteger failedGameCount = new AtomicInteger();
+    private long startTime;
+    private long lastReportTime;
+    private int lastReportPositionCount;
+
+    public static void main(String[] args) {
+        BatchAnalysis batchAnalysis = new BatchAnalysis();
+        try {
+            batchAnalysis.parseArguments(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        System.exit(batchAnalysis.run());
+    }
+
+    private void parseArguments(String[] args) throws IOException {
+        for (int i = 0; i < args.length; ++i) {
+            String argument = args[i];
+            if (argument.startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + argument);
+                }
+                String value = args[++i];
+                try {
+                    switch (argument) {
+                        case "--engine":
+                            engineCommandLine = value;
+                            break;
+                        case "--engines":
+                            engineCount = Integer.parseInt(value);
+                            break;
+                        case "--visits":
+                            maxVisits = Integer.parseInt(value);
+                            break;
+                        case "--time":
+                            maxMillis = Math.round(Double.parseDouble(value) * 1000);
+                            break;
+                        case "--blunder":
+                            blunderThreshold = Double.parseDouble(value);
+                            break;
+                        case "--pending":
+                            maxPendingPositionCount = Integer.parseInt(value);
+                            break;
+                        case "--output":
+                            outputDirectory = Paths.get(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown option " + argument);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value of " + argument + ": " + value);
+                }
+            } else {
+                addGameFiles(Paths.get(argument));
+            }
+        }
+
+        if (gameFiles.isEmpty()) {
+            throw new IllegalArgumentException("No game to analyze.");
+        }
+        if (engineCount < 1) {
+            throw new IllegalArgumentException("At least one engine is needed.");
+        }
+        if (maxVisits <= 0 && maxMillis <= 0) {
+            throw new IllegalArgumentException("A visit or time limit is needed.");
+        }
+        if (StringUtils.isBlank(engineCommandLine)) {
+            throw new IllegalArgumentException("No engine command line in the settings, give one with --engine.");
+        }
+        if (maxPendingPositionCount <= 0) {
+            maxPendingPositionCount = 2 * engineCount;
+        }
+        if (outputDirectory != null) {
+            Files.createDirectories(outputDirectory);
+        }
+    }
+
+    private void addGameFiles(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                gameFiles.addAll(files
+                        .filter(file -> isGameFile(file.getFileName().toString()))
+                        .sorted()
+                        .collect(Collectors.toList()));
+            }
+        } else if (Files.isRegularFile(path)) {
+            gameFiles.add(path);
+        } else {
+            throw new IllegalArgumentException("No such file or directory: " + path);
+        }
+    }
+
+    private static boolean isGameFile(String fileName) {
+        String lowerCaseName = fileName.toLowerCase();
+        return lowerCaseName.endsWith(".sgf") && !lowerCaseName.endsWith(ANALYZED_SUFFIX);
+    }
+
+    /**
+     * @return the process exit code
+     */
+    private int run() {
+        enginePool = new AnalysisEnginePool(new GtpClientBuilder().setCommandLine(engineCommandLine).setPipelined(true), engineCount, null);
+        try {
+            enginePool.start();
+        } catch (GenericLizzieException e) {
+            logger.error("No engine could start with the command line: {}", engineCommandLine);
+            return 1;
+        }
+        System.out.printf("Analyzing %d games on %d engines%n", gameFiles.size(), enginePool.getRunningEngineCount());
+
+        pendingPositionPermits = new Semaphore(maxPendingPositionCount);
+        startTime = lastReportTime = System.nanoTime();
+        ScheduledExecutorService reportExecutor = Executors.newSingleThreadScheduledExecutor();
+        reportExecutor.scheduleAtFixedRate(this::reportProgress, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        try {
+            for (Path gameFile : gameFiles) {
+                analyzeGame(gameFile);
+            }
+            runningGames.arriveAndAwaitAdvance();
+        } catch (InterruptedException e) {
+            logger.error("Batch analysis interrupted.");
+            Thread.currentThread().interrupt();
+        } finally {
+            ThreadPoolUtil.shutdownAndAwaitTermination(reportExecutor, 1, TimeUnit.SECONDS);
+            enginePool.close();
+            ThreadPoolUtil.shutdownAndAwaitTermination(outputExecutor);
+        }
+
+        reportProgress();
+        System.out.printf("%d games analyzed, %d failed%n", finishedGameCount.get(), failedGameCount.get());
+        return failedGameCount.get() > 0 ? 1 : 0;
+    }
+
+    private void reportProgress() {
+        long now = System.nanoTime();
+        int positionCount = analyzedPositionCount.get();
+        double minutes = (now - startTime) / 60e9;
+        double recentMinutes = (now - lastReportTime) / 60e9;
+        System.out.printf("%d positions in %.1f min: %.1f positions/min overall, %.1f positions/min recently; %d games done, %d positions queued%n",
+                positionCount, minutes,
+                minutes > 0 ? positionCount / minutes : 0.0,
+                recentMinutes > 0 ? (positionCount - lastReportPositionCount) / recentMinutes : 0.0,
+                finishedGameCount.get(), maxPendingPositionCount - pendingPositionPermits.availablePermits());
+        lastReportTime = now;
+        lastReportPositionCount = positionCount;
+    }
+
+    /**
+     * Queues the positions of a game not analyzed yet, waiting whenever too many positions are queued already
+     */
+    private void analyzeGame(Path gameFile) throws InterruptedException {
+        Path outputFile = getOutputFile(gameFile, ANALYZED_SUFFIX);
+        if (Files.exists(outputFile)) {
+            System.out.printf("Skipping %s, already analyzed in %s%n", gameFile, outputFile);
+            return;
+        }
+
+        GameAnalysis game;
+        try {
+            game = new GameAnalysis(gameFile, outputFile);
+        } catch (Exception e) {
+            logger.error("Cannot load " + gameFile, e);
+            failedGameCount.incrementAndGet();
+            return;
+        }
+
+        runningGames.register();
+        for (int i = 0; i < game.nodes.size(); ++i) {
+            if (game.analyzed[i]) {
+                continue;
+            }
+
+            pendingPositionPermits.acquire();
+            ListenableFuture<List<MoveData>> future = enginePool.submit(new AnalysisEnginePool.PositionAnalysis(
+                    BoardStateSynchronizer.getPlayCommands(game.nodes.get(i)), Board.BOARD_SIZE, game.komi, maxVisits, maxMillis));
+            final int index = i;
+            future.addListener(() -> {
+                pendingPositionPermits.release();
+                outputExecutor.execute(() -> game.positionAnalyzed(index, future));
+            }, MoreExecutors.directExecutor());
+        }
+        outputExecutor.execute(game::allPositionsQueued);
+    }
+
+    private Path getOutputFile(Path gameFile, String suffix) {
+        String fileName = gameFile.getFileName().toString();
+        String baseName = fileName.toLowerCase().endsWith(".sgf") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        Path directory = outputDirectory != null ? outputDirectory : gameFile.toAbsolutePath().getParent();
+        return directory.resolve(baseName + suffix);
+    }
+
+    /**
+     * The analysis of one game. Apart from the constructor, only used from the output executor
+     */
+    private class GameAnalysis {
+        private final Path gameFile;
+        private final Path outputFile;
+        private final Path progressFile;
+        private final Board board;
+        private final double komi;
+        private final List<BoardHistoryNode> nodes = new ArrayList<>();
+        private final boolean[] analyzed;
+        private int remainingPositionCount;
+        private boolean allQueued;
+        private boolean failed;
+        private final Writer progressWriter;
+
+        GameAnalysis(Path gameFile, Path outputFile) throws IOException {
+            this.gameFile = gameFile;
+            this.outputFile = outputFile;
+            this.progressFile = getOutputFile(gameFile, PROGRESS_SUFFIX);
+
+            Game game = Sgf.createFromPath(gameFile);
+            komi = parseKomi(game.getProperty("KM"));
+            board = new Board();
+            board.loadHistory(loadingBoard -> Lizzie.replayGame(game, loadingBoard));
+            for (BoardHistoryNode node = board.getHistory().getInitialNode(); node != null; node = node.getNext()) {
+                nodes.add(node);
+            }
+
+            analyzed = new boolean[nodes.size()];
+            remainingPositionCount = nodes.size();
+            readProgress();
+            progressWriter = Files.newBufferedWriter(progressFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        private double parseKomi(String komiString) {
+            try {
+                return StringUtils.isBlank(komiString) ? 7.5 : Double.parseDouble(komiString.trim());
+            } catch (NumberFormatException e) {
+                return 7.5;
+            }
+        }
+
+        /**
+         * Takes the positions analyzed by a previous run. A line cut by a crash is ignored
+         */
+        private void readProgress() throws IOException {
+            if (!Files.exists(progressFile)) {
+                return;
+            }
+
+            int resumedCount = 0;
+            try (BufferedReader reader = Files.newBufferedReader(progressFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        String[] records = line.split("\t");
+                        int index = Integer.parseInt(records[0]);
+                        List<VariationData> variations = new ArrayList<>(records.length - 1);
+                        for (int i = 1; i < records.length; ++i) {
+                            variations.add(parseVariation(records[i]));
+                        }
+                        if (index >= 0 && index < nodes.size() && !analyzed[index]) {
+                            if (!variations.isEmpty()) {
+                                nodes.get(index).getData().setVariationDataList(variations);
+                            }
+                            analyzed[index] = true;
+                            --remainingPositionCount;
+                            ++resumedCount;
+                        }
+                    } catch (RuntimeException e) {
+                        logger.warn("Ignoring a broken line of {}", progressFile);
+                    }
+                }
+            }
+
+            if (resumedCount > 0) {
+                System.out.printf("Resuming %s, %d of %d positions already analyzed%n", gameFile, resumedCount, nodes.size());
+            }
+        }
+
+        // playouts:winrate:move,move,...
+        private VariationData parseVariation(String record) {
+            String[] fields = record.split(":");
+            String[] moveStrings = fields[2].split(",");
+            short[] moves = new short[moveStrings.length];
+            for (int i = 0; i < moves.length; ++i) {
+                moves[i] = Short.parseShort(moveStrings[i]);
+            }
+            return new VariationData(moves, Integer.parseInt(fields[0]), Double.parseDouble(fields[1]));
+        }
+
+        private void writeProgress(int index, List<VariationData> variations) throws IOException {
+            StringBuilder line = new StringBuilder().append(index);
+            for (VariationData variation : variations) {
+                line.append('\t').append(variation.getPlayouts()).append(':').append(variation.getWinrate()).append(':');
+                short[] moves = variation.getVariation();
+                for (int i = 0; i < moves.length; ++i) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    line.append(moves[i]);
+                }
+            }
+            progressWriter.write(line.append('\n').toString());
+            progressWriter.flush();
+        }
+
+        void positionAnalyzed(int index, ListenableFuture<List<MoveData>> future) {
+            try {
+                List<MoveData> bestMoves = Futures.getDone(future);
+                BoardData data = nodes.get(index).getData();
+                synchronized (board) {
+                    data.tryUpdateVariationInfo(bestMoves);
+                }
+                writeProgress(index, CollectionUtils.isEmpty(bestMoves) ? new ArrayList<>() : data.getVariationDataList());
+                analyzedPositionCount.incrementAndGet();
+            } catch (ExecutionException | CancellationException | IOException e) {
+                logger.error("Position " + index + " of " + gameFile + " could not be analyzed.", e);
+                failed = true;
+            }
+
+            analyzed[index] = true;
+            --remainingPositionCount;
+            finishIfDone();
+        }
+
+        void allPositionsQueued() {
+            allQueued = true;
+            finishIfDone();
+        }
+
+        private void finishIfDone() {
+            if (!allQueued || remainingPositionCount > 0) {
+                return;
+            }
+
+            try {
+                progressWriter.close();
+                if (failed) {
+                    // The progress is kept, so that only the missing positions are analyzed next time
+                    failedGameCount.incrementAndGet();
+                    return;
+                }
+
+                new SgfHistoryWriter(Board.BOARD_SIZE, komi, true, Lizzie.optionSetting.getVariationLimit())
+                        .writeToFile(board.getHistory(), outputFile);
+                List<String> summary = getSummary();
+                Files.write(getOutputFile(gameFile, SUMMARY_SUFFIX), summary, StandardCharsets.UTF_8);
+                Files.deleteIfExists(progressFile);
+
+                finishedGameCount.incrementAndGet();
+                System.out.printf("Analyzed %s: %s%n", gameFile, summary.get(summary.size() - 1).trim());
+            } catch (IOException e) {
+                logger.error("Cannot write the analysis of " + gameFile, e);
+                failedGameCount.incrementAndGet();
+            } finally {
+                board.close();
+                runningGames.arriveAndDeregister();
+            }
+        }
+
+        /**
+         * @return the lines of the summary, the blunders last
+         */
+        private List<String> getSummary() {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format("%s: %d moves, komi %.1f", gameFile.getFileName(), nodes.size() - 1, komi));
+
+            lines.add("Black winrate by move:");
+            StringBuilder winrates = new StringBuilder();
+            for (int i = 0; i < nodes.size(); ++i) {
+                if (i > 0 && i % WINRATES_PER_SUMMARY_LINE == 0) {
+                    lines.add(winrates.toString());
+                    winrates.setLength(0);
+                }
+                BoardData data = nodes.get(i).getData();
+                winrates.append(CollectionUtils.isEmpty(data.getVariationDataList()) ? "  -  " : String.format(" %4.1f", data.getBlackWinrate()));
+            }
+            lines.add(winrates.toString());
+
+            lines.add(String.format("Blunders, dropping the winrate of the player by %.1f or more:", blunderThreshold));
+            int blunderCount = 0;
+            for (int i = 1; i < nodes.size(); ++i) {
+                BoardData before = nodes.get(i - 1).getData();
+                BoardData after = nodes.get(i).getData();
+                if (CollectionUtils.isEmpty(before.getVariationDataList()) || CollectionUtils.isEmpty(after.getVariationDataList())) {
+                    continue;
+                }
+
+                boolean black = after.getLastMoveColor() == Stone.BLACK;
+                double winrateBefore = black ? before.getBlackWinrate() : before.getWhiteWinrate();
+                double winrateAfter = black ? after.getBlackWinrate() : after.getWhiteWinrate();
+                if (winrateBefore - winrateAfter >= blunderThreshold) {
+                    ++blunderCount;
+                    lines.add(String.format("  move %d %s %s: %.1f -> %.1f, best was %s", after.getMoveNumber(), black ? "B" : "W",
+                            getMoveName(after.getLastMove()), winrateBefore, winrateAfter,
+                            before.getBestMove().map(BatchAnalysis::getMoveName).orElse("-")));
+                }
+            }
+            lines.add(String.format("  %d blunders in %d moves", blunderCount, nodes.size() - 1));
+
+            return lines;
+        }
+    }
+
+    private static String getMoveName(int[] move) {
+        return move != null && Board.isValid(move) ? Board.convertCoordinatesToName(move) : "pass";
+    }
+}
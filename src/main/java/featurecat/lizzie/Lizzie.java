@@ -8,18 +8,20 @@ import com.toomasr.sgf4j.Sgf;
 import com.toomasr.sgf4j.parser.Game;
 import com.toomasr.sgf4j.parser.GameNode;
 import com.toomasr.sgf4j.parser.Util;
+import featurecat.lizzie.analysis.EngineCapabilityCache;
 import featurecat.lizzie.analysis.GnuGoScoreEstimator;
 import featurecat.lizzie.analysis.Leelaz;
 import featurecat.lizzie.analysis.ScoreEstimator;
 import featurecat.lizzie.analysis.ZenScoreEstimator;
 import featurecat.lizzie.gui.*;
 import featurecat.lizzie.rules.*;
+import featurecat.lizzie.util.StartupTimer;
 import featurecat.lizzie.util.ThreadPoolUtil;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jetbrains.annotations.NotNull;
 import org.jfree.graphics2d.svg.SVGGraphics2D;
 
 import javax.imageio.ImageIO;
@@ -36,13 +38,14 @@ import java.awt.event.HierarchyListener;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.lang.reflect.Type;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
@@ -60,6 +63,10 @@ public class Lizzie {
     private static final ResourceBundle resourceBundle = ResourceBundle.getBundle("featurecat.lizzie.i18n.GuiBundle");
 
     public static final String SETTING_FILE = "mylizzie.json";
+    public static final String RESTORE_FILE = "restore.sgf";
+    public static final String JOURNAL_FILE = "restore.journal";
+    public static final String ANALYSIS_CACHE_FILE = "analysis.cache";
+    public static final String ENGINE_CAPABILITY_CACHE_FILE = "engine-capabilities.json";
     public static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
     public static final CountDownLatch exitLatch = new CountDownLatch(1);
@@ -75,8 +82,15 @@ public class Lizzie {
     public static OptionSetting optionSetting;
     public static WinrateHistogramDialog winrateHistogramDialog;
     public static ScheduledExecutorService miscExecutor = Executors.newSingleThreadScheduledExecutor();
-    public static ScoreEstimator scoreEstimator = null;
+    public static volatile ScoreEstimator scoreEstimator = null;
     public static GameInfo gameInfo;
+    public static HistoryJournal historyJournal;
+    public static AnalysisCache analysisCache;
+    public static EngineCapabilityCache engineCapabilityCache;
+
+    private static final StartupTimer startupTimer = new StartupTimer();
+    private static ExecutorService startupExecutor;
+    private static CompletableFuture<Void> startupCompletion = CompletableFuture.completedFuture(null);
 
     static {
         readSettingFile();
@@ -124,6 +138,9 @@ public class Lizzie {
     }
 
     public static void exitLizzie(int exitCode) {
+        // The engines are only closed once started
+        startupCompletion.join();
+
         leelaz.setThinking(false);
 
         try {
@@ -132,8 +149,22 @@ public class Lizzie {
             // Do nothing
         }
 
+        boolean gameStored = true;
         if (Lizzie.board.getHistory().getInitialNode().getNext() != null) {
-            Lizzie.storeGameByFile(Paths.get("restore.sgf"));
+            gameStored = Lizzie.storeGameByFile(Paths.get(RESTORE_FILE));
+        }
+
+        // The journal is only kept if the game could not be stored
+        if (historyJournal != null) {
+            if (gameStored) {
+                historyJournal.discard();
+            } else {
+                historyJournal.close();
+            }
+        }
+
+        if (analysisCache != null) {
+            analysisCache.close();
         }
 
         Lizzie.leelaz.close();
@@ -161,22 +192,36 @@ public class Lizzie {
      * Launches the game window, and runs the game.
      */
     public static void main(String[] args) {
-        // Use system default look and feel
-        try {
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception e1) {
-            // Use Nimbus look and feel which looks better
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchAnalysis.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        startupExecutor = Executors.newFixedThreadPool(4);
+
+        // Painting is the first to need the fonts and the images, they are loaded while the windows are built
+        CompletableFuture<Void> resourceLoading = CompletableFuture.allOf(
+                runStartupPhase("font registration", LizzieFrame::registerFonts)
+                , runStartupPhase("asset loading", AssetsManager.getAssetsManager()::preloadBoardAssets));
+
+        startupTimer.time("look and feel", () -> {
+            // Use system default look and feel
             try {
-                for (LookAndFeelInfo info : UIManager.getInstalledLookAndFeels()) {
-                    if ("Nimbus".equals(info.getName())) {
-                        UIManager.setLookAndFeel(info.getClassName());
-                        break;
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (Exception e1) {
+                // Use Nimbus look and feel which looks better
+                try {
+                    for (LookAndFeelInfo info : UIManager.getInstalledLookAndFeels()) {
+                        if ("Nimbus".equals(info.getName())) {
+                            UIManager.setLookAndFeel(info.getClassName());
+                            break;
+                        }
                     }
+                } catch (Exception e2) {
+                    // If Nimbus is not available, leave it for default
                 }
-            } catch (Exception e2) {
-                // If Nimbus is not available, leave it for default
             }
-        }
+        });
 
         gameInfo = new GameInfo();
 
@@ -184,33 +229,62 @@ public class Lizzie {
         optionSetting.getGtpConsoleWindowState().applyStateTo(gtpConsole);
         gtpConsole.setVisible(true);
 
+        engineCapabilityCache = EngineCapabilityCache.load(Paths.get(ENGINE_CAPABILITY_CACHE_FILE));
         leelaz = new Leelaz(optionSetting.getLeelazCommandLine());
         board = new Board();
-        leelaz.startEngine();
+        // Registered first, so that the cached analysis is in place when the other observers see the head move
+        if (optionSetting.getAnalysisCacheSize() > 0) {
+            analysisCache = new AnalysisCache(board, gameInfo, leelaz::getCommandLine, Paths.get(ANALYSIS_CACHE_FILE), optionSetting.getAnalysisCacheSize() * 1024L * 1024L);
+        }
+        // The engine keeps the observers registered before it starts, and syncs with the board once started
         board.linkBoardWithAnalyzeEngine();
+        CompletableFuture<Void> engineStartup = runStartupPhase("engine startup", leelaz::startEngine);
+        CompletableFuture<Void> scoreEstimatorStartup = runStartupPhase("score estimator startup", Lizzie::startScoreEstimator);
 
-        frame = new LizzieFrame();
+        startupTimer.time("window construction", () -> {
+            frame = new LizzieFrame();
 
-        analysisDialog = AnalysisFrame.createAnalysisDialog(frame);
-        analysisFrame = (AnalysisFrame) analysisDialog.getContentPane();
+            analysisDialog = AnalysisFrame.createAnalysisDialog(frame);
+            analysisFrame = (AnalysisFrame) analysisDialog.getContentPane();
 
-        optionDialog = new OptionDialog(frame);
-        optionDialog.setDialogSetting(optionSetting);
+            optionDialog = new OptionDialog(frame);
+            optionDialog.setDialogSetting(optionSetting);
 
-        winrateHistogramDialog = new WinrateHistogramDialog(frame);
+            winrateHistogramDialog = new WinrateHistogramDialog(frame);
 
-        setGuiPosition();
+            setGuiPosition();
 
-        analysisDialog.setVisible(optionSetting.isAnalysisWindowShow());
-        winrateHistogramDialog.setVisible(optionSetting.isWinrateHistogramWindowShow());
+            analysisDialog.setVisible(optionSetting.isAnalysisWindowShow());
+            winrateHistogramDialog.setVisible(optionSetting.isWinrateHistogramWindowShow());
+        });
 
-        if (Files.exists(Paths.get("Zen.dll")) && Files.exists(Paths.get("YAZenGtp.exe"))) {
-            scoreEstimator = new ZenScoreEstimator("YAZenGtp.exe");
-        } else if (Files.exists(Paths.get("gnugo")) || Files.exists(Paths.get("gnugo.exe"))) {
-            scoreEstimator = new GnuGoScoreEstimator("./gnugo --mode gtp");
-        }
+        // What was painted before falls back to other fonts and loads the images itself
+        resourceLoading.thenRun(() -> SwingUtilities.invokeLater(() -> {
+            frame.getBoardRenderer().forceCachedBackgroundImageRefresh();
+            frame.getBoardRenderer().forceCachedStoneImageRefresh();
+            frame.getBoardRenderer().forceCachedOverlayImageRefresh();
+            frame.repaint();
+        }));
+
+        startupTimer.time("session recovery", () -> {
+            // A journal is left behind when the previous session did not exit normally
+            leelaz.batchGtpCommands(() -> {
+                if (HistoryJournal.recover(Paths.get(JOURNAL_FILE), board, gameInfo)) {
+                    logger.info("Recovered the previous session from the history journal.");
+                }
+            });
+            historyJournal = new HistoryJournal(board, gameInfo, Paths.get(JOURNAL_FILE), Paths.get(RESTORE_FILE), Lizzie::createSgfHistoryWriter);
+        });
+
+        startupCompletion = CompletableFuture.allOf(resourceLoading, engineStartup, scoreEstimatorStartup);
+        startupCompletion.thenRun(() -> {
+            startupTimer.logSummary();
+            startupExecutor.shutdown();
+        });
 
         try {
+            // The engine may still be loading its weights, the windows are usable meanwhile
+            engineStartup.join();
             leelaz.setThinking(true);
             gtpConsole.setVisible(optionSetting.isGtpConsoleWindowShow());
             exitLatch.await();
@@ -221,6 +295,27 @@ public class Lizzie {
         exitLizzie(lizzieExitCode);
     }
 
+    /**
+     * Runs a phase of the startup on the startup threads, timed by {@link #startupTimer}
+     *
+     * @return the completion of the phase, even a failed one
+     */
+    private static CompletableFuture<Void> runStartupPhase(String phase, Runnable action) {
+        return CompletableFuture.runAsync(() -> startupTimer.time(phase, action), startupExecutor)
+                .exceptionally(e -> {
+                    logger.error("Startup phase " + phase + " failed.", e);
+                    return null;
+                });
+    }
+
+    private static void startScoreEstimator() {
+        if (Files.exists(Paths.get("Zen.dll")) && Files.exists(Paths.get("YAZenGtp.exe"))) {
+            scoreEstimator = new ZenScoreEstimator("YAZenGtp.exe");
+        } else if (Files.exists(Paths.get("gnugo")) || Files.exists(Paths.get("gnugo.exe"))) {
+            scoreEstimator = new GnuGoScoreEstimator("./gnugo --mode gtp");
+        }
+    }
+
     public static void clearBoardAndState() {
         // Should be before board.clear() because board.clear() will trigger some callbacks, and these callbacks
         // may try to get the komi settings.
@@ -277,8 +372,10 @@ public class Lizzie {
 
     public static void copyGameToClipboardInSgf() {
         try {
-            Game game = snapshotCurrentGame();
-            String sgfContent = writeSgfToString(game);
+            String sgfContent;
+            synchronized (board) {
+                sgfContent = createSgfHistoryWriter().writeToString(board.getHistory());
+            }
 
             Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
             Transferable transferableString = new StringSelection(sgfContent);
@@ -351,23 +448,25 @@ public class Lizzie {
     }
 
     private static class MoveReplayer {
+        private final Board targetBoard;
         private boolean nextIsBlack;
         private int placedMoveCount;
 
-        public MoveReplayer() {
+        public MoveReplayer(Board targetBoard) {
+            this.targetBoard = targetBoard;
             nextIsBlack = true;
             placedMoveCount = 0;
         }
 
         public void playMove(boolean isBlack, int x, int y) {
             if (nextIsBlack == isBlack) {
-                Lizzie.board.place(x, y);
+                targetBoard.place(x, y);
                 nextIsBlack = !nextIsBlack;
 
                 placedMoveCount += 1;
             } else {
-                Lizzie.board.pass();
-                Lizzie.board.place(x, y);
+                targetBoard.pass();
+                targetBoard.place(x, y);
 
                 placedMoveCount += 2;
             }
@@ -394,43 +493,57 @@ public class Lizzie {
     private static void loadGameToBoard(final Game game) {
         Lizzie.leelaz.batchGtpCommands(() -> {
             try {
-                clearBoardAndState();
+                // Should be before loading because the observers notified afterwards may try to get the komi settings.
+                gameInfo.reset();
 
-                GameNode node = game.getRootNode();
-                MoveReplayer replayer = new MoveReplayer();
+                // The whole game is replayed into a new history, and the observers are only told once it is complete
+                MutableInt preplacedStonesCount = new MutableInt(0);
+                board.loadHistory(loadingBoard -> preplacedStonesCount.setValue(replayGame(game, loadingBoard)));
 
-                // Process pre-placed stones
-                placePreplacedMove(replayer, game.getProperty("AB"), game.getProperty("AW"));
-                int preplacedStonesCount = replayer.getPlacedMoveCount();
+                gameInfo.setHiddenMoveCount(preplacedStonesCount.intValue());
+            } catch (Exception e) {
+                // Ignore
+            }
+        });
+    }
 
-                do {
-                    String preplacedBlack = node.getProperty("AB");
-                    String preplacedWhite = node.getProperty("AW");
-                    if (StringUtils.isNotEmpty(preplacedBlack) || StringUtils.isNotEmpty(preplacedWhite)) {
-                        placePreplacedMove(replayer, preplacedBlack, preplacedWhite);
+    /**
+     * Plays the main line of game on loadingBoard, e.g. in {@link Board#loadHistory}
+     *
+     * @return the number of moves played for the pre-placed stones of the root node
+     */
+    static int replayGame(Game game, Board loadingBoard) {
+        GameNode node = game.getRootNode();
+        MoveReplayer replayer = new MoveReplayer(loadingBoard);
+
+        // Process pre-placed stones
+        placePreplacedMove(replayer, game.getProperty("AB"), game.getProperty("AW"));
+        int preplacedStonesCount = replayer.getPlacedMoveCount();
+
+        do {
+            String preplacedBlack = node.getProperty("AB");
+            String preplacedWhite = node.getProperty("AW");
+            if (StringUtils.isNotEmpty(preplacedBlack) || StringUtils.isNotEmpty(preplacedWhite)) {
+                placePreplacedMove(replayer, preplacedBlack, preplacedWhite);
+            }
+            if (node.isMove()) {
+                if (StringUtils.isNotEmpty(node.getProperty("B"))) {
+                    int[] coords = node.getCoords();
+                    if (coords != null && coords[0] < 19 && coords[0] >= 0 && coords[1] < 19 && coords[1] >= 0) {
+                        replayer.playMove(true, coords[0], coords[1]);
                     }
-                    if (node.isMove()) {
-                        if (StringUtils.isNotEmpty(node.getProperty("B"))) {
-                            int[] coords = node.getCoords();
-                            if (coords != null && coords[0] < 19 && coords[0] >= 0 && coords[1] < 19 && coords[1] >= 0) {
-                                replayer.playMove(true, coords[0], coords[1]);
-                            }
-                        }
-                        if (StringUtils.isNotEmpty(node.getProperty("W"))) {
-                            int[] coords = node.getCoords();
-                            if (coords != null && coords[0] < 19 && coords[0] >= 0 && coords[1] < 19 && coords[1] >= 0) {
-                                replayer.playMove(false, coords[0], coords[1]);
-                            }
-                        }
+                }
+                if (StringUtils.isNotEmpty(node.getProperty("W"))) {
+                    int[] coords = node.getCoords();
+                    if (coords != null && coords[0] < 19 && coords[0] >= 0 && coords[1] < 19 && coords[1] >= 0) {
+                        replayer.playMove(false, coords[0], coords[1]);
                     }
                 }
-                while ((node = node.getNextNode()) != null);
-
-                gameInfo.setHiddenMoveCount(preplacedStonesCount);
-            } catch (Exception e) {
-                // Ignore
             }
-        });
+        }
+        while ((node = node.getNextNode()) != null);
+
+        return preplacedStonesCount;
     }
 
     private static void placePreplacedMove(MoveReplayer replayer, String preplacedBlackStoneString, String preplacedWhiteStoneString) {
@@ -461,289 +574,27 @@ public class Lizzie {
         }
     }
 
-    public static void storeGameByFile(Path filePath) {
+    public static boolean storeGameByFile(Path filePath) {
         try {
-            Game game = snapshotCurrentGame();
-            writeSgfToFile(game, filePath);
+            // Only the SGF text is built with the board locked, writing it to disk is not
+            String sgf;
+            synchronized (board) {
+                sgf = createSgfHistoryWriter().writeToString(board.getHistory());
+            }
+            SgfHistoryWriter.writeToFile(sgf, filePath);
+            return true;
         } catch (Exception e) {
             if (StringUtils.isEmpty(e.getMessage())) {
                 JOptionPane.showMessageDialog(frame, "Error: cannot save sgf: " + e.getMessage(), "Lizzie", JOptionPane.ERROR_MESSAGE);
             } else {
                 JOptionPane.showMessageDialog(frame, "Error: cannot save sgf", "Lizzie", JOptionPane.ERROR_MESSAGE);
             }
+            return false;
         }
     }
 
-    @NotNull
-    private static Game snapshotCurrentGame() {
-        final int BOARD_SIZE = Lizzie.optionSetting.getBoardSize().getWidth();
-        Game game = new Game();
-
-        game.addProperty("FF", "4"); // SGF version: 4
-        game.addProperty("KM", String.valueOf(gameInfo.getKomi()));
-        game.addProperty("GM", "1"); // Go game
-        game.addProperty("SZ", String.valueOf(BOARD_SIZE));
-        game.addProperty("CA", "UTF-8");
-        game.addProperty("AP", "MyLizzie");
-
-        BoardHistoryList historyList = board.getHistory();
-        BoardHistoryNode initialNode = historyList.getInitialNode();
-
-        GameNode previousSgfNode = null;
-        BoardHistoryNode previousNode = null;
-        for (BoardHistoryNode p = initialNode.getNext(); p != null; p = p.getNext()) {
-            GameNode gameNode = new GameNode(previousSgfNode);
-
-            // Move node
-            if (Objects.equals(p.getData().getLastMoveColor(), Stone.BLACK) || Objects.equals(p.getData().getLastMoveColor(), Stone.WHITE)) {
-                int x, y;
-
-                if (p.getData().getLastMove() == null) {
-                    // Pass
-                    x = BOARD_SIZE;
-                    y = BOARD_SIZE;
-                } else {
-                    x = p.getData().getLastMove()[0];
-                    y = p.getData().getLastMove()[1];
-
-                    if (x < 0 || x >= BOARD_SIZE || y < 0 || y >= BOARD_SIZE) {
-                        x = BOARD_SIZE;
-                        y = BOARD_SIZE;
-                    }
-                }
-
-                String moveKey = Objects.equals(p.getData().getLastMoveColor(), Stone.BLACK) ? "B" : "W";
-                String moveValue = Util.coordToAlpha.get(x) + Util.coordToAlpha.get(y);
-
-                gameNode.addProperty(moveKey, moveValue);
-                if (p.getData().getCalculationCount() > 100) {
-                    gameNode.addProperty("C", String.format("Black: %.1f; White: %.1f", p.getData().getBlackWinrate(), p.getData().getWhiteWinrate()));
-                }
-            }
-
-            if (p.getData().getMoveNumber() > 0) {
-                gameNode.setMoveNo(p.getData().getMoveNumber());
-            }
-
-            if (previousSgfNode != null) {
-                previousSgfNode.addChild(gameNode);
-                // Ensure we have already added child. The previousNode is not null here.
-                //addVariationTrees(previousSgfNode, previousNode.getData());
-                addTryPlayTrees(previousSgfNode, previousNode);
-            } else {
-                game.setRootNode(gameNode);
-            }
-
-            previousSgfNode = gameNode;
-            previousNode = p;
-        }
-
-        // Ignore the last node
-        // addVariationTree(previousNode, previousData);
-
-        return game;
-    }
-
-    private static void addTryPlayTrees(GameNode baseSgfNode, BoardHistoryNode baseNode) {
-        if (CollectionUtils.isEmpty(baseNode.getTryPlayHistory())) {
-            return;
-        }
-
-        for (BoardHistoryNode node : baseNode.getTryPlayHistory()) {
-            addTryPlayTree(baseSgfNode, baseNode, node);
-        }
-    }
-
-    private static void addTryPlayTree(GameNode baseSgfNode, BoardHistoryNode baseNode, BoardHistoryNode tryPlayBeginNode) {
-        final int BOARD_SIZE = Lizzie.optionSetting.getBoardSize().getWidth();
-        GameNode previousSgfNode = baseSgfNode;
-
-        for (BoardHistoryNode p = tryPlayBeginNode; p != null; p = p.getNext()) {
-            GameNode gameNode = new GameNode(previousSgfNode);
-
-            // Move node
-            if (Objects.equals(p.getData().getLastMoveColor(), Stone.BLACK) || Objects.equals(p.getData().getLastMoveColor(), Stone.WHITE)) {
-                int x, y;
-
-                if (p.getData().getLastMove() == null) {
-                    // Pass
-                    x = BOARD_SIZE;
-                    y = BOARD_SIZE;
-                } else {
-                    x = p.getData().getLastMove()[0];
-                    y = p.getData().getLastMove()[1];
-
-                    if (x < 0 || x >= BOARD_SIZE || y < 0 || y >= BOARD_SIZE) {
-                        x = BOARD_SIZE;
-                        y = BOARD_SIZE;
-                    }
-                }
-
-                String moveKey = Objects.equals(p.getData().getLastMoveColor(), Stone.BLACK) ? "B" : "W";
-                String moveValue = Util.coordToAlpha.get(x) + Util.coordToAlpha.get(y);
-
-                gameNode.addProperty(moveKey, moveValue);
-                if (p.getData().getCalculationCount() > 100) {
-                    gameNode.addProperty("C", String.format("Black: %.1f; White: %.1f", p.getData().getBlackWinrate(), p.getData().getWhiteWinrate()));
-                }
-            }
-
-            if (p.getData().getMoveNumber() > 0) {
-                gameNode.setMoveNo(p.getData().getMoveNumber());
-            }
-
-            if (previousSgfNode != null) {
-                previousSgfNode.addChild(gameNode);
-            }
-
-            previousSgfNode = gameNode;
-        }
-    }
-
-    private static void addVariationTrees(GameNode baseNode, BoardData data) {
-        if (CollectionUtils.isEmpty(data.getVariationDataList())) {
-            return;
-        }
-
-        int treeCount = 0;
-        for (VariationData variationData : data.getVariationDataList()) {
-            // We only add variation whose playouts is greater than 200
-            if (variationData.getPlayouts() > 200) {
-                addVariationTree(baseNode, variationData);
-
-                ++treeCount;
-                // We only care for 5 or less variations
-                if (treeCount > 5) {
-                    break;
-                }
-            }
-        }
-    }
-
-    private static void addVariationTree(GameNode baseNode, VariationData variationData) {
-        final int BOARD_SIZE = Lizzie.optionSetting.getBoardSize().getWidth();
-        Stone baseColor = baseNode.isBlack() ? Stone.BLACK : Stone.WHITE;
-        GameNode previousNode = baseNode;
-
-        int variationMoveCount = 0;
-        for (int[] variation : variationData.getVariation()) {
-            GameNode gameNode = new GameNode(previousNode);
-
-            int x, y;
-            if (variation == null) {
-                // Pass
-                x = BOARD_SIZE;
-                y = BOARD_SIZE;
-            } else {
-                x = variation[0];
-                y = variation[1];
-
-                if (x < 0 || x >= BOARD_SIZE || y < 0 || y >= BOARD_SIZE) {
-                    x = BOARD_SIZE;
-                    y = BOARD_SIZE;
-                }
-            }
-
-            String moveKey = Objects.equals(baseColor.opposite(), Stone.BLACK) ? "B" : "W";
-            String moveValue = Util.coordToAlpha.get(x) + Util.coordToAlpha.get(y);
-            gameNode.addProperty(moveKey, moveValue);
-
-            if (previousNode == baseNode && variationData.getPlayouts() > 100) {
-                double blackWinrate, whiteWinrate;
-                if (moveKey.equals("B")) {
-                    blackWinrate = variationData.getWinrate();
-                    whiteWinrate = 100 - blackWinrate;
-                } else {
-                    whiteWinrate = variationData.getWinrate();
-                    blackWinrate = 100 - whiteWinrate;
-                }
-
-                gameNode.addProperty("C", String.format("Black: %.1f; White: %.1f", blackWinrate, whiteWinrate));
-            }
-
-            previousNode.addChild(gameNode);
-
-            previousNode = gameNode;
-            baseColor = baseColor.opposite();
-
-            ++variationMoveCount;
-            if (variationMoveCount >= Lizzie.optionSetting.getVariationLimit()) {
-                break;
-            }
-        }
-    }
-
-    public static String writeSgfToString(Game game) {
-        try (StringWriter writer = new StringWriter()) {
-            writeSgfToStream(game, writer);
-            return writer.toString();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public static void writeSgfToFile(Game game, Path destination) {
-        try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(destination.toFile()), Charset.forName("UTF-8"))) {
-            writeSgfToStream(game, writer);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private static void writeSgfToStream(Game game, Writer writer) throws IOException {
-        writer.write('(');
-
-        // lets write all the root node properties
-        Map<String, String> props = game.getProperties();
-        if (props.size() > 0) {
-            writer.write(";");
-        }
-
-        for (Map.Entry<String, String> entry : props.entrySet()) {
-            writer.write(entry.getKey());
-            writer.write('[');
-            writer.write(entry.getValue());
-            writer.write(']');
-        }
-
-        // write sgf nodes
-        GameNode node = game.getRootNode();
-        writeSgfSubTree(writer, node, 0);
-        writer.write(')');
-    }
-
-    private static void writeSgfSubTree(Writer writer, GameNode subtreeRoot, int level) throws IOException {
-        if (level > 0) {
-            writer.write('(');
-        }
-
-        // DF pre-order traversal
-        // Write root
-        writer.write(';');
-        writeNodeProperties(writer, subtreeRoot);
-
-        // Write children
-        GameNode mainChild;
-        if ((mainChild = subtreeRoot.getNextNode()) != null) {
-            writeSgfSubTree(writer, mainChild, level + 1);
-
-            for (GameNode otherChild : subtreeRoot.getChildren()) {
-                writeSgfSubTree(writer, otherChild, level + 1);
-            }
-        }
-
-        if (level > 0) {
-            writer.write(')');
-        }
-    }
-
-    private static void writeNodeProperties(Writer writer, GameNode node) throws IOException {
-        for (Map.Entry<String, String> entry : node.getProperties().entrySet()) {
-            writer.write(entry.getKey());
-            writer.write('[');
-            writer.write(entry.getValue());
-            writer.write(']');
-        }
+    private static SgfHistoryWriter createSgfHistoryWriter() {
+        return new SgfHistoryWriter(optionSetting.getBoardSize().getWidth(), gameInfo.getKomi(), false, optionSetting.getVariationLimit());
     }
 
     private static void storeBoardByFile(Path filePath) {
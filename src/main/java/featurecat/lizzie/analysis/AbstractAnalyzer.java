@@ -1,7 +1,9 @@
 package featurecat.lizzie.analysis;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import featurecat.lizzie.Lizzie;
 import org.eclipse.collections.api.list.ImmutableList;
+import org.eclipse.collections.api.map.MutableMap;
 import org.eclipse.collections.impl.factory.Lists;
 
 import java.util.List;
@@ -14,14 +16,14 @@ public abstract class AbstractAnalyzer implements Analyzer {
     protected volatile boolean analyzingOngoing;
     protected volatile boolean analyzingEnabled;
 
-    protected BestMoveObserverCollection observers;
+    protected BestMoveObserverConflatingCollection observers;
 
     public AbstractAnalyzer() {
         shutdownCalled = new AtomicBoolean(false);
 
         analyzingEnabled = false;
         analyzingOngoing = false;
-        observers = new BestMoveObserverCollection();
+        observers = new BestMoveObserverConflatingCollection(Lizzie.optionSetting.getBestMoveUpdateInterval());
     }
 
     @Override
@@ -37,6 +39,8 @@ public abstract class AbstractAnalyzer implements Analyzer {
     @Override
     public void registerListOfBestMoveObserver(ImmutableList<BestMoveObserver> observers) {
         this.observers.addAll(observers.castToList());
+        // The observers of the previous engine may have been handed over after the start of this one was notified
+        this.observers.engineRestarted();
     }
 
     @Override
@@ -49,6 +53,11 @@ public abstract class AbstractAnalyzer implements Analyzer {
         observers.clear();
     }
 
+    @Override
+    public MutableMap<BestMoveObserver, BestMoveObserverConflatingCollection.DeliveryStatistics> getBestMoveDeliveryStatistics() {
+        return observers.getDeliveryStatistics();
+    }
+
     @Override
     public synchronized void startAnalyzing() {
         if (!analyzingOngoing) {
@@ -116,6 +125,7 @@ public abstract class AbstractAnalyzer implements Analyzer {
         if (!shutdownCalled.getAndSet(true)) {
             disableAnalyzing();
             doShutdown(timeout, timeUnit);
+            observers.shutdown(timeout, timeUnit);
         }
     }
 
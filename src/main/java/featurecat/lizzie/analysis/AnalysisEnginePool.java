@@ -0,0 +1,378 @@
+package featurecat.lizzie.analysis;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import featurecat.lizzie.util.GenericLizzieException;
+import featurecat.lizzie.util.ThreadPoolUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs several engines supporting lz-analyze side by side, and spreads the analysis of independent positions, e.g.
+ * all the positions of a game, over them.
+ * <p>
+ * Every engine has a worker taking the next position from a shared queue, so faster engines simply analyze more
+ * positions. The engines are not bound to {@link featurecat.lizzie.Lizzie#board}: each position brings its own moves,
+ * and the worker brings its engine there with undo and play commands when the previous position is close, or with
+ * clear_board otherwise. The analysis lines of all the engines are delivered to one listener, one at a time.
+ */
+public class AnalysisEnginePool implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(AnalysisEnginePool.class);
+
+    // Centiseconds between two analysis lines
+    private static final int ANALYSIS_INTERVAL = 10;
+    private static final long ENGINE_CHECK_TIMEOUT_SECONDS = 60;
+
+    private final GtpClientBuilder gtpClientBuilder;
+    private final int engineCount;
+    private final AnalysisListener listener;
+
+    private final List<GtpClient> gtpClients = new ArrayList<>();
+    private final BlockingQueue<PositionAnalysis> pendingAnalyses = new LinkedBlockingQueue<>();
+    private final AtomicInteger runningWorkerCount = new AtomicInteger();
+    private final AtomicInteger analyzedPositionCount = new AtomicInteger();
+    private ExecutorService workerExecutor;
+    private ExecutorService notificationExecutor;
+
+    public interface AnalysisListener {
+        /**
+         * Called for every analysis line of every engine, never concurrently
+         */
+        void analysisUpdated(PositionAnalysis analysis, List<MoveData> bestMoves);
+    }
+
+    /**
+     * @param gtpClientBuilder builds the client of every engine
+     * @param engineCount      the number of engines to run
+     * @param listener         receives the analysis lines, may be null
+     */
+    public AnalysisEnginePool(GtpClientBuilder gtpClientBuilder, int engineCount, AnalysisListener listener) {
+        if (engineCount < 1) {
+            throw new IllegalArgumentException("At least one engine is needed, but " + engineCount + " requested.");
+        }
+
+        this.gtpClientBuilder = gtpClientBuilder;
+        this.engineCount = engineCount;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the engines and checks them together. Engines not supporting lz-analyze are shut down
+     *
+     * @throws GenericLizzieException if no engine works
+     */
+    public synchronized void start() {
+        if (workerExecutor != null) {
+            return;
+        }
+
+        List<GtpClient> startedClients = new ArrayList<>(engineCount);
+        List<GtpFuture> checkFutures = new ArrayList<>(engineCount);
+        for (int i = 0; i < engineCount; ++i) {
+            GtpClient gtpClient = gtpClientBuilder.build();
+            gtpClient.start();
+            startedClients.add(gtpClient);
+            checkFutures.add(gtpClient.postCommand("list_commands"));
+        }
+
+        for (int i = 0; i < engineCount; ++i) {
+            GtpClient gtpClient = startedClients.get(i);
+            if (supportsAnalysis(checkFutures.get(i))) {
+                gtpClients.add(gtpClient);
+            } else {
+                logger.error("Engine {} of the pool does not support lz-analyze, shutting it down.", i);
+                gtpClient.shutdown(10, TimeUnit.SECONDS);
+            }
+        }
+        if (gtpClients.isEmpty()) {
+            throw new GenericLizzieException(ImmutableMap.of(GtpBasedAnalyzerBuilder.REASON, GtpBasedAnalyzerBuilder.ENGINE_NOT_SUPPORTED));
+        }
+
+        notificationExecutor = Executors.newSingleThreadExecutor();
+        workerExecutor = Executors.newFixedThreadPool(gtpClients.size());
+        runningWorkerCount.set(gtpClients.size());
+        for (GtpClient gtpClient : gtpClients) {
+            workerExecutor.execute(() -> runWorker(gtpClient));
+        }
+    }
+
+    private static boolean supportsAnalysis(GtpFuture listCommandsFuture) {
+        List<String> response = null;
+        try {
+            response = listCommandsFuture.get(ENGINE_CHECK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException | InterruptedException e) {
+            // Do nothing
+        }
+
+        return GtpCommand.isSuccessfulResponse(response)
+                && response.stream().anyMatch(s -> StringUtils.containsIgnoreCase(s, "lz-analyze"));
+    }
+
+    /**
+     * @return the number of engines working
+     */
+    public int getRunningEngineCount() {
+        return runningWorkerCount.get();
+    }
+
+    /**
+     * @return the number of positions analyzed so far
+     */
+    public int getAnalyzedPositionCount() {
+        return analyzedPositionCount.get();
+    }
+
+    /**
+     * Queues a position. Positions are analyzed in the order they are submitted, as engines become free
+     *
+     * @return the best moves at the end of the analysis. Cancelling it before the analysis starts skips the position
+     */
+    public ListenableFuture<List<MoveData>> submit(PositionAnalysis analysis) {
+        if (runningWorkerCount.get() == 0) {
+            analysis.result.setException(new IllegalStateException("No engine running in the pool."));
+        } else {
+            pendingAnalyses.add(analysis);
+        }
+
+        return analysis.result;
+    }
+
+    private void runWorker(GtpClient gtpClient) {
+        EngineState state = new EngineState();
+        try {
+            for (; ; ) {
+                PositionAnalysis analysis = pendingAnalyses.take();
+                if (analysis.result.isDone()) {
+                    continue;
+                }
+                if (!gtpClient.isRunning()) {
+                    // Left for the other engines
+                    pendingAnalyses.add(analysis);
+                    break;
+                }
+
+                try {
+                    List<MoveData> bestMoves = analyze(gtpClient, state, analysis);
+                    analyzedPositionCount.incrementAndGet();
+                    analysis.result.set(bestMoves);
+                } catch (InterruptedException e) {
+                    analysis.result.cancel(false);
+                    throw e;
+                } catch (RuntimeException e) {
+                    logger.error("Error analyzing a position.", e);
+                    state.moves = null;
+                    analysis.result.setException(e);
+                }
+            }
+            logger.error("An engine of the pool exited.");
+        } catch (InterruptedException e) {
+            // Pool closed
+        } finally {
+            if (runningWorkerCount.decrementAndGet() == 0) {
+                failPendingAnalyses(new IllegalStateException("No engine running in the pool."));
+            }
+        }
+    }
+
+    private List<MoveData> analyze(GtpClient gtpClient, EngineState state, PositionAnalysis analysis) throws InterruptedException {
+        List<String> commands = new ArrayList<>();
+        if (state.boardSize != analysis.boardSize) {
+            commands.add("boardsize " + analysis.boardSize);
+            state.boardSize = analysis.boardSize;
+            state.moves = Collections.emptyList();
+        }
+        if (state.komi != analysis.komi) {
+            commands.add(String.format("komi %.1f", analysis.komi));
+            state.komi = analysis.komi;
+        }
+        addPositionCommands(commands, state.moves, analysis.playCommands);
+        state.moves = null;
+
+        List<GtpFuture> futures = new ArrayList<>(commands.size());
+        for (String command : commands) {
+            futures.add(gtpClient.postCommand(command));
+        }
+        for (int i = 0; i < futures.size(); ++i) {
+            List<String> response;
+            try {
+                response = futures.get(i).get();
+            } catch (ExecutionException e) {
+                response = null;
+            }
+            if (!GtpCommand.isSuccessfulResponse(response)) {
+                throw new IllegalStateException("The engine refused " + commands.get(i));
+            }
+        }
+        state.moves = analysis.playCommands;
+
+        AtomicReference<List<MoveData>> bestMoves = new AtomicReference<>(Collections.emptyList());
+        CountDownLatch budgetReached = new CountDownLatch(1);
+        gtpClient.postCommand("lz-analyze " + ANALYSIS_INTERVAL, true, line -> {
+            if (!StringUtils.startsWith(line, "info")) {
+                return;
+            }
+            List<MoveData> moves = AnalysisInfoLineParser.parse(line);
+            if (moves == null || moves.isEmpty()) {
+                return;
+            }
+
+            bestMoves.set(moves);
+            if (listener != null) {
+                notificationExecutor.execute(() -> listener.analysisUpdated(analysis, moves));
+            }
+            if (analysis.maxVisits > 0 && moves.stream().mapToLong(MoveData::getPlayouts).sum() >= analysis.maxVisits) {
+                budgetReached.countDown();
+            }
+        });
+
+        Consumer<Integer> engineExitObserver = statusCode -> budgetReached.countDown();
+        gtpClient.registerEngineExitObserver(engineExitObserver);
+        try {
+            if (analysis.maxMillis > 0) {
+                budgetReached.await(analysis.maxMillis, TimeUnit.MILLISECONDS);
+            } else {
+                budgetReached.await();
+            }
+        } finally {
+            gtpClient.unregisterEngineExitObserver(engineExitObserver);
+        }
+        if (!gtpClient.isRunning()) {
+            throw new IllegalStateException("The engine exited while analyzing.");
+        }
+        // Stops the analysis, and waits for it to end so its lines are not taken for the next position
+        gtpClient.sendCommand("name");
+
+        return bestMoves.get();
+    }
+
+    /**
+     * Adds the undo and play commands from the engine moves to target, or clear_board and all the target moves if
+     * the engine moves are unknown or that is shorter
+     */
+    private static void addPositionCommands(List<String> commands, List<String> engineMoves, List<String> target) {
+        if (engineMoves != null) {
+            int commonLength = 0;
+            int maxCommonLength = Math.min(engineMoves.size(), target.size());
+            while (commonLength < maxCommonLength && engineMoves.get(commonLength).equals(target.get(commonLength))) {
+                ++commonLength;
+            }
+
+            int undoCount = engineMoves.size() - commonLength;
+            if (undoCount + target.size() - commonLength <= 1 + target.size()) {
+                for (int i = 0; i < undoCount; ++i) {
+                    commands.add("undo");
+                }
+                commands.addAll(target.subList(commonLength, target.size()));
+                return;
+            }
+        }
+
+        commands.add("clear_board");
+        commands.addAll(target);
+    }
+
+    private void failPendingAnalyses(Exception cause) {
+        List<PositionAnalysis> analyses = new ArrayList<>();
+        pendingAnalyses.drainTo(analyses);
+        for (PositionAnalysis analysis : analyses) {
+            analysis.result.setException(cause);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (workerExecutor == null) {
+            return;
+        }
+
+        workerExecutor.shutdownNow();
+        ThreadPoolUtil.shutdownAndAwaitTermination(workerExecutor, 10, TimeUnit.SECONDS);
+        failPendingAnalyses(new IllegalStateException("The pool is closed."));
+        for (GtpClient gtpClient : gtpClients) {
+            gtpClient.shutdown(10, TimeUnit.SECONDS);
+        }
+        gtpClients.clear();
+        ThreadPoolUtil.shutdownAndAwaitTermination(notificationExecutor, 10, TimeUnit.SECONDS);
+
+        workerExecutor = null;
+        notificationExecutor = null;
+    }
+
+    /**
+     * What an engine of the pool has been set to. The moves are null if unknown
+     */
+    private static class EngineState {
+        private int boardSize = -1;
+        private double komi = Double.NaN;
+        private List<String> moves;
+    }
+
+    /**
+     * A position to analyze, with its analysis budget
+     */
+    public static class PositionAnalysis {
+        private final List<String> playCommands;
+        private final int boardSize;
+        private final double komi;
+        private final int maxVisits;
+        private final long maxMillis;
+        private final SettableFuture<List<MoveData>> result = SettableFuture.create();
+
+        /**
+         * @param playCommands the moves leading to the position, as GTP play commands, see
+         *                     {@link BoardStateSynchronizer#getPlayCommands(featurecat.lizzie.rules.BoardHistoryNode)}
+         * @param boardSize    the board size
+         * @param komi         the komi
+         * @param maxVisits    the analysis stops once the suggested moves total this many visits, no limit if 0
+         * @param maxMillis    the analysis stops after this many milliseconds, no limit if 0
+         */
+        public PositionAnalysis(List<String> playCommands, int boardSize, double komi, int maxVisits, long maxMillis) {
+            if (maxVisits <= 0 && maxMillis <= 0) {
+                throw new IllegalArgumentException("The analysis of a position needs a visit or time limit.");
+            }
+
+            this.playCommands = Collections.unmodifiableList(new ArrayList<>(playCommands));
+            this.boardSize = boardSize;
+            this.komi = komi;
+            this.maxVisits = maxVisits;
+            this.maxMillis = maxMillis;
+        }
+
+        public List<String> getPlayCommands() {
+            return playCommands;
+        }
+
+        public int getBoardSize() {
+            return boardSize;
+        }
+
+        public double getKomi() {
+            return komi;
+        }
+
+        public int getMaxVisits() {
+            return maxVisits;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package featurecat.lizzie.analysis;
+
+import featurecat.lizzie.rules.Board;
+import org.eclipse.collections.api.list.MutableList;
+import org.eclipse.collections.impl.factory.Lists;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.ShortArrayList;
+
+/**
+ * Single pass parser of the analysis lines of lz-analyze and PhoenixGo, e.g.
+ * <pre>info move D16 visits 7 winrate 4704 network 1234 order 0 pv D16 Q16 D4 info move Q16 ...</pre>
+ * The <code>network</code> (or <code>N</code>) and <code>order</code> fields are optional. Parsing stops at the first
+ * malformed block, keeping the blocks before it. Canonical coordinates share interned strings and the variation moves
+ * are encoded directly, see {@link MoveData#encodeMove(int, int)}.
+ */
+public class AnalysisInfoLineParser {
+    private static final int MAX_INTERNED_ROW = 25;
+    private static final int NO_MOVE = Integer.MIN_VALUE;
+    private static final String PASS = "pass";
+    private static final String[][] internedCoordinates;
+
+    static {
+        internedCoordinates = new String[Board.alphabet.length()][MAX_INTERNED_ROW + 1];
+        for (int x = 0; x < Board.alphabet.length(); ++x) {
+            for (int y = 1; y <= MAX_INTERNED_ROW; ++y) {
+                internedCoordinates[x][y] = (Board.alphabet.charAt(x) + String.valueOf(y)).intern();
+            }
+        }
+    }
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private final String line;
+    private int position;
+    private final ShortArrayList variation;
+
+    // Value of the last number read
+    private long mantissa;
+    private int fractionDigits;
+    private boolean hasDecimalPoint;
+
+    private AnalysisInfoLineParser(String line) {
+        this.line = line;
+        this.position = 0;
+        this.variation = new ShortArrayList();
+    }
+
+    /**
+     * @param line an analysis line
+     * @return the moves in the order of the line, null if not even the first block could be parsed
+     */
+    public static MutableList<MoveData> parse(String line) {
+        MutableList<MoveData> moves = Lists.mutable.empty();
+        if (!new AnalysisInfoLineParser(line).parseInto(moves, null)) {
+            return null;
+        }
+        return moves;
+    }
+
+    /**
+     * @param line an analysis line
+     * @return the moves sorted by descending <code>order</code> field, missing ones counting as 0 and ties kept in
+     * reverse line order. null if not even the first block could be parsed
+     */
+    public static MutableList<MoveData> parseSortedByDescendingOrder(String line) {
+        MutableList<MoveData> moves = Lists.mutable.empty();
+        IntArrayList orders = new IntArrayList();
+        if (!new AnalysisInfoLineParser(line).parseInto(moves, orders)) {
+            return null;
+        }
+
+        moves.reverseThis();
+        orders.reverseThis();
+        // Stable insertion sort, there are only a few moves
+        for (int i = 1; i < moves.size(); ++i) {
+            MoveData move = moves.get(i);
+            int order = orders.get(i);
+            int j = i - 1;
+            while (j >= 0 && orders.get(j) < order) {
+                moves.set(j + 1, moves.get(j));
+                orders.set(j + 1, orders.get(j));
+                --j;
+            }
+            moves.set(j + 1, move);
+            orders.set(j + 1, order);
+        }
+        return moves;
+    }
+
+    private boolean parseInto(MutableList<MoveData> moves, IntArrayList orders) {
+        if (!parseBlock(moves, orders)) {
+            return false;
+        }
+
+        for (; ; ) {
+            int blockBegin = position;
+            if (!skipSpaces() || !parseBlock(moves, orders)) {
+                position = blockBegin;
+                return true;
+            }
+        }
+    }
+
+    // info move D16 visits 7 winrate 4704 [network 1234 | N 1234] [order 0] pv D16 Q16 D4
+    private boolean parseBlock(MutableList<MoveData> moves, IntArrayList orders) {
+        if (!(keyword("info") && skipSpaces() && keyword("move") && skipSpaces())) {
+            return false;
+        }
+        int coordinateBegin = position;
+        int move = move();
+        if (move == NO_MOVE) {
+            return false;
+        }
+        String coordinate = coordinateString(coordinateBegin);
+        if (!(skipSpaces() && keyword("visits") && skipSpaces() && number(false))) {
+            return false;
+        }
+        int playouts = (int) mantissa;
+        if (!(skipSpaces() && keyword("winrate") && skipSpaces() && number(true))) {
+            return false;
+        }
+        double winrate = getValue() / 100.0;
+
+        double probability = 0.0;
+        int optionalBegin = position;
+        if (skipSpaces() && (keyword("network") || keyword("N")) && skipSpaces() && number(true)) {
+            probability = hasDecimalPoint ? getValue() : getValue() / 100.0;
+        } else {
+            position = optionalBegin;
+        }
+
+        int order = 0;
+        optionalBegin = position;
+        if (skipSpaces() && keyword("order") && skipSpaces() && number(true)) {
+            order = (int) getValue();
+        } else {
+            position = optionalBegin;
+        }
+
+        if (!(skipSpaces() && keyword("pv"))) {
+            return false;
+        }
+        variation.clear();
+        for (; ; ) {
+            int moveBegin = position;
+            int variationMove = skipSpaces() ? move() : NO_MOVE;
+            if (variationMove == NO_MOVE) {
+                position = moveBegin;
+                break;
+            }
+            variation.add((short) variationMove);
+        }
+
+        moves.add(new MoveData(coordinate, (short) move, playouts, winrate, probability, variation.toArray()));
+        if (orders != null) {
+            orders.add(order);
+        }
+        return true;
+    }
+
+    private boolean skipSpaces() {
+        int begin = position;
+        while (position < line.length() && isSpace(line.charAt(position))) {
+            ++position;
+        }
+        return position > begin;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private boolean keyword(String keyword) {
+        if (line.startsWith(keyword, position)) {
+            position += keyword.length();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a coordinate such as D16 or a pass, in any case. Coordinates that Board cannot convert, e.g. in lower case,
+     * are read as passes too
+     *
+     * @return the encoded move, NO_MOVE if there is none at the current position
+     */
+    private int move() {
+        int begin = position;
+        if (position < line.length() && isColumn(line.charAt(position))) {
+            ++position;
+            if (number(false)) {
+                int x = Board.alphabet.indexOf(line.charAt(begin));
+                return x >= 0 && mantissa >= 1 && mantissa <= Short.MAX_VALUE
+                        ? MoveData.encodeMove(x, (int) mantissa - 1) : MoveData.PASS;
+            }
+            position = begin;
+        }
+
+        if (line.regionMatches(true, position, PASS, 0, PASS.length())) {
+            position += PASS.length();
+            return MoveData.PASS;
+        }
+        return NO_MOVE;
+    }
+
+    private static boolean isColumn(char c) {
+        return Board.alphabet.indexOf(Character.toUpperCase(c)) >= 0;
+    }
+
+    private String coordinateString(int begin) {
+        if (line.regionMatches(true, begin, PASS, 0, PASS.length())) {
+            return line.startsWith(PASS, begin) ? PASS : line.substring(begin, position);
+        }
+
+        int x = Board.alphabet.indexOf(line.charAt(begin));
+        int digits = position - begin - 1;
+        boolean canonical = x >= 0 && digits <= 2 && isDigit(line.charAt(begin + 1)) && line.charAt(begin + 1) != '0';
+        if (canonical && mantissa <= MAX_INTERNED_ROW) {
+            return internedCoordinates[x][(int) mantissa];
+        }
+        return line.substring(begin, position);
+    }
+
+    /**
+     * Reads an optionally signed number, stored into mantissa, fractionDigits and hasDecimalPoint
+     *
+     * @param allowFraction whether or not a decimal point and fraction digits may follow
+     * @return whether or not there is a number at the current position
+     */
+    private boolean number(boolean allowFraction) {
+        int begin = position;
+        boolean negative = false;
+        if (position < line.length() && (line.charAt(position) == '+' || line.charAt(position) == '-')) {
+            negative = line.charAt(position) == '-';
+            ++position;
+        }
+
+        mantissa = 0;
+        fractionDigits = 0;
+        hasDecimalPoint = false;
+        int digitsBegin = position;
+        while (position < line.length() && isDigit(line.charAt(position))) {
+            mantissa = mantissa * 10 + (line.charAt(position) - '0');
+            ++position;
+        }
+        if (position == digitsBegin) {
+            position = begin;
+            return false;
+        }
+
+        if (allowFraction && position < line.length() && line.charAt(position) == '.') {
+            hasDecimalPoint = true;
+            ++position;
+            while (position < line.length() && isDigit(line.charAt(position))) {
+                mantissa = mantissa * 10 + (line.charAt(position) - '0');
+                ++fractionDigits;
+                ++position;
+            }
+        }
+
+        if (negative) {
+            mantissa = -mantissa;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private double getValue() {
+        if (fractionDigits == 0) {
+            return mantissa;
+        } else if (fractionDigits < POWERS_OF_TEN.length) {
+            return mantissa / POWERS_OF_TEN[fractionDigits];
+        } else {
+            return Double.parseDouble(mantissa + "E-" + fractionDigits);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package featurecat.lizzie.analysis;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import org.eclipse.collections.api.list.ImmutableList;
+import org.eclipse.collections.api.map.MutableMap;
 
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -51,6 +52,8 @@ public interface Analyzer extends AutoCloseable {
 
     void clearRegisteredBestMoveObservers();
 
+    MutableMap<BestMoveObserver, BestMoveObserverConflatingCollection.DeliveryStatistics> getBestMoveDeliveryStatistics();
+
     void startAnalyzing();
 
     void pauseAnalyzing();
@@ -5,5 +5,17 @@ import java.util.List;
 public interface BestMoveObserver {
     void bestMovesUpdated(List<MoveData> newBestMoves);
 
+    /**
+     * Best moves tagged with the position they are about. The engine may still report on a previous position for a
+     * while after the head moved, so observers storing the best moves should check the tag. By default the tag is
+     * ignored
+     *
+     * @param positionHash the {@link featurecat.lizzie.rules.BoardData#getPositionHash() hash} of the position analyzed
+     * @param newBestMoves the best moves
+     */
+    default void bestMovesUpdated(long positionHash, List<MoveData> newBestMoves) {
+        bestMovesUpdated(newBestMoves);
+    }
+
     void engineRestarted();
 }
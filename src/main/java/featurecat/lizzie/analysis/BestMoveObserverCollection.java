@@ -28,6 +28,11 @@ public class BestMoveObserverCollection extends AbstractCollection<BestMoveObser
         observerList.forEach(observer -> observer.bestMovesUpdated(newBestMoves));
     }
 
+    @Override
+    public void bestMovesUpdated(long positionHash, List<MoveData> newBestMoves) {
+        observerList.forEach(observer -> observer.bestMovesUpdated(positionHash, newBestMoves));
+    }
+
     @Override
     public void engineRestarted() {
         observerList.forEach(BestMoveObserver::engineRestarted);
@@ -0,0 +1,243 @@
+package featurecat.lizzie.analysis;
+
+import com.google.common.base.MoreObjects;
+import featurecat.lizzie.util.ThreadPoolUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.collections.api.map.MutableMap;
+import org.eclipse.collections.impl.factory.Maps;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Observer collection that only keeps the newest best moves for every observer.
+ * <p>
+ * {@link #bestMovesUpdated(List)} returns immediately. The observers are called on a dispatch thread, each one at
+ * most once per interval, always with the latest best moves published before the call. An update replaced before it
+ * could be delivered is dropped, but the last update of a burst is always delivered.
+ */
+public class BestMoveObserverConflatingCollection extends BestMoveObserverCollection {
+    private static final Logger logger = LogManager.getLogger(BestMoveObserverConflatingCollection.class);
+
+    private final long minIntervalNanos;
+    private final ScheduledExecutorService dispatchExecutor;
+    private final ConcurrentMap<BestMoveObserver, ObserverSlot> slots;
+
+    /**
+     * @param minInterval minimum time in milliseconds between two deliveries to the same observer
+     */
+    public BestMoveObserverConflatingCollection(long minInterval) {
+        super();
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minInterval));
+        this.dispatchExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.slots = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void bestMovesUpdated(List<MoveData> newBestMoves) {
+        publish(new PendingUpdate(false, 0, newBestMoves, System.nanoTime()));
+    }
+
+    @Override
+    public void bestMovesUpdated(long positionHash, List<MoveData> newBestMoves) {
+        publish(new PendingUpdate(true, positionHash, newBestMoves, System.nanoTime()));
+    }
+
+    private void publish(PendingUpdate update) {
+        getObserverList().forEach(observer -> slots.computeIfAbsent(observer, ObserverSlot::new).offer(update));
+    }
+
+    @Override
+    public void engineRestarted() {
+        try {
+            dispatchExecutor.execute(() -> getObserverList().forEach(BestMoveObserver::engineRestarted));
+        } catch (RejectedExecutionException e) {
+            // Already shut down
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        slots.remove(o);
+        return super.remove(o);
+    }
+
+    @Override
+    public void clear() {
+        slots.clear();
+        super.clear();
+    }
+
+    /**
+     * @return a snapshot of the delivery statistics of every observer that has been published an update
+     */
+    public MutableMap<BestMoveObserver, DeliveryStatistics> getDeliveryStatistics() {
+        MutableMap<BestMoveObserver, DeliveryStatistics> statistics = Maps.mutable.empty();
+        slots.forEach((observer, slot) -> statistics.put(observer, slot.getStatistics()));
+        return statistics;
+    }
+
+    /**
+     * Stops the dispatch thread. Pending updates are not delivered any more.
+     */
+    public void shutdown(long timeout, TimeUnit timeUnit) {
+        ThreadPoolUtil.shutdownAndAwaitTermination(dispatchExecutor, timeout, timeUnit);
+    }
+
+    private static class PendingUpdate {
+        private final boolean tagged;
+        private final long positionHash;
+        private final List<MoveData> bestMoves;
+        private final long publishTime;
+
+        PendingUpdate(boolean tagged, long positionHash, List<MoveData> bestMoves, long publishTime) {
+            this.tagged = tagged;
+            this.positionHash = positionHash;
+            this.bestMoves = bestMoves;
+            this.publishTime = publishTime;
+        }
+    }
+
+    private class ObserverSlot {
+        private final BestMoveObserver observer;
+        private final AtomicReference<PendingUpdate> pending;
+        private final AtomicBoolean deliveryScheduled;
+        private volatile long lastDeliveryTime;
+
+        private final LongAdder publishedCount;
+        private final LongAdder deliveredCount;
+        private final LongAdder droppedCount;
+        private volatile long lastLagNanos;
+        private volatile long maxLagNanos;
+
+        ObserverSlot(BestMoveObserver observer) {
+            this.observer = observer;
+            this.pending = new AtomicReference<>();
+            this.deliveryScheduled = new AtomicBoolean(false);
+            this.lastDeliveryTime = System.nanoTime() - minIntervalNanos;
+            this.publishedCount = new LongAdder();
+            this.deliveredCount = new LongAdder();
+            this.droppedCount = new LongAdder();
+        }
+
+        void offer(PendingUpdate update) {
+            publishedCount.increment();
+            if (pending.getAndSet(update) != null) {
+                droppedCount.increment();
+            }
+            scheduleDelivery();
+        }
+
+        private void scheduleDelivery() {
+            if (!deliveryScheduled.compareAndSet(false, true)) {
+                return;
+            }
+
+            long delay = lastDeliveryTime + minIntervalNanos - System.nanoTime();
+            try {
+                dispatchExecutor.schedule(this::deliver, Math.max(0, delay), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Already shut down
+            }
+        }
+
+        private void deliver() {
+            PendingUpdate update = pending.getAndSet(null);
+            if (update != null && slots.get(observer) == this && contains(observer)) {
+                long now = System.nanoTime();
+                lastDeliveryTime = now;
+                lastLagNanos = now - update.publishTime;
+                maxLagNanos = Math.max(maxLagNanos, lastLagNanos);
+                try {
+                    if (update.tagged) {
+                        observer.bestMovesUpdated(update.positionHash, update.bestMoves);
+                    } else {
+                        observer.bestMovesUpdated(update.bestMoves);
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Best move observer failed", e);
+                }
+                deliveredCount.increment();
+            }
+
+            deliveryScheduled.set(false);
+            // An update may have been offered while the flag was still set
+            if (pending.get() != null) {
+                scheduleDelivery();
+            }
+        }
+
+        DeliveryStatistics getStatistics() {
+            return new DeliveryStatistics(publishedCount.sum(), deliveredCount.sum(), droppedCount.sum()
+                    , TimeUnit.NANOSECONDS.toMillis(lastLagNanos), TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+        }
+    }
+
+    /**
+     * Delivery counters of one observer
+     */
+    public static class DeliveryStatistics {
+        private final long publishedCount;
+        private final long deliveredCount;
+        private final long droppedCount;
+        private final long lastLag;
+        private final long maxLag;
+
+        DeliveryStatistics(long publishedCount, long deliveredCount, long droppedCount, long lastLag, long maxLag) {
+            this.publishedCount = publishedCount;
+            this.deliveredCount = deliveredCount;
+            this.droppedCount = droppedCount;
+            this.lastLag = lastLag;
+            this.maxLag = maxLag;
+        }
+
+        public long getPublishedCount() {
+            return publishedCount;
+        }
+
+        public long getDeliveredCount() {
+            return deliveredCount;
+        }
+
+        /**
+         * @return how many updates were replaced by a newer one before being delivered
+         */
+        public long getDroppedCount() {
+            return droppedCount;
+        }
+
+        /**
+         * @return milliseconds between the publication and the delivery of the last delivered update
+         */
+        public long getLastLag() {
+            return lastLag;
+        }
+
+        /**
+         * @return the largest lag in milliseconds seen so far
+         */
+        public long getMaxLag() {
+            return maxLag;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("publishedCount", publishedCount)
+                    .add("deliveredCount", deliveredCount)
+                    .add("droppedCount", droppedCount)
+                    .add("lastLag", lastLag)
+                    .add("maxLag", maxLag)
+                    .toString();
+        }
+    }
+}
@@ -1,10 +1,48 @@
 package featurecat.lizzie.analysis;
 
+import featurecat.lizzie.Lizzie;
 import featurecat.lizzie.rules.*;
 
-import java.util.OptionalInt;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Keeps the position of a GTP engine in sync with the head of the board.
+ * <p>
+ * The moves the engine is believed to have are tracked. A head movement is synchronized at once, unless another one
+ * happened shortly before: then the movements are collected for a short while and synchronized together, so scrubbing
+ * through a game does not flood the engine. A synchronization first takes back the commands of the previous one that
+ * are still staged, then sends the undo and play commands leading from the common part of both positions to the new
+ * one, or clear_board and the whole game if that is shorter. Commands are staged when the GTP client is not pipelined,
+ * as for the score estimators, and each waits for the answer to the previous one; a pipelined client writes them at
+ * once, so there is nothing left to take back.
+ */
 public abstract class BoardStateSynchronizer implements BoardStateChangeObserver {
+    // Head movements closer than this are synchronized together
+    private static final long COALESCING_DELAY_MILLIS = 20;
+
+    private final Object synchronizationLock = new Object();
+
+    // Guarded by this
+    private List<String> targetPosition;
+    private long targetPositionHash;
+    private boolean engineResetRequired;
+    private boolean synchronizationScheduled;
+    private long lastSynchronizationTime;
+
+    // Guarded by synchronizationLock. The moves the engine has once the posted commands are done, null if unknown
+    private List<String> enginePosition;
+    // Guarded by synchronizationLock. The commands that may still be staged, the oldest first
+    private final Deque<PostedCommand> postedCommands = new ArrayDeque<>();
+    // The hash of the position the engine has once the posted commands are done
+    private volatile long enginePositionHash;
+
     @Override
     public void mainStreamAppended(BoardHistoryNode newNodeBegin, BoardHistoryNode head) {
     }
@@ -15,42 +53,167 @@ public abstract class BoardStateSynchronizer implements BoardStateChangeObserver
 
     @Override
     public void headMoved(BoardHistoryNode oldHead, BoardHistoryNode newHead) {
-        if (oldHead.getNext() == newHead) {
-            // Move forward
-            replayMove(newHead.getData());
-        } else if (oldHead.getPrevious() == newHead) {
-            // Moved back
-            handleGtpCommand("undo");
-        } else {
-            OptionalInt distanceOpt = oldHead.distanceTo(newHead);
-            if (distanceOpt.isPresent()) {
-                int distance = distanceOpt.getAsInt();
-                if (distance > 0) {
-                    // Forward
-                    BoardHistoryNode p = oldHead.getNext();
-                    while (true) {
-                        replayMove(p.getData());
-
-                        if (p == newHead) {
-                            break;
-                        }
-                        p = p.getNext();
-                    }
-                } else if (distance < 0) {
-                    for (int i = 0; i < -distance; ++i) {
-                        handleGtpCommand("undo");
-                    }
-                }
+        boolean synchronizingAtOnce;
+        synchronized (this) {
+            targetPosition = getPlayCommands(newHead);
+            targetPositionHash = newHead.getData().getPositionHash();
+            synchronizingAtOnce = !synchronizationScheduled
+                    && System.currentTimeMillis() - lastSynchronizationTime >= COALESCING_DELAY_MILLIS;
+            if (!synchronizingAtOnce) {
+                scheduleSynchronization();
             }
         }
+
+        if (synchronizingAtOnce) {
+            synchronizeNow();
+        }
     }
 
     @Override
     public void boardCleared(BoardHistoryNode initialNode, BoardHistoryNode initialHead) {
-        handleGtpCommand("clear_board");
+        synchronized (this) {
+            targetPosition = getPlayCommands(initialHead);
+            targetPositionHash = initialHead.getData().getPositionHash();
+            // The engine may have been reset otherwise, e.g. by a board size change
+            engineResetRequired = true;
+            // A whole history replaced is reported as cleared, then moved, so the head movement is waited for
+            scheduleSynchronization();
+        }
+    }
+
+    /**
+     * Sends the commands bringing the engine to the latest head position, without waiting for the coalescing delay.
+     * Call it before querying the engine about the current position
+     */
+    public void synchronizeNow() {
+        synchronized (synchronizationLock) {
+            List<String> target;
+            long targetHash;
+            boolean resetRequired;
+            synchronized (this) {
+                target = targetPosition;
+                targetHash = targetPositionHash;
+                resetRequired = engineResetRequired;
+                engineResetRequired = false;
+                lastSynchronizationTime = System.currentTimeMillis();
+            }
+            if (target == null) {
+                return;
+            }
+
+            takeBackStagedCommands();
+            if (resetRequired) {
+                enginePosition = null;
+            }
+
+            List<String> commands = new ArrayList<>();
+            List<List<String>> positionsBefore = new ArrayList<>();
+            planCommands(target, commands, positionsBefore);
+            // Analyzing restarts while the commands are sent, and is about the target position from then on
+            enginePositionHash = targetHash;
+            if (commands.isEmpty()) {
+                return;
+            }
+
+            Runnable sending = () -> {
+                for (int i = 0; i < commands.size(); ++i) {
+                    postedCommands.addLast(new PostedCommand(handleGtpCommand(commands.get(i)), positionsBefore.get(i)));
+                }
+            };
+            if (commands.size() > 1) {
+                handleGtpCommandBatch(sending);
+            } else {
+                sending.run();
+            }
+            enginePosition = target;
+        }
+    }
+
+    private synchronized void scheduleSynchronization() {
+        if (!synchronizationScheduled) {
+            synchronizationScheduled = true;
+            Lizzie.miscExecutor.schedule(() -> {
+                synchronized (this) {
+                    synchronizationScheduled = false;
+                }
+                synchronizeNow();
+            }, COALESCING_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
-    private void replayMove(BoardData data) {
+    /**
+     * Cancels the newest posted commands not written to the engine yet. Commands are written in order, so the older
+     * ones are all written once one cannot be cancelled
+     */
+    private void takeBackStagedCommands() {
+        PostedCommand command;
+        while ((command = postedCommands.peekLast()) != null
+                && command.future != null && !command.future.isDone() && command.future.cancel(false)) {
+            enginePosition = command.positionBefore;
+            postedCommands.removeLast();
+        }
+        postedCommands.clear();
+    }
+
+    /**
+     * Fills commands with the shortest way from the engine position to target, and positionsBefore with the engine
+     * position before each of them
+     */
+    private void planCommands(List<String> target, List<String> commands, List<List<String>> positionsBefore) {
+        if (enginePosition != null) {
+            int commonLength = 0;
+            int maxCommonLength = Math.min(enginePosition.size(), target.size());
+            while (commonLength < maxCommonLength && enginePosition.get(commonLength).equals(target.get(commonLength))) {
+                ++commonLength;
+            }
+
+            int undoCount = enginePosition.size() - commonLength;
+            int playCount = target.size() - commonLength;
+            if (undoCount + playCount <= 1 + target.size()) {
+                for (int i = enginePosition.size(); i > commonLength; --i) {
+                    commands.add("undo");
+                    positionsBefore.add(enginePosition.subList(0, i));
+                }
+                for (int i = commonLength; i < target.size(); ++i) {
+                    commands.add(target.get(i));
+                    positionsBefore.add(target.subList(0, i));
+                }
+                return;
+            }
+        }
+
+        commands.add("clear_board");
+        positionsBefore.add(enginePosition);
+        for (int i = 0; i < target.size(); ++i) {
+            commands.add(target.get(i));
+            positionsBefore.add(target.subList(0, i));
+        }
+    }
+
+    /**
+     * @return the {@link BoardData#getPositionHash() hash} of the position the engine is analyzing once the commands
+     * posted so far are done. Analysis started after a synchronization is about this position
+     */
+    public long getEnginePositionHash() {
+        return enginePositionHash;
+    }
+
+    /**
+     * @return the GTP play commands leading to node, must not be modified
+     */
+    public static List<String> getPlayCommands(BoardHistoryNode node) {
+        List<String> moves = new ArrayList<>();
+        for (BoardHistoryNode p = node; p != null; p = p.getPrevious()) {
+            String move = toPlayCommand(p.getData());
+            if (move != null) {
+                moves.add(move);
+            }
+        }
+        Collections.reverse(moves);
+        return Collections.unmodifiableList(Arrays.asList(moves.toArray(new String[0])));
+    }
+
+    private static String toPlayCommand(BoardData data) {
         String move;
         if (data.getLastMove() == null) {
             move = "pass";
@@ -59,11 +222,35 @@ public abstract class BoardStateSynchronizer implements BoardStateChangeObserver
         }
 
         if (data.getLastMoveColor() == Stone.BLACK) {
-            handleGtpCommand(String.format("play %s %s", "B", move));
+            return String.format("play %s %s", "B", move);
         } else if (data.getLastMoveColor() == Stone.WHITE) {
-            handleGtpCommand(String.format("play %s %s", "W", move));
+            return String.format("play %s %s", "W", move);
+        } else {
+            return null;
         }
     }
 
-    protected abstract void handleGtpCommand(String command);
+    /**
+     * Runs the sending of several commands. Analyzers override it to pause analyzing until all of them are sent
+     *
+     * @param sending calls {@link #handleGtpCommand(String)} for each command
+     */
+    protected void handleGtpCommandBatch(Runnable sending) {
+        sending.run();
+    }
+
+    /**
+     * @return the future of the command, cancelled if the command is superseded before being written to the engine
+     */
+    protected abstract Future<?> handleGtpCommand(String command);
+
+    private static class PostedCommand {
+        private final Future<?> future;
+        private final List<String> positionBefore;
+
+        PostedCommand(Future<?> future, List<String> positionBefore) {
+            this.future = future;
+            this.positionBefore = positionBefore;
+        }
+    }
 }
@@ -5,7 +5,6 @@ import org.eclipse.collections.impl.factory.Lists;
 import org.jetbrains.annotations.NotNull;
 import featurecat.lizzie.Lizzie;
 import featurecat.lizzie.rules.BoardHistoryNode;
-import featurecat.lizzie.rules.BoardStateChangeObserver;
 import featurecat.lizzie.util.ThreadPoolUtil;
 
 import java.util.Arrays;
@@ -13,6 +12,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class ClassicModifiedLeelazAnalyzer extends AbstractGtpBasedAnalyzer {
@@ -21,8 +21,9 @@ public class ClassicModifiedLeelazAnalyzer extends AbstractGtpBasedAnalyzer {
     private ExecutorService notificationExecutor;
     private boolean readingPonderOutput;
     private List<MoveData> bestMoves;
+    private long ponderedPositionHash;
     private long startPonderTime;
-    private BoardStateChangeObserver boardSyncObserver;
+    private BoardStateSynchronizer boardSyncObserver;
 
     public ClassicModifiedLeelazAnalyzer(GtpClient gtpClient) {
         super(gtpClient, true);
@@ -34,18 +35,23 @@ public class ClassicModifiedLeelazAnalyzer extends AbstractGtpBasedAnalyzer {
             @Override
             public void headMoved(BoardHistoryNode oldHead, BoardHistoryNode newHead) {
                 super.headMoved(oldHead, newHead);
-                notificationExecutor.execute(() -> observers.bestMovesUpdated(Collections.emptyList()));
+                observers.bestMovesUpdated(Collections.emptyList());
             }
 
             @Override
             public void boardCleared(BoardHistoryNode initialNode, BoardHistoryNode initialHead) {
                 super.boardCleared(initialNode, initialHead);
-                notificationExecutor.execute(() -> observers.bestMovesUpdated(Collections.emptyList()));
+                observers.bestMovesUpdated(Collections.emptyList());
             }
 
             @Override
-            protected void handleGtpCommand(String command) {
-                ClassicModifiedLeelazAnalyzer.this.postGtpCommand(command);
+            protected Future<?> handleGtpCommand(String command) {
+                return ClassicModifiedLeelazAnalyzer.this.postGtpCommand(command);
+            }
+
+            @Override
+            protected void handleGtpCommandBatch(Runnable sending) {
+                ClassicModifiedLeelazAnalyzer.this.batchGtpCommands(sending);
             }
         };
 
@@ -104,11 +110,13 @@ public class ClassicModifiedLeelazAnalyzer extends AbstractGtpBasedAnalyzer {
 
             readingPonderOutput = true;
             bestMoves = Lists.mutable.withInitialCapacity(32);
+            // Stderr is not ordered with the responses, the engine is assumed to be where it was last sent
+            ponderedPositionHash = boardSyncObserver.getEnginePositionHash();
         } else if (line.startsWith("~end")) {
             readingPonderOutput = false;
 
             final List<MoveData> currentBestMoves = bestMoves; // Does not need clone because we always allocate a new one
-            notificationExecutor.execute(() -> observers.bestMovesUpdated(currentBestMoves));
+            observers.bestMovesUpdated(ponderedPositionHash, currentBestMoves);
         } else {
             if (readingPonderOutput) {
                 if (Character.isLetter(line.charAt(0))) {
@@ -0,0 +1,110 @@
+package featurecat.lizzie.analysis;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Remembers which analyzer suits an engine command line, so that later launches skip the protocol detection, which
+ * takes several round trips and up to a few seconds. An entry is only used while the engine reports the same name and
+ * version as when it was detected, so an engine replaced behind the same command line is detected again.
+ */
+public class EngineCapabilityCache {
+    private static final Logger logger = LogManager.getLogger(EngineCapabilityCache.class);
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private static final Type ENTRIES_TYPE = new TypeToken<LinkedHashMap<String, Capabilities>>() {
+    }.getType();
+
+    private static class Capabilities {
+        private String name;
+        private String version;
+        private GtpBasedAnalyzerBuilder.AnalyzerType analyzerType;
+    }
+
+    private final Path cacheFile;
+    private final Map<String, Capabilities> entries;
+
+    private EngineCapabilityCache(Path cacheFile, Map<String, Capabilities> entries) {
+        this.cacheFile = cacheFile;
+        this.entries = entries;
+    }
+
+    /**
+     * @return the cache stored in cacheFile, an empty one if the file does not exist or cannot be read
+     */
+    public static EngineCapabilityCache load(Path cacheFile) {
+        Map<String, Capabilities> entries = null;
+        try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            entries = gson.fromJson(reader, ENTRIES_TYPE);
+        } catch (NoSuchFileException e) {
+            // Nothing detected yet
+        } catch (Exception e) {
+            logger.warn("Cannot read the engine capability cache, the engines will be detected again.", e);
+        }
+
+        return new EngineCapabilityCache(cacheFile, entries != null ? entries : new LinkedHashMap<>());
+    }
+
+    /**
+     * @return the analyzer detected for the command line, if the engine still reports the same name and version
+     */
+    public synchronized Optional<GtpBasedAnalyzerBuilder.AnalyzerType> get(String commandLine, String name, String version) {
+        Capabilities capabilities = entries.get(commandLine);
+        if (capabilities == null || capabilities.analyzerType == null
+                || !Objects.equals(capabilities.name, name) || !Objects.equals(capabilities.version, version)) {
+            return Optional.empty();
+        }
+        return Optional.of(capabilities.analyzerType);
+    }
+
+    /**
+     * Records the analyzer detected for the command line, and stores the cache
+     */
+    public synchronized void put(String commandLine, String name, String version, GtpBasedAnalyzerBuilder.AnalyzerType analyzerType) {
+        Capabilities capabilities = new Capabilities();
+        capabilities.name = name;
+        capabilities.version = version;
+        capabilities.analyzerType = analyzerType;
+        entries.put(commandLine, capabilities);
+
+        try {
+            store();
+        } catch (IOException e) {
+            logger.error("Cannot write the engine capability cache.", e);
+        }
+    }
+
+    private void store() throws IOException {
+        Path temporaryFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                gson.toJson(entries, ENTRIES_TYPE, writer);
+            }
+
+            try {
+                Files.move(temporaryFile, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+}
@@ -3,22 +3,104 @@ package featurecat.lizzie.analysis;
 import com.zaxxer.nuprocess.NuAbstractProcessHandler;
 import com.zaxxer.nuprocess.NuProcess;
 import com.zaxxer.nuprocess.NuProcessBuilder;
-import com.zaxxer.nuprocess.NuProcessHandler;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.jtrim2.utils.ObjectFinalizer;
 import featurecat.lizzie.util.ArgumentTokenizer;
 import featurecat.lizzie.util.ThreadPoolUtil;
+import featurecat.lizzie.util.Utf8LineDecoder;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class GeneralGtpClient implements GtpClient {
+    /**
+     * Runs the lines decoded on the NuProcess callback thread through one long-lived loop on its own thread, in the
+     * order they arrived. The callback thread collects the lines of a chunk and hands them over at once with
+     * {@link #flush()}, so a chunk costs one lock and no task or list of its own: the lists are reused. Handing over
+     * never waits for the loop, because the callback thread serves other processes too.
+     */
+    protected static class LineDispatcher implements Consumer<String> {
+        // Only used from the NuProcess callback thread
+        private final List<String> collectedLines;
+        // Guarded by this
+        private List<String> pendingLines;
+        private boolean stopped;
+
+        public LineDispatcher() {
+            collectedLines = new ArrayList<>();
+            pendingLines = new ArrayList<>();
+            stopped = false;
+        }
+
+        /**
+         * Collects a line until the next {@link #flush()}
+         */
+        @Override
+        public void accept(String line) {
+            collectedLines.add(line);
+        }
+
+        /**
+         * Hands the collected lines over to the loop
+         */
+        public void flush() {
+            if (collectedLines.isEmpty()) {
+                return;
+            }
+            synchronized (this) {
+                pendingLines.addAll(collectedLines);
+                notifyAll();
+            }
+            collectedLines.clear();
+        }
+
+        /**
+         * Hands the lines handed over to lineConsumer until {@link #stop()} is called or the thread is interrupted
+         */
+        public void run(Consumer<String> lineConsumer) {
+            List<String> lines = new ArrayList<>();
+            try {
+                for (; ; ) {
+                    synchronized (this) {
+                        while (pendingLines.isEmpty() && !stopped) {
+                            wait();
+                        }
+                        if (pendingLines.isEmpty()) {
+                            return;
+                        }
+                        List<String> handedOverLines = pendingLines;
+                        pendingLines = lines;
+                        lines = handedOverLines;
+                    }
+
+                    lines.forEach(lineConsumer);
+                    lines.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Ends the loop once the lines handed over so far are consumed
+         */
+        public synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+    }
+
     protected class GeneralGtpProcessHandler extends NuAbstractProcessHandler implements Closeable {
         private final ObjectFinalizer objectFinalizer;
 
@@ -26,9 +108,14 @@ public class GeneralGtpClient implements GtpClient {
         protected ExecutorService stderrProcessor;
         protected ExecutorService miscProcessor;
 
-        protected StringBuilder stdoutLineBuilder;
-        protected StringBuilder stderrLineBuilder;
+        // Only used from the NuProcess callback thread
+        protected Utf8LineDecoder stdoutLineDecoder;
+        protected Utf8LineDecoder stderrLineDecoder;
+        protected LineDispatcher stdoutLineDispatcher;
+        protected LineDispatcher stderrLineDispatcher;
         protected boolean inCommandResponse;
+        // Set while a thread drains the staging queue
+        private final AtomicBoolean draining = new AtomicBoolean();
 
         public GeneralGtpProcessHandler() {
             objectFinalizer = new ObjectFinalizer(this::doCleanup, "GtpClientHandler.cleanup");
@@ -36,9 +123,14 @@ public class GeneralGtpClient implements GtpClient {
             stdoutProcessor = Executors.newSingleThreadExecutor();
             stderrProcessor = Executors.newSingleThreadExecutor();
             miscProcessor = Executors.newSingleThreadExecutor();
-            stdoutLineBuilder = new StringBuilder(2048);
-            stderrLineBuilder = new StringBuilder(2048);
+            stdoutLineDecoder = new Utf8LineDecoder(8192);
+            stderrLineDecoder = new Utf8LineDecoder(8192);
+            stdoutLineDispatcher = new LineDispatcher();
+            stderrLineDispatcher = new LineDispatcher();
             inCommandResponse = false;
+
+            stdoutProcessor.execute(() -> stdoutLineDispatcher.run(this::onEngineStdoutLine));
+            stderrProcessor.execute(() -> stderrLineDispatcher.run(this::onEngineStderrLine));
         }
 
         @Override
@@ -53,6 +145,7 @@ public class GeneralGtpClient implements GtpClient {
             while ((futurePair = runningCommandQueue.poll()) != null) {
                 futurePair.getLeft().markCompleted();
             }
+            runningNonContinuousCommandCount.set(0);
 
             while ((futurePair = stagineCommandQueue.poll()) != null) {
                 futurePair.getLeft().markCompleted();
@@ -66,68 +159,74 @@ public class GeneralGtpClient implements GtpClient {
         @Override
         public void onStdout(final ByteBuffer buffer, final boolean closed) {
             if (!closed) {
-                final byte[] bytes = new byte[buffer.remaining()];
-                // You must update buffer.position() before returning (either implicitly,
-                // like this, or explicitly) to indicate how many bytes your handler has consumed.
-                buffer.get(bytes);
-
-                stdoutProcessor.execute(() -> {
-                    for (byte b : bytes) {
-                        stdoutLineBuilder.append((char) b);
-                        if (b == '\n') {
-                            onEngineStdoutLine(stdoutLineBuilder.toString());
-                            stdoutLineBuilder = new StringBuilder(2048);
-                        }
-                    }
-                });
+                // The decoder moves buffer.position() past the consumed bytes. NuProcess keeps the rest, an incomplete
+                // UTF-8 character, for the next call.
+                stdoutLineDecoder.decode(buffer, stdoutLineDispatcher);
+                stdoutLineDispatcher.flush();
             }
         }
 
         @Override
         public void onStderr(final ByteBuffer buffer, final boolean closed) {
             if (!closed) {
-                final byte[] bytes = new byte[buffer.remaining()];
-                // You must update buffer.position() before returning (either implicitly,
-                // like this, or explicitly) to indicate how many bytes your handler has consumed.
-                buffer.get(bytes);
-
-                stderrProcessor.execute(() -> {
-                    for (byte b : bytes) {
-                        stderrLineBuilder.append((char) b);
-                        if (b == '\n') {
-                            onEngineStderrLine(stderrLineBuilder.toString());
-                            stderrLineBuilder = new StringBuilder(2048);
-                        }
-                    }
-                });
+                stderrLineDecoder.decode(buffer, stderrLineDispatcher);
+                stderrLineDispatcher.flush();
             }
         }
 
-        @Override
-        public synchronized boolean onStdinReady(final ByteBuffer buffer) {
-            if (!runningCommandQueue.isEmpty() && runningCommandQueue.stream().anyMatch(pair -> !pair.getLeft().isContinuous())) {
-                return false;
+        /**
+         * Writes the staged commands allowed to go now. Without pipelining, a command is written only once the
+         * non-continuous commands before it are answered; a continuous command never holds the next one back, which
+         * interrupts it.
+         * <p>
+         * Only one thread drains the staging queue at a time. A thread finding a drain in progress leaves its commands
+         * to it, so the commands staged meanwhile by several threads go in one write, in the order they were staged.
+         */
+        protected void writeStagedCommands() {
+            // The drain checks the queue again once done, for the commands staged after its last poll
+            while (isStagedCommandWritable() && draining.compareAndSet(false, true)) {
+                try {
+                    drainStagedCommands();
+                } finally {
+                    draining.set(false);
+                }
             }
+        }
 
-            ImmutablePair<GeneralGtpFuture, Consumer<String>> futurePair = stagineCommandQueue.poll();
-            if (futurePair != null) {
+        private boolean isStagedCommandWritable() {
+            return !stagineCommandQueue.isEmpty() && (pipelined || runningNonContinuousCommandCount.get() == 0);
+        }
+
+        /**
+         * The commands are handed to {@link NuProcess#writeStdin(ByteBuffer)}, whose queue is safe to fill from any
+         * thread. Asking for a stdin callback with {@link NuProcess#wantWrite()} instead loses the request when it races
+         * with the end of the previous callback.
+         */
+        private void drainStagedCommands() {
+            StringBuilder commands = new StringBuilder();
+            int writtenCommandCount = 0;
+            ImmutablePair<GeneralGtpFuture, Consumer<String>> futurePair;
+            while ((pipelined || runningNonContinuousCommandCount.get() == 0)
+                    && (futurePair = stagineCommandQueue.poll()) != null) {
                 GeneralGtpFuture future = futurePair.getLeft();
-                buffer.put(future.getCommand().getBytes());
+                commands.append(future.getCommand());
                 if (!future.getCommand().endsWith("\n")) {
-                    buffer.put((byte) '\n');
+                    commands.append('\n');
                 }
-                buffer.flip();
 
                 runningCommandQueue.offer(futurePair);
-                miscProcessor.execute(() -> engineGtpCommandObserverList.forEach(observer -> observer.accept(future.getCommand())));
-
-                // In case of some particular situations
-                if (future.isContinuous() && !stagineCommandQueue.isEmpty()) {
-                    return true;
+                if (!future.isContinuous()) {
+                    runningNonContinuousCommandCount.incrementAndGet();
                 }
+                miscProcessor.execute(() -> engineGtpCommandObserverList.forEach(observer -> observer.accept(future.getCommand())));
+                ++writtenCommandCount;
             }
 
-            return false;
+            if (writtenCommandCount > 0) {
+                gtpProcess.writeStdin(ByteBuffer.wrap(commands.toString().getBytes(StandardCharsets.UTF_8)));
+                writtenCommandCounter.add(writtenCommandCount);
+                stdinWriteCounter.increment();
+            }
         }
 
         protected synchronized void onEngineStdoutLine(final String line) {
@@ -148,16 +247,14 @@ public class GeneralGtpClient implements GtpClient {
                     future.markCompleted();
 
                     runningCommandQueue.poll();
+                    if (!future.isContinuous()) {
+                        runningNonContinuousCommandCount.decrementAndGet();
+                    }
                     inCommandResponse = false;
 
                     // Notify for next command processing
-                    if (runningCommandQueue.stream().allMatch(pair -> pair.getLeft().isContinuous()) && !stagineCommandQueue.isEmpty()) {
-                        gtpProcess.wantWrite();
-                    }
-                } else {
-                    // Prevent stuck
-                    if (future.isContinuous() && runningCommandQueue.stream().allMatch(pair -> pair.getLeft().isContinuous()) && !stagineCommandQueue.isEmpty()) {
-                        gtpProcess.wantWrite();
+                    if (!stagineCommandQueue.isEmpty()) {
+                        writeStagedCommands();
                     }
                 }
             } else if (line.startsWith("=") || line.startsWith("?")) {
@@ -174,10 +271,6 @@ public class GeneralGtpClient implements GtpClient {
                     response.add(line);
                 } else {
                     commandOutputConsumer.accept(line);
-                    // Prevent stuck
-                    if (future.isContinuous() && runningCommandQueue.stream().allMatch(pair -> pair.getLeft().isContinuous()) && !stagineCommandQueue.isEmpty()) {
-                        gtpProcess.wantWrite();
-                    }
                 }
             } else {
                 onEngineDiagnosticLine(line);
@@ -194,11 +287,13 @@ public class GeneralGtpClient implements GtpClient {
 
         private void doCleanup() {
             if (stdoutProcessor != null) {
+                stdoutLineDispatcher.stop();
                 ThreadPoolUtil.shutdownAndAwaitTermination(stdoutProcessor);
                 stdoutProcessor = null;
             }
 
             if (stderrProcessor != null) {
+                stderrLineDispatcher.stop();
                 ThreadPoolUtil.shutdownAndAwaitTermination(stderrProcessor);
                 stderrProcessor = null;
             }
@@ -217,7 +312,7 @@ public class GeneralGtpClient implements GtpClient {
 
     private final ObjectFinalizer objectFinalizer;
     private List<String> gtpCommandLine;
-    private NuProcessHandler gtpProcessHandler;
+    private GeneralGtpProcessHandler gtpProcessHandler;
     private NuProcess gtpProcess;
     private ConcurrentLinkedQueue<ImmutablePair<GeneralGtpFuture, Consumer<String>>> stagineCommandQueue;
     private ConcurrentLinkedQueue<ImmutablePair<GeneralGtpFuture, Consumer<String>>> runningCommandQueue;
@@ -228,6 +323,10 @@ public class GeneralGtpClient implements GtpClient {
     private List<Consumer<Integer>> engineExitObserverList;
     private List<Consumer<String>> engineGtpCommandObserverList;
     private boolean engineExit;
+    private volatile boolean pipelined;
+    private final AtomicInteger runningNonContinuousCommandCount;
+    private final LongAdder writtenCommandCounter;
+    private final LongAdder stdinWriteCounter;
 
     public GeneralGtpClient(String commandLine) {
         this(ArgumentTokenizer.tokenize(commandLine));
@@ -246,6 +345,36 @@ public class GeneralGtpClient implements GtpClient {
         engineExitObserverList = new CopyOnWriteArrayList<>();
         engineGtpCommandObserverList = new CopyOnWriteArrayList<>();
         engineExit = false;
+        pipelined = false;
+        runningNonContinuousCommandCount = new AtomicInteger(0);
+        writtenCommandCounter = new LongAdder();
+        stdinWriteCounter = new LongAdder();
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * @param pipelined whether or not commands are written without waiting for the responses of the previous ones.
+     *                  The engine still answers them one by one, in order
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * @return the number of commands written to the engine so far
+     */
+    public long getWrittenCommandCount() {
+        return writtenCommandCounter.sum();
+    }
+
+    /**
+     * @return the number of writes to the engine stdin so far, each one holding one or more commands
+     */
+    public long getStdinWriteCount() {
+        return stdinWriteCounter.sum();
     }
 
     public void registerDiagnosticLineConsumer(Consumer<String> consumer) {
@@ -283,12 +412,8 @@ public class GeneralGtpClient implements GtpClient {
     @Override
     public GtpFuture postCommand(String command, boolean continuous, Consumer<String> commandOutputConsumer) {
         GeneralGtpFuture future = new GeneralGtpFuture(command, this, continuous);
-        synchronized (gtpProcessHandler) {
-            stagineCommandQueue.offer(ImmutablePair.of(future, commandOutputConsumer));
-            if (runningCommandQueue.isEmpty() || runningCommandQueue.stream().allMatch(pair -> pair.getLeft().isContinuous())) {
-                gtpProcess.wantWrite();
-            }
-        }
+        stagineCommandQueue.offer(ImmutablePair.of(future, commandOutputConsumer));
+        gtpProcessHandler.writeStagedCommands();
 
         return future;
     }
@@ -307,7 +432,7 @@ public class GeneralGtpClient implements GtpClient {
     protected void setUpOtherProcessParameters(NuProcessBuilder processBuilder) {
     }
 
-    protected NuProcessHandler provideProcessHandler() {
+    protected GeneralGtpProcessHandler provideProcessHandler() {
         return this.new GeneralGtpProcessHandler();
     }
 
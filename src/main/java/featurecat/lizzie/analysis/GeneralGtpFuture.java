@@ -72,6 +72,7 @@ public class GeneralGtpFuture implements GtpFuture {
             triedCancelling = true;
 
             if (cancelled) {
+                completionLatch.countDown();
                 notifyCompleted();
             }
         }
@@ -106,12 +107,18 @@ public class GeneralGtpFuture implements GtpFuture {
     @Override
     public List<String> get() throws InterruptedException, ExecutionException {
         completionLatch.await();
+        if (isCancelled()) {
+            throw new CancellationException("Command cancelled: " + getCommand());
+        }
         return response;
     }
 
     @Override
     public List<String> get(long timeout, @NotNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
         if (completionLatch.await(timeout, unit)) {
+            if (isCancelled()) {
+                throw new CancellationException("Command cancelled: " + getCommand());
+            }
             return response;
         } else {
             throw new TimeoutException("Timeout when waiting for command " + getCommand());
@@ -42,7 +42,7 @@ public class GnuGoScoreEstimator extends GtpBasedScoreEstimator {
 
     @Override
     public String estimateScoreRaw() {
-        return gtpClient.sendCommand("estimate_score").get(0).substring(2);
+        return sendPositionCommand("estimate_score").get(0).substring(2);
     }
 
     @Override
@@ -72,7 +72,7 @@ public class GnuGoScoreEstimator extends GtpBasedScoreEstimator {
 
     @Override
     public List<String> estimateInfluencesRaw() {
-        return gtpClient.sendCommand(
+        return sendPositionCommand(
                 String.format("initial_influence %s territory_value", Lizzie.board.getData().isBlackToPlay() ? "b" : "w")
         );
     }
@@ -5,8 +5,11 @@ import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.commons.lang3.StringUtils;
 import featurecat.lizzie.util.GenericLizzieException;
 import org.apache.commons.lang3.builder.Builder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -14,11 +17,25 @@ import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 public class GtpBasedAnalyzerBuilder implements Builder<AbstractGtpBasedAnalyzer> {
+    private static final Logger logger = LogManager.getLogger(GtpBasedAnalyzerBuilder.class);
+
     public static final String REASON = "REASON";
     public static final String ENGINE_NOT_FUNCTION = "ENGINE_NOT_FUNCTION";
     public static final String ENGINE_NOT_SUPPORTED = "ENGINE_NOT_SUPPORTED";
 
+    /**
+     * The analyzers an engine may need, as detected by the builder
+     */
+    public enum AnalyzerType {
+        OFFICIAL_V2,
+        OFFICIAL_V1,
+        CLASSIC_MODIFIED,
+        PHOENIX
+    }
+
     private GtpClient gtpClient;
+    private EngineCapabilityCache capabilityCache;
+    private String commandLine;
 
     public GtpBasedAnalyzerBuilder setGtpClient(GtpClient gtpClient) {
         this.gtpClient = gtpClient;
@@ -26,6 +43,17 @@ public class GtpBasedAnalyzerBuilder implements Builder<AbstractGtpBasedAnalyzer
         return this;
     }
 
+    /**
+     * Makes the builder reuse the analyzer type detected for the command line on a previous launch, or record the one
+     * it detects
+     */
+    public GtpBasedAnalyzerBuilder setCapabilityCache(EngineCapabilityCache capabilityCache, String commandLine) {
+        this.capabilityCache = capabilityCache;
+        this.commandLine = commandLine;
+
+        return this;
+    }
+
     @Override
     public AbstractGtpBasedAnalyzer build() {
         if (!gtpClient.isRunning()) {
@@ -34,6 +62,8 @@ public class GtpBasedAnalyzerBuilder implements Builder<AbstractGtpBasedAnalyzer
 
         // Check for engine ready
         ListenableFuture<List<String>> future = gtpClient.postCommand("name");
+        // Posted at once, so that it is answered as soon as the engine is ready too
+        ListenableFuture<List<String>> versionFuture = capabilityCache != null ? gtpClient.postCommand("version") : null;
         List<String> nameResponse = null;
         try {
             nameResponse = future.get(60, TimeUnit.SECONDS);
@@ -45,23 +75,72 @@ public class GtpBasedAnalyzerBuilder implements Builder<AbstractGtpBasedAnalyzer
             throw new GenericLizzieException(ImmutableMap.of(REASON, ENGINE_NOT_FUNCTION));
         }
         String name = GtpCommand.getLineWithoutResponseHeader(nameResponse, 0).trim();
+        if (capabilityCache == null) {
+            return createAnalyzer(detectAnalyzerType(name));
+        }
+
+        String version = getEngineVersion(versionFuture);
+        Optional<AnalyzerType> cachedAnalyzerType = capabilityCache.get(commandLine, name, version);
+        if (cachedAnalyzerType.isPresent()) {
+            logger.info("Using the {} analyzer detected before for {} {}.", cachedAnalyzerType.get(), name, version);
+            return createAnalyzer(cachedAnalyzerType.get());
+        }
+
+        AnalyzerType analyzerType = detectAnalyzerType(name);
+        capabilityCache.put(commandLine, name, version, analyzerType);
+        return createAnalyzer(analyzerType);
+    }
+
+    private AnalyzerType detectAnalyzerType(String name) {
         if (name.equals("Leela Zero")) {
             int leelazEngineVersion = getLeelazEngineVersion();
             if (leelazEngineVersion == 2) {
-                return new OfficialLeelazAnalyzerV2(gtpClient);
+                return AnalyzerType.OFFICIAL_V2;
             } else if (leelazEngineVersion == 1) {
-                return new OfficialLeelazAnalyzerV1(gtpClient);
+                return AnalyzerType.OFFICIAL_V1;
             } else {
                 detectCorrectModifiedLeelazEngine();
-                return new ClassicModifiedLeelazAnalyzer(gtpClient);
+                return AnalyzerType.CLASSIC_MODIFIED;
             }
         } else if (name.equals("Leela Zero Phoenix")) {
-            return new PhoenixGoAnalyzer(gtpClient);
+            return AnalyzerType.PHOENIX;
         } else {
             throw new GenericLizzieException(ImmutableMap.of(REASON, ENGINE_NOT_SUPPORTED));
         }
     }
 
+    private AbstractGtpBasedAnalyzer createAnalyzer(AnalyzerType analyzerType) {
+        switch (analyzerType) {
+            case OFFICIAL_V2:
+                return new OfficialLeelazAnalyzerV2(gtpClient);
+            case OFFICIAL_V1:
+                return new OfficialLeelazAnalyzerV1(gtpClient);
+            case CLASSIC_MODIFIED:
+                return new ClassicModifiedLeelazAnalyzer(gtpClient);
+            case PHOENIX:
+                return new PhoenixGoAnalyzer(gtpClient);
+            default:
+                throw new GenericLizzieException(ImmutableMap.of(REASON, ENGINE_NOT_SUPPORTED));
+        }
+    }
+
+    /**
+     * @return the version the engine reports, empty if it does not answer
+     */
+    private static String getEngineVersion(ListenableFuture<List<String>> versionFuture) {
+        List<String> versionResponse = null;
+        try {
+            versionResponse = versionFuture.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException | InterruptedException e) {
+            // Do nothing
+        }
+
+        if (!GtpCommand.isSuccessfulResponse(versionResponse)) {
+            return "";
+        }
+        return GtpCommand.getLineWithoutResponseHeader(versionResponse, 0).trim();
+    }
+
     private int getLeelazEngineVersion() {
         List<String> listCommandsResponse = null;
         ListenableFuture<List<String>> future = gtpClient.postCommand("list_commands");
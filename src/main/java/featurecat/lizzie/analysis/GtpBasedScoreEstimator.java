@@ -3,13 +3,14 @@ package featurecat.lizzie.analysis;
 import featurecat.lizzie.Lizzie;
 import featurecat.lizzie.rules.Board;
 import featurecat.lizzie.rules.BoardHistoryNode;
-import featurecat.lizzie.rules.BoardStateChangeObserver;
 import featurecat.lizzie.rules.GameInfo;
 
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 public abstract class GtpBasedScoreEstimator implements ScoreEstimator {
-    protected BoardStateChangeObserver boardStateChangeObserver;
+    protected BoardStateSynchronizer boardStateChangeObserver;
     protected Consumer<Integer> boardSizeChangeObserver;
     protected GameInfo.GameInfoChangeListener gameInfoChangeListener;
 
@@ -33,8 +34,8 @@ public abstract class GtpBasedScoreEstimator implements ScoreEstimator {
             }
 
             @Override
-            protected void handleGtpCommand(String command) {
-                gtpClient.postCommand(command);
+            protected Future<?> handleGtpCommand(String command) {
+                return gtpClient.postCommand(command);
             }
         };
 
@@ -59,6 +60,14 @@ public abstract class GtpBasedScoreEstimator implements ScoreEstimator {
         Lizzie.gameInfo.registerGameInfoChangeListener(gameInfoChangeListener);
     }
 
+    /**
+     * Sends a command about the current position, once the engine has caught up with the board
+     */
+    protected List<String> sendPositionCommand(String command) {
+        boardStateChangeObserver.synchronizeNow();
+        return gtpClient.sendCommand(command);
+    }
+
     @Override
     public void setKomi(double komi) {
         this.komi = komi;
@@ -16,6 +16,7 @@ public class GtpClientBuilder implements Builder<GtpClient> {
     private List<String> commandLine = null;
     private Map<String, String> environment = null;
     private Path initialCurrentDirectory = null;
+    private boolean pipelined = false;
 
     public GtpClientBuilder setCommandLine(List<String> commandLine) {
         this.commandLine = commandLine;
@@ -42,6 +43,11 @@ public class GtpClientBuilder implements Builder<GtpClient> {
         return this;
     }
 
+    public GtpClientBuilder setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
     @Override
     public GtpClient build() {
         if (CollectionUtils.isEmpty(commandLine)) {
@@ -68,6 +74,7 @@ public class GtpClientBuilder implements Builder<GtpClient> {
         } else {
             gtpClient = new GeneralGtpClient(commandLine);
         }
+        gtpClient.setPipelined(pipelined);
 
         return gtpClient;
     }
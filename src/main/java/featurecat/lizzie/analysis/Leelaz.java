@@ -24,7 +24,8 @@ public class Leelaz implements AutoCloseable {
     private static final Logger logger = LogManager.getLogger(Leelaz.class);
     private static final ResourceBundle resourceBundle = ResourceBundle.getBundle("featurecat.lizzie.i18n.GuiBundle");
 
-    private AbstractGtpBasedAnalyzer analyzer;
+    // Set by the thread starting the engine, which may not be the one using it
+    private volatile AbstractGtpBasedAnalyzer analyzer;
     private boolean normalExit;
     private String commandLine;
     private ImmutableList<BestMoveObserver> registeredBestMoveObservers;
@@ -52,6 +53,10 @@ public class Leelaz implements AutoCloseable {
         this.normalExit = normalExit;
     }
 
+    public String getCommandLine() {
+        return commandLine;
+    }
+
     public AbstractGtpBasedAnalyzer getAnalyzer() {
         return analyzer;
     }
@@ -119,6 +124,7 @@ public class Leelaz implements AutoCloseable {
         // Create gtp client
         GtpClient analyzeGtpClient = new GtpClientBuilder()
                 .setCommandLine(commandLine)
+                .setPipelined(true)
                 .build();
 
         Consumer<Integer> exitListener = this::exitNotification;
@@ -130,11 +136,16 @@ public class Leelaz implements AutoCloseable {
 
             AbstractGtpBasedAnalyzer newAnalyzer = new GtpBasedAnalyzerBuilder()
                     .setGtpClient(analyzeGtpClient)
+                    .setCapabilityCache(Lizzie.engineCapabilityCache, commandLine)
                     .build();
-            newAnalyzer.registerListOfBestMoveObserver(registeredBestMoveObservers);
 
-            // Set only if successful
-            analyzer = newAnalyzer;
+            // Observers may be registered meanwhile, e.g. by windows built while the engine starts
+            synchronized (this) {
+                newAnalyzer.registerListOfBestMoveObserver(registeredBestMoveObservers);
+
+                // Set only if successful
+                analyzer = newAnalyzer;
+            }
         } catch (GenericLizzieException e) {
             String reason = String.valueOf(e.get(GtpBasedAnalyzerBuilder.REASON));
             switch (reason) {
@@ -191,17 +202,19 @@ public class Leelaz implements AutoCloseable {
         setThinking(true);
     }
 
-    public void registerBestMoveObserver(BestMoveObserver observer) {
-        if (analyzer != null) {
-            analyzer.registerBestMoveObserver(observer);
+    public synchronized void registerBestMoveObserver(BestMoveObserver observer) {
+        AbstractGtpBasedAnalyzer currentAnalyzer = analyzer;
+        if (currentAnalyzer != null) {
+            currentAnalyzer.registerBestMoveObserver(observer);
         }
 
         registeredBestMoveObservers = registeredBestMoveObservers.newWith(observer);
     }
 
-    public void unregisterBestMoveObserver(BestMoveObserver observer) {
-        if (analyzer != null) {
-            analyzer.unregisterBestMoveObserver(observer);
+    public synchronized void unregisterBestMoveObserver(BestMoveObserver observer) {
+        AbstractGtpBasedAnalyzer currentAnalyzer = analyzer;
+        if (currentAnalyzer != null) {
+            currentAnalyzer.unregisterBestMoveObserver(observer);
         }
         registeredBestMoveObservers = registeredBestMoveObservers.newWithout(observer);
     }
@@ -218,9 +231,16 @@ public class Leelaz implements AutoCloseable {
         }
     }
 
+    /**
+     * Runs operation, batching the commands it makes the analyzer send. Without an analyzer, e.g. while the engine
+     * starts, operation runs as is, and the analyzer syncs with its outcome once created
+     */
     public void batchGtpCommands(Runnable operation) {
-        if (analyzer != null) {
-            analyzer.batchGtpCommands(operation);
+        AbstractGtpBasedAnalyzer currentAnalyzer = analyzer;
+        if (currentAnalyzer != null) {
+            currentAnalyzer.batchGtpCommands(operation);
+        } else {
+            operation.run();
         }
     }
 
@@ -4,32 +4,123 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import featurecat.lizzie.Lizzie;
 import featurecat.lizzie.rules.Board;
+import org.apache.commons.lang3.StringUtils;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Holds best move data
+ * <p>
+ * Moves are kept encoded as shorts (see {@link #encodeMove(int, int)}), converted once when the engine output is
+ * parsed. The display strings are built on first use and cached.
  */
 public class MoveData {
+    /**
+     * Encoded pass, also used for any coordinate that cannot be decoded
+     */
+    public static final short PASS = -1;
+    private static final int MAX_ENCODED_COORDINATE = 127;
+    private static final short[] NO_VARIATION = new short[0];
+
     private final String coordinate;
+    private final short move;
     private final int playouts;
     private final double winrate;
     private final double probability;
-    private final List<String> variation;
+    private final short[] variation;
+
+    private volatile DisplayStrings displayStrings;
 
     public MoveData(String coordinate, int playouts, double winrate, double probability, List<String> variation) {
+        this(coordinate, encodeMove(coordinate), playouts, winrate, probability, encodeMoves(variation));
+    }
+
+    public MoveData(String coordinate, short move, int playouts, double winrate, double probability, short[] variation) {
         this.coordinate = coordinate;
+        this.move = move;
         this.playouts = playouts;
         this.winrate = winrate;
         this.probability = probability;
-        this.variation = variation;
+        this.variation = variation.length == 0 ? NO_VARIATION : variation;
+        this.displayStrings = null;
+    }
+
+    /**
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return the encoded move, {@link #PASS} if the coordinates cannot be encoded
+     */
+    public static short encodeMove(int x, int y) {
+        if (x < 0 || x > MAX_ENCODED_COORDINATE || y < 0 || y > MAX_ENCODED_COORDINATE) {
+            return PASS;
+        }
+        return (short) (x << 8 | y);
+    }
+
+    /**
+     * @param namedCoordinate a coordinate like C16, or pass
+     * @return the encoded move, following the rules of {@link Board#convertNameToCoordinates(String)}
+     */
+    public static short encodeMove(String namedCoordinate) {
+        if (StringUtils.isEmpty(namedCoordinate) || StringUtils.equalsIgnoreCase(namedCoordinate, "pass")) {
+            return PASS;
+        }
+        int x = Board.alphabet.indexOf(namedCoordinate.charAt(0));
+        if (x < 0) {
+            return PASS;
+        }
+        try {
+            return encodeMove(x, Integer.parseInt(namedCoordinate.substring(1)) - 1);
+        } catch (NumberFormatException e) {
+            return PASS;
+        }
+    }
+
+    private static short[] encodeMoves(List<String> namedCoordinates) {
+        short[] moves = new short[namedCoordinates.size()];
+        for (int i = 0; i < moves.length; ++i) {
+            moves[i] = encodeMove(namedCoordinates.get(i));
+        }
+        return moves;
+    }
+
+    /**
+     * @param move an encoded move
+     * @return the x coordinate, Board.BOARD_SIZE for a pass
+     */
+    public static int getMoveX(short move) {
+        return move == PASS ? Board.BOARD_SIZE : move >> 8;
+    }
+
+    /**
+     * @param move an encoded move
+     * @return the y coordinate, Board.BOARD_SIZE for a pass
+     */
+    public static int getMoveY(short move) {
+        return move == PASS ? Board.BOARD_SIZE : move & 0xFF;
+    }
+
+    /**
+     * @param move an encoded move
+     * @return the coordinates, the same as {@link Board#convertNameToCoordinates(String)} would give
+     */
+    public static int[] decodeMove(short move) {
+        return new int[]{getMoveX(move), getMoveY(move)};
     }
 
     public String getCoordinate() {
         return coordinate;
     }
 
+    public short getMove() {
+        return move;
+    }
+
+    public boolean isPass() {
+        return move == PASS;
+    }
+
     public int getPlayouts() {
         return playouts;
     }
@@ -42,36 +133,62 @@ public class MoveData {
         return probability;
     }
 
-    public List<String> getVariation() {
+    /**
+     * @return the encoded moves of the principal variation. Must not be modified
+     */
+    public short[] getVariation() {
         return variation;
     }
 
     public String getMoveDisplayString() {
-        if (Lizzie.optionSetting.isA1OnTop()) {
-            return coordinate;
-        } else {
-            return flipAxisForMove(coordinate);
-        }
+        return getDisplayStrings().moveDisplayString;
     }
 
     public String getVariationDisplayString() {
-        if (Lizzie.optionSetting.isA1OnTop()) {
-            return String.join(" ", variation);
-        } else {
-            List<String> newVarAxis = variation.stream().map(MoveData::flipAxisForMove).collect(Collectors.toList());
-            return String.join(" ", newVarAxis);
-        }
+        return getDisplayStrings().variationDisplayString;
     }
 
-    private static String flipAxisForMove(String move) {
-        int[] coords = Board.convertNameToCoordinates(move);
-        int x = coords[0], y = coords[1];
+    private DisplayStrings getDisplayStrings() {
+        boolean a1OnTop = Lizzie.optionSetting.isA1OnTop();
+        DisplayStrings strings = displayStrings;
+        if (strings == null || strings.a1OnTop != a1OnTop || strings.boardSize != Board.BOARD_SIZE) {
+            strings = new DisplayStrings(a1OnTop);
+            displayStrings = strings;
+        }
+        return strings;
+    }
 
-        if (Board.isValid(x, y)) {
-            return Board.alphabet.substring(x, x + 1) + (Board.BOARD_SIZE - y);
-        } else {
+    private static String getMoveName(short move, boolean a1OnTop) {
+        int x = getMoveX(move), y = getMoveY(move);
+        if (!Board.isValid(x, y)) {
             return "Pass";
         }
+        return Board.alphabet.charAt(x) + String.valueOf(a1OnTop ? y + 1 : Board.BOARD_SIZE - y);
+    }
+
+    private String getVariationString(boolean a1OnTop) {
+        StringBuilder builder = new StringBuilder(variation.length * 4);
+        for (short variationMove : variation) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(getMoveName(variationMove, a1OnTop));
+        }
+        return builder.toString();
+    }
+
+    private class DisplayStrings {
+        private final boolean a1OnTop;
+        private final int boardSize;
+        private final String moveDisplayString;
+        private final String variationDisplayString;
+
+        DisplayStrings(boolean a1OnTop) {
+            this.a1OnTop = a1OnTop;
+            this.boardSize = Board.BOARD_SIZE;
+            this.moveDisplayString = a1OnTop ? coordinate : getMoveName(move, false);
+            this.variationDisplayString = getVariationString(a1OnTop);
+        }
     }
 
     @Override
@@ -81,7 +198,7 @@ public class MoveData {
                 .add("playouts", playouts)
                 .add("winrate", winrate)
                 .add("probability", probability)
-                .add("variation", variation)
+                .add("variation", getVariationString(true))
                 .toString();
     }
 
@@ -94,11 +211,11 @@ public class MoveData {
                 Double.compare(moveData.winrate, winrate) == 0 &&
                 Double.compare(moveData.probability, probability) == 0 &&
                 Objects.equal(coordinate, moveData.coordinate) &&
-                Objects.equal(variation, moveData.variation);
+                Arrays.equals(variation, moveData.variation);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(coordinate, playouts, winrate, probability, variation);
+        return Objects.hashCode(coordinate, playouts, winrate, probability, Arrays.hashCode(variation));
     }
 }
@@ -13,7 +13,6 @@ import org.parboiled.parserunners.ReportingParseRunner;
 import org.parboiled.support.ParsingResult;
 import featurecat.lizzie.Lizzie;
 import featurecat.lizzie.rules.BoardHistoryNode;
-import featurecat.lizzie.rules.BoardStateChangeObserver;
 import featurecat.lizzie.util.ThreadPoolUtil;
 
 import java.util.Collections;
@@ -21,6 +20,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class OfficialLeelazAnalyzerV1 extends AbstractGtpBasedAnalyzer {
@@ -29,7 +29,7 @@ public class OfficialLeelazAnalyzerV1 extends AbstractGtpBasedAnalyzer {
     private ExecutorService notificationExecutor;
     private MutableMap<String, MoveData> bestMoves;
     private long startPonderTime;
-    private final BoardStateChangeObserver boardSyncObserver;
+    private final BoardStateSynchronizer boardSyncObserver;
 
     public OfficialLeelazAnalyzerV1(GtpClient gtpClient) {
         super(gtpClient, true);
@@ -40,18 +40,23 @@ public class OfficialLeelazAnalyzerV1 extends AbstractGtpBasedAnalyzer {
             @Override
             public void headMoved(BoardHistoryNode oldHead, BoardHistoryNode newHead) {
                 super.headMoved(oldHead, newHead);
-                notificationExecutor.execute(() -> observers.bestMovesUpdated(Collections.emptyList()));
+                observers.bestMovesUpdated(Collections.emptyList());
             }
 
             @Override
             public void boardCleared(BoardHistoryNode initialNode, BoardHistoryNode initialHead) {
                 super.boardCleared(initialNode, initialHead);
-                notificationExecutor.execute(() -> observers.bestMovesUpdated(Collections.emptyList()));
+                observers.bestMovesUpdated(Collections.emptyList());
             }
 
             @Override
-            protected void handleGtpCommand(String command) {
-                OfficialLeelazAnalyzerV1.this.postGtpCommand(command);
+            protected Future<?> handleGtpCommand(String command) {
+                return OfficialLeelazAnalyzerV1.this.postGtpCommand(command);
+            }
+
+            @Override
+            protected void handleGtpCommandBatch(Runnable sending) {
+                OfficialLeelazAnalyzerV1.this.batchGtpCommands(sending);
             }
         };
 
@@ -62,7 +67,8 @@ public class OfficialLeelazAnalyzerV1 extends AbstractGtpBasedAnalyzer {
 
     @Override
     protected void doStartAnalyzing() {
-        gtpClient.postCommand("lz-analyze 20", true, this::processEngineOutputLine).addListener(() -> {
+        long positionHash = boardSyncObserver.getEnginePositionHash();
+        gtpClient.postCommand("lz-analyze 20", true, line -> processEngineOutputLine(positionHash, line)).addListener(() -> {
             bestMoves = Maps.mutable.empty();
         }, notificationExecutor);
 
@@ -95,9 +101,10 @@ public class OfficialLeelazAnalyzerV1 extends AbstractGtpBasedAnalyzer {
     /**
      * Process the lines in leelaz's output. Example: info move D16 visits 7 winrate 4704 pv D16 Q16 D4
      *
-     * @param line an output line
+     * @param positionHash the hash of the position analyzed by the command printing the line
+     * @param line         an output line
      */
-    private void processEngineOutputLine(String line) {
+    private void processEngineOutputLine(long positionHash, String line) {
         if (!StringUtils.startsWith(line, "info")) {
             return;
         }
@@ -115,7 +122,7 @@ public class OfficialLeelazAnalyzerV1 extends AbstractGtpBasedAnalyzer {
         bestMoves.put(moveData.getCoordinate(), moveData);
 
         final List<MoveData> currentBestMoves = bestMoves.toSortedList(Comparator.comparingInt(MoveData::getPlayouts).reversed());
-        notificationExecutor.execute(() -> observers.bestMovesUpdated(currentBestMoves));
+        observers.bestMovesUpdated(positionHash, currentBestMoves);
     }
 
     private static final EngineOutputLineParser parser = Parboiled.createParser(EngineOutputLineParser.class);
@@ -59,7 +59,7 @@ public class ZenScoreEstimator extends GtpBasedScoreEstimator implements Detaile
 
     @Override
     public List<String> estimateInfluencesRaw() {
-        return gtpClient.sendCommand("territory_statistics territory");
+        return sendPositionCommand("territory_statistics territory");
     }
 
     @Override
@@ -68,7 +68,7 @@ public class ZenScoreEstimator extends GtpBasedScoreEstimator implements Detaile
     }
 
     private MutableIntList getScoreStatistics() {
-        List<String> response = gtpClient.sendCommand("score_statistics");
+        List<String> response = sendPositionCommand("score_statistics");
         return GtpCommand.parseResponseIntTable(response);
     }
 
@@ -4,7 +4,6 @@ import com.google.common.collect.ImmutableList;
 import featurecat.lizzie.Lizzie;
 import featurecat.lizzie.analysis.BestMoveObserver;
 import featurecat.lizzie.analysis.MoveData;
-import featurecat.lizzie.rules.Board;
 
 import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
@@ -86,7 +85,7 @@ public class AnalysisTableModel extends AbstractTableModel {
 
         int index = 0;
         for (MoveData data : bestMoves) {
-            if (data.getCoordinate().equals(selectedMove.getCoordinate())) {
+            if (data.getMove() == selectedMove.getMove()) {
                 break;
             } else {
                 ++index;
@@ -100,8 +99,7 @@ public class AnalysisTableModel extends AbstractTableModel {
         MoveData mouseOnMove = null;
         if (mouseCoords != null) {
             for (MoveData data : bestMoves) {
-                int[] coords = Board.convertNameToCoordinates(data.getCoordinate());
-                if (coords[0] == mouseCoords[0] && coords[1] == mouseCoords[1]) {
+                if (MoveData.getMoveX(data.getMove()) == mouseCoords[0] && MoveData.getMoveY(data.getMove()) == mouseCoords[1]) {
                     mouseOnMove = data;
                     break;
                 }
@@ -10,8 +10,8 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AssetsManager {
     private static final AssetsManager assetsManagerSingleton = new AssetsManager();
@@ -20,8 +20,9 @@ public class AssetsManager {
     private Map<FixedSizeList<String>, BufferedImage> imageAssetsFallbackCache;
 
     private AssetsManager() {
-        imageAssetsCache = new HashMap<>();
-        imageAssetsFallbackCache = new HashMap<>();
+        // Filled by the startup too, see preloadBoardAssets()
+        imageAssetsCache = new ConcurrentHashMap<>();
+        imageAssetsFallbackCache = new ConcurrentHashMap<>();
     }
 
     @Contract(pure = true)
@@ -40,7 +41,9 @@ public class AssetsManager {
         if (assetFile.exists()) {
             try {
                 resultAsset = ImageIO.read(assetFile);
-                imageAssetsCache.put(assetPath, resultAsset);
+                if (resultAsset != null) {
+                    imageAssetsCache.put(assetPath, resultAsset);
+                }
                 return resultAsset;
             } catch (IOException e) {
                 exception = e;
@@ -56,7 +59,9 @@ public class AssetsManager {
             }
             try (InputStream inputStream = AssetsManager.class.getResourceAsStream(resoucePath)) {
                 resultAsset = ImageIO.read(inputStream);
-                imageAssetsCache.put(assetPath, resultAsset);
+                if (resultAsset != null) {
+                    imageAssetsCache.put(assetPath, resultAsset);
+                }
                 return resultAsset;
             } catch (IOException e) {
                 exception = e;
@@ -71,6 +76,20 @@ public class AssetsManager {
         return null;
     }
 
+    /**
+     * Loads the images the board is painted with, so that the first paint does not wait for them
+     */
+    public void preloadBoardAssets() {
+        getImageAssetNoExcept("assets/background.jpg");
+        getImageAssetNoExcept("assets/board.png");
+        try {
+            getImageAssetFallThrough("assets/black1.png", "assets/black0.png");
+            getImageAssetFallThrough("assets/white1.png", "assets/white0.png");
+        } catch (IOException e) {
+            // Reported when painting
+        }
+    }
+
     private BufferedImage getImageAssetNoExcept(String assetPath) {
         try {
             return getImageAsset(assetPath);
@@ -6,6 +6,8 @@ import featurecat.lizzie.analysis.MoveData;
 import featurecat.lizzie.rules.*;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 
 import java.awt.*;
 import java.awt.font.TextAttribute;
@@ -15,6 +17,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class BoardRenderer {
@@ -29,7 +32,8 @@ public class BoardRenderer {
     private int boardLength;
 
     private int scaledMargin, availableLength, squareLength, stoneRadius;
-    private AtomicReference<List<MoveData>> bestMovesUpdated = new AtomicReference<>();
+    // The best moves last reported, tagged with the hash of the position they are about
+    private AtomicReference<ImmutablePair<Long, List<MoveData>>> bestMovesUpdated = new AtomicReference<>();
     private MoveData branch = null;
 
     private double[] influences = null;
@@ -41,9 +45,19 @@ public class BoardRenderer {
     private BufferedImage cachedStonesShadowImage = null;
     private AtomicBoolean cachedStonesImageForceRefresh = new AtomicBoolean(false);
     private Zobrist cachedZhash = new Zobrist(); // defaults to an empty board
+    private byte[] cachedStones = null;
+    private int cachedStonesMargin = 0;
 
     private BufferedImage branchStonesImage = null;
     private BufferedImage branchStonesShadowImage = null;
+    private boolean branchStonesVisible = false;
+    private List<Object> cachedBranchKey = null;
+
+    private BufferedImage cachedOverlayImage = null;
+    private int overlayPadding;
+    private List<Object> cachedOverlayKey = null;
+    // Bumped when the options the branch and overlay layers are drawn with change, part of their cache keys
+    private final AtomicInteger settingsRevision = new AtomicInteger();
 
     private BestMoveObserver bestMoveObserver;
     private BoardStateChangeObserver boardStateChangeObserver;
@@ -53,7 +67,17 @@ public class BoardRenderer {
         bestMoveObserver = new BestMoveObserver() {
             @Override
             public void bestMovesUpdated(List<MoveData> newBestMoves) {
-                bestMovesUpdated.set(newBestMoves);
+                // Untagged best moves cannot be told from those of a previous head, they only clear the suggestions
+                bestMovesUpdated.set(null);
+
+                if (Lizzie.frame != null) {
+                    Lizzie.frame.repaint();
+                }
+            }
+
+            @Override
+            public void bestMovesUpdated(long positionHash, List<MoveData> newBestMoves) {
+                bestMovesUpdated.set(ImmutablePair.of(positionHash, newBestMoves));
 
                 if (Lizzie.frame != null) {
                     Lizzie.frame.repaint();
@@ -110,6 +134,10 @@ public class BoardRenderer {
         cachedStonesImageForceRefresh.set(true);
     }
 
+    public void forceCachedOverlayImageRefresh() {
+        settingsRevision.incrementAndGet();
+    }
+
     public void updateInfluences(double[] influences) {
         this.influences = influences;
     }
@@ -123,25 +151,22 @@ public class BoardRenderer {
 
         setupSizeParameters();
 
+        // one frame is drawn from one consistent state of the board, read without its lock
+        BoardSnapshot snapshot = Lizzie.board.getSnapshot();
+
 //        Stopwatch timer = new Stopwatch();
         drawBackground(g);
 //        timer.lap("background");
-        drawStones();
+        drawStones(snapshot);
 //        timer.lap("stones");
-        drawBranch();
+        drawBranch(snapshot);
 //        timer.lap("branch");
 
         renderImages(g);
 //        timer.lap("rendering images");
 
-        drawMoveNumbers(g);
-//        timer.lap("movenumbers");
-        if (!Lizzie.frame.isPlayingAgainstLeelaz)
-            drawLeelazSuggestions(g);
-//        timer.lap("leelaz");
-
-        drawInfluences(g);
-//        timer.lap("influences");
+        drawOverlays(g, snapshot);
+//        timer.lap("overlays");
 
 //        timer.print();
     }
@@ -168,8 +193,7 @@ public class BoardRenderer {
                 cachedBackgroundImage.getHeight() != Lizzie.frame.getHeight() ||
                 cachedBackgroundImageForceRefresh.getAndSet(false)) {
 
-            cachedBackgroundImage = new BufferedImage(Lizzie.frame.getWidth(), Lizzie.frame.getHeight(),
-                    BufferedImage.TYPE_INT_ARGB);
+            cachedBackgroundImage = createLayerImage(Lizzie.frame.getWidth(), Lizzie.frame.getHeight());
             Graphics2D g = cachedBackgroundImage.createGraphics();
 
             // draw the wooden background
@@ -338,45 +362,103 @@ public class BoardRenderer {
     }
 
     /**
-     * Draw the stones. We cache the image for a performance boost.
+     * Draw the stones. We cache the image for a performance boost, and only redraw the points that changed since the
+     * last position.
      */
-    private void drawStones() {
-        // draw a new image if frame size changes or board state changes
+    private void drawStones(BoardSnapshot snapshot) {
+        byte[] stones = snapshot.getPackedStones();
+        boolean fullRedraw = cachedStonesImageForceRefresh.getAndSet(false);
+
+        // allocate new images only if frame size or board size changes
         if (cachedStonesImage == null || cachedStonesImage.getWidth() != boardLength ||
                 cachedStonesImage.getHeight() != boardLength ||
-                !cachedZhash.equals(Lizzie.board.getData().getZobrist()) ||
-                cachedStonesImageForceRefresh.getAndSet(false)) {
+                cachedStones == null || cachedStones.length != stones.length || cachedStonesMargin != scaledMargin) {
+            cachedStonesImage = createLayerImage(boardLength, boardLength);
+            cachedStonesShadowImage = createLayerImage(boardLength, boardLength);
+            cachedStones = new byte[stones.length];
+            cachedStonesMargin = scaledMargin;
+            fullRedraw = true;
+        } else if (!fullRedraw && cachedZhash.equals(snapshot.getZobrist())) {
+            return;
+        }
 
-            cachedStonesImage = new BufferedImage(boardLength, boardLength, BufferedImage.TYPE_INT_ARGB);
-            cachedStonesShadowImage = new BufferedImage(boardLength, boardLength, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = cachedStonesImage.createGraphics();
-            Graphics2D gShadow = cachedStonesShadowImage.createGraphics();
+        IntArrayList changedPoints = new IntArrayList();
+        if (!fullRedraw) {
+            for (int i = 0; i < stones.length; ++i) {
+                if (stones[i] != cachedStones[i]) {
+                    changedPoints.add(i);
+                }
+            }
+            // Redrawing point by point is only worth it for a few points
+            fullRedraw = changedPoints.size() > Board.BOARD_SIZE;
+        }
 
-            // we need antialiasing to make the stones pretty. Java is a bit slow at antialiasing; that's why we want the cache
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            gShadow.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Graphics2D g = cachedStonesImage.createGraphics();
+        Graphics2D gShadow = cachedStonesShadowImage.createGraphics();
+
+        // we need antialiasing to make the stones pretty. Java is a bit slow at antialiasing; that's why we want the cache
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        gShadow.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
+        if (fullRedraw) {
+            Rectangle wholeImage = new Rectangle(0, 0, boardLength, boardLength);
+            clearLayer(g, wholeImage);
+            clearLayer(gShadow, wholeImage);
             for (int i = 0; i < Board.BOARD_SIZE; i++) {
                 for (int j = 0; j < Board.BOARD_SIZE; j++) {
                     int stoneX = scaledMargin + squareLength * i;
                     int stoneY = scaledMargin + squareLength * j;
-                    drawStone(g, gShadow, stoneX, stoneY, Lizzie.board.getStones()[Board.getIndex(i, j)]);
+                    drawStone(g, gShadow, stoneX, stoneY, BoardData.unpackStone(stones[Board.getIndex(i, j)]));
                 }
             }
+        } else {
+            changedPoints.forEach(index -> redrawStonesAround(g, gShadow, index / Board.BOARD_SIZE, index % Board.BOARD_SIZE, stones));
+        }
 
-            cachedZhash = Lizzie.board.getData().getZobrist();
-            g.dispose();
-            gShadow.dispose();
+        System.arraycopy(stones, 0, cachedStones, 0, stones.length);
+        cachedZhash = snapshot.getZobrist();
+        g.dispose();
+        gShadow.dispose();
+    }
+
+    /**
+     * Clears the area a stone at (i, j) and its shadow can cover, and redraws every stone reaching into that area
+     */
+    private void redrawStonesAround(Graphics2D g, Graphics2D gShadow, int i, int j, byte[] stones) {
+        int reach = getStoneReach();
+        Rectangle dirtyArea = new Rectangle(scaledMargin + squareLength * i - reach, scaledMargin + squareLength * j - reach
+                , 2 * reach + 1, 2 * reach + 1);
+        g.setClip(dirtyArea);
+        gShadow.setClip(dirtyArea);
+        clearLayer(g, dirtyArea);
+        clearLayer(gShadow, dirtyArea);
+
+        int reachInPoints = 2 * reach / Math.max(1, squareLength) + 1;
+        for (int a = Math.max(0, i - reachInPoints); a <= Math.min(Board.BOARD_SIZE - 1, i + reachInPoints); a++) {
+            for (int b = Math.max(0, j - reachInPoints); b <= Math.min(Board.BOARD_SIZE - 1, j + reachInPoints); b++) {
+                int stoneX = scaledMargin + squareLength * a;
+                int stoneY = scaledMargin + squareLength * b;
+                drawStone(g, gShadow, stoneX, stoneY, BoardData.unpackStone(stones[Board.getIndex(a, b)]));
+            }
         }
+
+        g.setClip(null);
+        gShadow.setClip(null);
     }
 
     /**
-     * Draw the 'ghost stones' which show a variation Leelaz is thinking about
+     * @return how far from its center a stone and its shadow may draw
      */
-    private void drawBranch() {
-        branchStonesImage = new BufferedImage(boardLength, boardLength, BufferedImage.TYPE_INT_ARGB);
-        branchStonesShadowImage = new BufferedImage(boardLength, boardLength, BufferedImage.TYPE_INT_ARGB);
+    private int getStoneReach() {
+        return stoneRadius + getShadowSize() + getFartherShadowSize() + 2;
+    }
 
+    /**
+     * Draw the 'ghost stones' which show a variation Leelaz is thinking about. They are redrawn only when the
+     * selected variation, the position or the options change.
+     */
+    private void drawBranch(BoardSnapshot snapshot) {
+        branchStonesVisible = false;
         if (Lizzie.frame.isPlayingAgainstLeelaz) {
             return;
         }
@@ -385,19 +467,32 @@ public class BoardRenderer {
         if (branch == null) {
             return;
         }
+        branchStonesVisible = true;
+
+        List<Object> branchKey = Arrays.asList(branch, snapshot.getData(), settingsRevision.get());
+        if (branchStonesImage == null || branchStonesImage.getWidth() != boardLength ||
+                branchStonesImage.getHeight() != boardLength) {
+            branchStonesImage = createLayerImage(boardLength, boardLength);
+            branchStonesShadowImage = createLayerImage(boardLength, boardLength);
+        } else if (branchKey.equals(cachedBranchKey)) {
+            return;
+        }
 
-        Graphics2D g = (Graphics2D) branchStonesImage.getGraphics();
-        Graphics2D gShadow = (Graphics2D) branchStonesShadowImage.getGraphics();
+        Graphics2D g = branchStonesImage.createGraphics();
+        Graphics2D gShadow = branchStonesShadowImage.createGraphics();
+        Rectangle wholeImage = new Rectangle(0, 0, boardLength, boardLength);
+        clearLayer(g, wholeImage);
+        clearLayer(gShadow, wholeImage);
 
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-        Stone color = Lizzie.board.getData().getLastMoveColor();
+        Stone color = snapshot.getLastMoveColor();
         if (color == Stone.EMPTY) {
             color = Stone.WHITE;
         }
 
         int variationCount = 0;
-        for (String variation : branch.getVariation()) {
+        for (short variation : branch.getVariation()) {
             color = color.opposite();
             ++variationCount;
             // limit variation stones
@@ -406,17 +501,18 @@ public class BoardRenderer {
                 break;
             }
 
-            int[] coords = Board.convertNameToCoordinates(variation);
-            if (Board.isValid(coords[0], coords[1])) {
-                int stoneX = scaledMargin + squareLength * coords[0];
-                int stoneY = scaledMargin + squareLength * coords[1];
+            int i = MoveData.getMoveX(variation), j = MoveData.getMoveY(variation);
+            if (Board.isValid(i, j)) {
+                int stoneX = scaledMargin + squareLength * i;
+                int stoneY = scaledMargin + squareLength * j;
 
                 // check if board is empty to prevent overwriting stones if there are under-the-stones situations
-                if (Lizzie.board.getStones()[Board.getIndex(coords[0], coords[1])] == Stone.EMPTY)
+                if (snapshot.getStone(i, j) == Stone.EMPTY)
                     drawVariationStone(g, gShadow, stoneX, stoneY, color.unGhosted());
             }
         }
 
+        cachedBranchKey = branchKey;
         g.dispose();
         gShadow.dispose();
     }
@@ -427,23 +523,82 @@ public class BoardRenderer {
     private void renderImages(Graphics2D g) {
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
         g.drawImage(cachedStonesShadowImage, x, y, null);
-        g.drawImage(branchStonesShadowImage, x, y, null);
+        if (branchStonesVisible) {
+            g.drawImage(branchStonesShadowImage, x, y, null);
+        }
         g.drawImage(cachedStonesImage, x, y, null);
-        g.drawImage(branchStonesImage, x, y, null);
+        if (branchStonesVisible) {
+            g.drawImage(branchStonesImage, x, y, null);
+        }
+    }
+
+    /**
+     * Draw move numbers, Leelaz's suggestions and influences. They share one cached image, redrawn only when one of
+     * their inputs changes.
+     */
+    private void drawOverlays(Graphics2D g0, BoardSnapshot snapshot) {
+        int[] nextMove = snapshot.getNextMove();
+        List<MoveData> bestMoves = getBestMoves(snapshot);
+        List<Object> overlayKey = Arrays.asList(snapshot.getData(), snapshot.getMoveNumber()
+                , branch, bestMoves, influences, Lizzie.frame.isPlayingAgainstLeelaz
+                , snapshot.isInTryPlayState(), snapshot.getTryPlayStateBeginMoveNumber()
+                , Lizzie.gameInfo.getHiddenMoveCount(), nextMove == null ? null : Board.getIndex(nextMove[0], nextMove[1])
+                , settingsRevision.get());
+
+        // suggestions for a pass are drawn next to the board
+        overlayPadding = 2 * squareLength;
+        int overlayLength = boardLength + 2 * overlayPadding;
+        if (cachedOverlayImage == null || cachedOverlayImage.getWidth() != overlayLength ||
+                cachedOverlayImage.getHeight() != overlayLength) {
+            cachedOverlayImage = createLayerImage(overlayLength, overlayLength);
+        } else if (overlayKey.equals(cachedOverlayKey)) {
+            g0.drawImage(cachedOverlayImage, x - overlayPadding, y - overlayPadding, null);
+            return;
+        }
+
+        Graphics2D g = cachedOverlayImage.createGraphics();
+        clearLayer(g, new Rectangle(0, 0, overlayLength, overlayLength));
+        // the overlays are drawn in frame coordinates
+        g.translate(overlayPadding - x, overlayPadding - y);
+
+        drawMoveNumbers(g, snapshot);
+        if (!Lizzie.frame.isPlayingAgainstLeelaz)
+            drawLeelazSuggestions(g, snapshot, bestMoves);
+        drawInfluences(g);
+
+        cachedOverlayKey = overlayKey;
+        g.dispose();
+        g0.drawImage(cachedOverlayImage, x - overlayPadding, y - overlayPadding, null);
+    }
+
+    private static BufferedImage createLayerImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        // compatible images can be kept in video memory while they are not modified
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+
+    private static void clearLayer(Graphics2D g, Rectangle area) {
+        Composite oldComposite = g.getComposite();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(area.x, area.y, area.width, area.height);
+        g.setComposite(oldComposite);
     }
 
     /**
      * Draw move numbers and/or mark the last played move
      */
-    private void drawMoveNumbers(Graphics2D g) {
+    private void drawMoveNumbers(Graphics2D g, BoardSnapshot snapshot) {
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-        int[] lastMove = Lizzie.board.getLastMove();
-        int lastMoveNumber = Lizzie.board.getData().getMoveNumber();
+        int[] lastMove = snapshot.getLastMove();
+        int lastMoveNumber = snapshot.getMoveNumber();
 
         // mark last coordinate with a small circle
-        if (!Lizzie.board.isInTryPlayState() && (!Lizzie.optionSetting.isShowMoveNumber() || branch != null)
-                || Lizzie.board.isInTryPlayState() && lastMoveNumber <= Lizzie.board.getTryPlayStateBeginMoveNumber()) {
+        if (!snapshot.isInTryPlayState() && (!Lizzie.optionSetting.isShowMoveNumber() || branch != null)
+                || snapshot.isInTryPlayState() && lastMoveNumber <= snapshot.getTryPlayStateBeginMoveNumber()) {
             if (lastMove != null) {
                 // mark the last coordinate
                 int lastMoveMarkerRadius = stoneRadius / 2;
@@ -451,25 +606,24 @@ public class BoardRenderer {
                 int stoneY = y + scaledMargin + squareLength * lastMove[1];
 
                 // set color to the opposite color of whatever is on the board
-                g.setColor(Lizzie.board.getStones()[Board.getIndex(lastMove[0], lastMove[1])].isWhite() ?
+                g.setColor(snapshot.getStone(lastMove[0], lastMove[1]).isWhite() ?
                         Color.BLACK : Color.WHITE);
                 drawCircle(g, stoneX, stoneY, lastMoveMarkerRadius);
             } else if (lastMoveNumber != 0) {
                 // mark pass
-                g.setColor(Lizzie.board.getData().isBlackToPlay() ? new Color(255, 255, 255, 150) : new Color(0, 0, 0, 150));
+                g.setColor(snapshot.isBlackToPlay() ? new Color(255, 255, 255, 150) : new Color(0, 0, 0, 150));
                 g.fillOval(x + boardLength / 2 - 4 * stoneRadius, y + boardLength / 2 - 4 * stoneRadius, stoneRadius * 8, stoneRadius * 8);
-                g.setColor(Lizzie.board.getData().isBlackToPlay() ? new Color(0, 0, 0, 255) : new Color(255, 255, 255, 255));
+                g.setColor(snapshot.isBlackToPlay() ? new Color(0, 0, 0, 255) : new Color(255, 255, 255, 255));
                 drawString(g, x + boardLength / 2, y + boardLength / 2, "Open Sans", "pass", stoneRadius * 4, stoneRadius * 6);
             }
         }
 
-        if (!Lizzie.board.isInTryPlayState() && Lizzie.optionSetting.isShowMoveNumber() && branch == null
-                || Lizzie.board.isInTryPlayState()) { // at this time, isShowMoveNumber is true, or is in try play state
+        if (!snapshot.isInTryPlayState() && Lizzie.optionSetting.isShowMoveNumber() && branch == null
+                || snapshot.isInTryPlayState()) { // at this time, isShowMoveNumber is true, or is in try play state
             // draw existing stones
-            int[] moveNumberList = Lizzie.board.getMoveNumberList();
             int moveNumberBaseFix = Lizzie.gameInfo.getHiddenMoveCount();
-            if (Lizzie.board.isInTryPlayState()) {
-                moveNumberBaseFix = Lizzie.board.getTryPlayStateBeginMoveNumber();
+            if (snapshot.isInTryPlayState()) {
+                moveNumberBaseFix = snapshot.getTryPlayStateBeginMoveNumber();
             }
 
             for (int i = 0; i < Board.BOARD_SIZE; i++) {
@@ -477,20 +631,20 @@ public class BoardRenderer {
                     int stoneX = x + scaledMargin + squareLength * i;
                     int stoneY = y + scaledMargin + squareLength * j;
 
-                    int index = Board.getIndex(i, j);
-                    if (lastMoveNumber - moveNumberList[index] >= Lizzie.optionSetting.getNumberOfLastMovesShown()) {
+                    int moveNumberAtThisPoint = snapshot.getMoveNumberOnBoard(i, j);
+                    if (lastMoveNumber - moveNumberAtThisPoint >= Lizzie.optionSetting.getNumberOfLastMovesShown()) {
                         continue;
                     }
 
-                    Stone stoneAtThisPoint = Lizzie.board.getStones()[index];
+                    Stone stoneAtThisPoint = snapshot.getStone(i, j);
                     // don't write the move number if either: the move number is 0, or there will already be playout information written
-                    if (moveNumberList[index] - moveNumberBaseFix > 0) {
+                    if (moveNumberAtThisPoint - moveNumberBaseFix > 0) {
                         if (lastMove != null && i == lastMove[0] && j == lastMove[1])
                             g.setColor(Color.RED.brighter());//stoneAtThisPoint.isBlack() ? Color.RED.brighter() : Color.BLUE.brighter());
                         else
                             g.setColor(stoneAtThisPoint.isBlack() ? Color.WHITE : Color.BLACK);
 
-                        String moveNumberString = String.valueOf(moveNumberList[index] - moveNumberBaseFix);
+                        String moveNumberString = String.valueOf(moveNumberAtThisPoint - moveNumberBaseFix);
                         drawString(g, stoneX, stoneY, "Open Sans", moveNumberString, (float) (stoneRadius * 1.4), (int) (stoneRadius * 1.4));
                     }
                 }
@@ -498,35 +652,35 @@ public class BoardRenderer {
 
             // draw pass with number
             if (lastMove == null && lastMoveNumber != 0 && lastMoveNumber - moveNumberBaseFix >= 0) {
-                g.setColor(Lizzie.board.getData().isBlackToPlay() ? new Color(255, 255, 255, 150) : new Color(0, 0, 0, 150));
+                g.setColor(snapshot.isBlackToPlay() ? new Color(255, 255, 255, 150) : new Color(0, 0, 0, 150));
                 g.fillOval(x + boardLength / 2 - 4 * stoneRadius, y + boardLength / 2 - 4 * stoneRadius, stoneRadius * 8, stoneRadius * 8);
                 g.setColor(Color.RED);
                 drawString(g, x + boardLength / 2, y + boardLength / 2, "Open Sans", Font.PLAIN, String.valueOf(lastMoveNumber - moveNumberBaseFix), stoneRadius * 4, stoneRadius * 6, 1);
-                g.setColor(Lizzie.board.getData().isBlackToPlay() ? new Color(0, 0, 0, 255) : new Color(255, 255, 255, 255));
+                g.setColor(snapshot.isBlackToPlay() ? new Color(0, 0, 0, 255) : new Color(255, 255, 255, 255));
                 drawString(g, x + boardLength / 2, y + boardLength / 2 + stoneRadius, "Open Sans", "pass", stoneRadius * 4, stoneRadius * 6);
             }
         }
 
         if (branch != null) {
             int variationBase = 0;
-            if (Lizzie.board.isInTryPlayState()) {
-                variationBase = lastMoveNumber - Lizzie.board.getTryPlayStateBeginMoveNumber();
+            if (snapshot.isInTryPlayState()) {
+                variationBase = lastMoveNumber - snapshot.getTryPlayStateBeginMoveNumber();
                 if (variationBase < 0) {
                     variationBase = 0;
                 }
             }
             // draw branch number
             int nextVariationNumber = 0;
-            if (Lizzie.board.isInTryPlayState()) {
+            if (snapshot.isInTryPlayState()) {
                 // try play state: show successive move number
                 nextVariationNumber = variationBase;
             }
 
-            Stone nextStone = Lizzie.board.getData().getLastMoveColor();
+            Stone nextStone = snapshot.getLastMoveColor();
             if (nextStone == Stone.EMPTY) {
                 nextStone = Stone.WHITE;
             }
-            for (String move : branch.getVariation()) {
+            for (short move : branch.getVariation()) {
                 ++nextVariationNumber;
 
                 // Flip stone
@@ -543,8 +697,7 @@ public class BoardRenderer {
                     break;
                 }
 
-                int[] coords = Board.convertNameToCoordinates(move);
-                int i = coords[0], j = coords[1];
+                int i = MoveData.getMoveX(move), j = MoveData.getMoveY(move);
                 if (Board.isValid(i, j)) {
                     int stoneX = x + scaledMargin + squareLength * i;
                     int stoneY = y + scaledMargin + squareLength * j;
@@ -564,13 +717,23 @@ public class BoardRenderer {
     private final double HUE_SCALING_FACTOR = 3.0;
     private final double ALPHA_SCALING_FACTOR = 5.0;
 
+    /**
+     * @return the best moves last reported if they are about the head of the snapshot, null otherwise
+     */
+    private List<MoveData> getBestMoves(BoardSnapshot snapshot) {
+        ImmutablePair<Long, List<MoveData>> taggedBestMoves = bestMovesUpdated.get();
+        if (taggedBestMoves == null || taggedBestMoves.getLeft() != snapshot.getData().getPositionHash()) {
+            return null;
+        }
+        return taggedBestMoves.getRight();
+    }
+
     /**
      * Draw all of Leelaz's suggestions as colored stones with winrate/playout statistics overlayed
      */
-    private void drawLeelazSuggestions(Graphics2D g) {
-        List<MoveData> bestMoves = bestMovesUpdated.get();
-        if ((Lizzie.board.getData().isBlackToPlay() && Lizzie.optionSetting.isShowBlackSuggestion()
-                || !Lizzie.board.getData().isBlackToPlay() && Lizzie.optionSetting.isShowWhiteSuggestion()) && CollectionUtils.isNotEmpty(bestMoves)) {
+    private void drawLeelazSuggestions(Graphics2D g, BoardSnapshot snapshot, List<MoveData> bestMoves) {
+        if ((snapshot.isBlackToPlay() && Lizzie.optionSetting.isShowBlackSuggestion()
+                || !snapshot.isBlackToPlay() && Lizzie.optionSetting.isShowWhiteSuggestion()) && CollectionUtils.isNotEmpty(bestMoves)) {
             int maxPlayouts = bestMoves.stream().max(Comparator.comparingInt(MoveData::getPlayouts)).get().getPlayouts();
             for (MoveData move : bestMoves) {
                 boolean isBestMove = bestMoves.get(0) == move;
@@ -579,9 +742,8 @@ public class BoardRenderer {
 
                 double percentPlayouts = (double) move.getPlayouts() / maxPlayouts;
 
-                int[] coordinates = Board.convertNameToCoordinates(move.getCoordinate());
-                int suggestionX = x + scaledMargin + squareLength * coordinates[0];
-                int suggestionY = y + scaledMargin + squareLength * coordinates[1];
+                int suggestionX = x + scaledMargin + squareLength * MoveData.getMoveX(move.getMove());
+                int suggestionY = y + scaledMargin + squareLength * MoveData.getMoveY(move.getMove());
 
                 // -0.32 = Greenest hue, 0 = Reddest hue
                 float hue = (float) (-0.32 * Math.max(0, Math.log(percentPlayouts) / HUE_SCALING_FACTOR + 1));
@@ -601,8 +763,8 @@ public class BoardRenderer {
                     fillCircle(g, suggestionX, suggestionY, stoneRadius);
                 }
 
-                if (branch == null || isBestMove && !branch.getCoordinate().equalsIgnoreCase("Pass")
-                        && Arrays.equals(Board.convertNameToCoordinates(branch.getCoordinate()), coordinates)) {
+                if (branch == null || isBestMove && !branch.isPass()
+                        && branch.getMove() == move.getMove()) {
                     // highlight LeelaZero's top recommended move
                     int strokeWidth = 1;
                     if (isBestMove) { // this is the best move
@@ -617,17 +779,17 @@ public class BoardRenderer {
                 }
 
 
-                if (branch == null && alpha >= MIN_ALPHA_TO_DISPLAY_TEXT || branch != null && !branch.getCoordinate().equalsIgnoreCase("Pass")
-                        && Arrays.equals(Board.convertNameToCoordinates(branch.getCoordinate()), coordinates)) {
+                if (branch == null && alpha >= MIN_ALPHA_TO_DISPLAY_TEXT || branch != null && !branch.isPass()
+                        && branch.getMove() == move.getMove()) {
                     double roundedWinrate = Math.round(move.getWinrate() * 10) / 10.0;
 
                     if (Lizzie.optionSetting.isAlwaysShowBlackWinrate()) {
-                        if (!Lizzie.board.getData().isBlackToPlay()) {
+                        if (!snapshot.isBlackToPlay()) {
                             roundedWinrate = 100.0 - roundedWinrate;
                         }
                         g.setColor(Color.BLACK);
                     } else if (Lizzie.optionSetting.isShowWhiteWinrateWithWhiteFonts()) {
-                        if (Lizzie.board.getData().isBlackToPlay()) {
+                        if (snapshot.isBlackToPlay()) {
                             g.setColor(Color.BLACK);
                         } else {
                             g.setColor(Color.WHITE);
@@ -637,7 +799,7 @@ public class BoardRenderer {
                     }
 
                     if (branch != null) {
-                        if (Lizzie.board.getData().isBlackToPlay()) {
+                        if (snapshot.isBlackToPlay()) {
                             g.setColor(Color.WHITE);
                         } else {
                             g.setColor(Color.BLACK);
@@ -649,9 +811,9 @@ public class BoardRenderer {
                 }
             }
 
-            int[] nextMove = Lizzie.board.getNextMoveCoordinate();
+            int[] nextMove = snapshot.getNextMove();
             if (Lizzie.optionSetting.isShowNextMove() && nextMove != null) {
-                if (Lizzie.board.getData().isBlackToPlay()) {
+                if (snapshot.isBlackToPlay()) {
                     g.setColor(Color.BLACK);
                 } else {
                     g.setColor(Color.WHITE);
@@ -755,8 +917,8 @@ public class BoardRenderer {
         if (!Lizzie.optionSetting.isShowShadow())
             return;
 
-        final int shadowSize = (int) (stoneRadius * 0.3 * Lizzie.optionSetting.getShadowSize() / 100);
-        final int fartherShadowSize = (int) (stoneRadius * 0.17 * Lizzie.optionSetting.getShadowSize() / 100);
+        final int shadowSize = getShadowSize();
+        final int fartherShadowSize = getFartherShadowSize();
 
 
         final Paint TOP_GRADIENT_PAINT;
@@ -794,6 +956,14 @@ public class BoardRenderer {
         g.setPaint(originalPaint);
     }
 
+    private int getShadowSize() {
+        return (int) (stoneRadius * 0.3 * Lizzie.optionSetting.getShadowSize() / 100);
+    }
+
+    private int getFartherShadowSize() {
+        return (int) (stoneRadius * 0.17 * Lizzie.optionSetting.getShadowSize() / 100);
+    }
+
     /**
      * Draws a stone centered at (centerX, centerY)
      */
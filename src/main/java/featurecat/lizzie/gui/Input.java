@@ -147,6 +147,7 @@ public class Input implements MouseListener, KeyListener, MouseWheelListener, Mo
             } else {
                 Lizzie.optionSetting.setShowWhiteSuggestion(!Lizzie.optionSetting.isShowWhiteSuggestion());
             }
+            Lizzie.frame.getBoardRenderer().forceCachedOverlayImageRefresh();
         } else if (e.getKeyCode() == KeyEvent.VK_E) {
             Lizzie.optionSetting.setGtpConsoleWindowShow(!Lizzie.optionSetting.isGtpConsoleWindowShow());
             Lizzie.gtpConsole.setVisible(Lizzie.optionSetting.isGtpConsoleWindowShow());
@@ -53,8 +53,10 @@ public class LizzieFrame extends JFrame {
     public static final String LIZZIE_TITLE = String.format("MyLizzie %s", StringUtils.defaultString(Lizzie.getLizzieVersion(), "dev-edition"));
     public static final String LIZZIE_TRY_PLAY_TITLE = resourceBundle.getString("LizzieFrame.title.tryPlayingMode");
 
-    static {
-        // load fonts
+    /**
+     * Registers the fonts the board is drawn with. Text drawn before falls back to another font
+     */
+    public static void registerFonts() {
         try {
             GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
             ge.registerFont(Font.createFont(Font.TRUETYPE_FONT, LizzieFrame.class.getResourceAsStream("/fonts/OpenSans-Regular.ttf")));
@@ -288,6 +290,7 @@ public class LizzieFrame extends JFrame {
     // Toggle show/hide move number
     public void toggleShowMoveNumber() {
         Lizzie.optionSetting.setShowMoveNumber(!Lizzie.optionSetting.isShowMoveNumber());
+        boardRenderer.forceCachedOverlayImageRefresh();
     }
 
     public void setEngineProfile(String engineProfile) {
@@ -306,7 +309,10 @@ public class LizzieFrame extends JFrame {
         // initialize
         final int width = mainPanel.getWidth();
         final int height = mainPanel.getHeight();
-        cachedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        // the background below covers the whole image, so it can be reused as long as the size does not change
+        if (cachedImage == null || cachedImage.getWidth() != width || cachedImage.getHeight() != height) {
+            cachedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
         Graphics2D g = (Graphics2D) cachedImage.getGraphics();
 
         int topInset = mainPanel.getInsets().top;
@@ -286,6 +286,7 @@ public class OptionDialog extends JDialog {
         Lizzie.frame.setAlwaysOnTop(Lizzie.optionSetting.isMainWindowAlwaysOnTop());
         Lizzie.frame.getBoardRenderer().forceCachedBackgroundImageRefresh();
         Lizzie.frame.getBoardRenderer().forceCachedStoneImageRefresh();
+        Lizzie.frame.getBoardRenderer().forceCachedOverlayImageRefresh();
 
         if (Board.BOARD_SIZE != Lizzie.optionSetting.getBoardSize().getWidth()) {
             Board.changeBoardSize(Lizzie.optionSetting.getBoardSize().getWidth());
@@ -403,6 +403,9 @@ public class OptionSetting {
     private ColorSetting bestSuggestionColor;
     private boolean alwaysShowBlackWinrate;
     private boolean showWhiteWinrateWithWhiteFonts;
+    private int historyKeyframeInterval;
+    private int bestMoveUpdateInterval;
+    private int analysisCacheSize;
 
     private WindowState mainWindowState;
     private WindowState analysisWindowState;
@@ -444,6 +447,9 @@ public class OptionSetting {
         bestSuggestionColor = new ColorSetting(Color.RED);
         alwaysShowBlackWinrate = false;
         showWhiteWinrateWithWhiteFonts = false;
+        historyKeyframeInterval = 16;
+        bestMoveUpdateInterval = 50;
+        analysisCacheSize = 64;
 
         // on 1080p windows screens, this is a good width/height
         mainWindowState = new WindowState(false, false, false, 100, 100, 657, 687);
@@ -688,6 +694,41 @@ public class OptionSetting {
         this.showWhiteWinrateWithWhiteFonts = showWhiteWinrateWithWhiteFonts;
     }
 
+    /**
+     * @return every how many moves the board history stores a full position, the positions in between only store
+     * their move and captures. 1 or less stores every position fully.
+     */
+    public int getHistoryKeyframeInterval() {
+        return historyKeyframeInterval;
+    }
+
+    public void setHistoryKeyframeInterval(int historyKeyframeInterval) {
+        this.historyKeyframeInterval = historyKeyframeInterval;
+    }
+
+    /**
+     * @return the minimum time in milliseconds between two best move updates delivered to the same observer. The
+     * updates arriving in between are merged, only the latest one is delivered.
+     */
+    public int getBestMoveUpdateInterval() {
+        return bestMoveUpdateInterval;
+    }
+
+    public void setBestMoveUpdateInterval(int bestMoveUpdateInterval) {
+        this.bestMoveUpdateInterval = bestMoveUpdateInterval;
+    }
+
+    /**
+     * @return the maximum size in megabytes of the analysis cache file, 0 to disable the cache
+     */
+    public int getAnalysisCacheSize() {
+        return analysisCacheSize;
+    }
+
+    public void setAnalysisCacheSize(int analysisCacheSize) {
+        this.analysisCacheSize = analysisCacheSize;
+    }
+
     public WindowState getMainWindowState() {
         return mainWindowState;
     }
@@ -790,6 +831,9 @@ public class OptionSetting {
                 .append(autoStartAnalyzingAfterPlacingMoves, that.autoStartAnalyzingAfterPlacingMoves)
                 .append(alwaysShowBlackWinrate, that.alwaysShowBlackWinrate)
                 .append(showWhiteWinrateWithWhiteFonts, that.showWhiteWinrateWithWhiteFonts)
+                .append(historyKeyframeInterval, that.historyKeyframeInterval)
+                .append(bestMoveUpdateInterval, that.bestMoveUpdateInterval)
+                .append(analysisCacheSize, that.analysisCacheSize)
                 .append(winrateHistogramWindowShow, that.winrateHistogramWindowShow)
                 .append(boardSize, that.boardSize)
                 .append(boardColor, that.boardColor)
@@ -837,6 +881,9 @@ public class OptionSetting {
                 .append(bestSuggestionColor)
                 .append(alwaysShowBlackWinrate)
                 .append(showWhiteWinrateWithWhiteFonts)
+                .append(historyKeyframeInterval)
+                .append(bestMoveUpdateInterval)
+                .append(analysisCacheSize)
                 .append(mainWindowState)
                 .append(analysisWindowState)
                 .append(winrateHistogramWindowState)
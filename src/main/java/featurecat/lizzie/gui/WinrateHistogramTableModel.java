@@ -1,10 +1,7 @@
 package featurecat.lizzie.gui;
 
-import org.apache.commons.collections4.CollectionUtils;
 import org.jetbrains.annotations.NotNull;
 import featurecat.lizzie.Lizzie;
-import featurecat.lizzie.analysis.BestMoveObserver;
-import featurecat.lizzie.analysis.MoveData;
 import featurecat.lizzie.rules.Board;
 import featurecat.lizzie.rules.BoardData;
 import featurecat.lizzie.rules.BoardHistoryNode;
@@ -14,7 +11,6 @@ import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -80,23 +76,17 @@ public class WinrateHistogramTableModel extends AbstractTableModel {
                     Lizzie.miscExecutor.execute(() -> refreshObserver.accept(WinrateHistogramTableModel.this));
                 }
             }
-        });
 
-        Lizzie.leelaz.registerBestMoveObserver(new BestMoveObserver() {
             @Override
-            public void bestMovesUpdated(List<MoveData> newBestMoves) {
-                int currentMoveNumber = Lizzie.board.getData().getMoveNumber();
-                if (currentMoveNumber < histogramEntryList.size() && CollectionUtils.isNotEmpty(newBestMoves)) {
-                    MoveData moveData = newBestMoves.get(0);
-                    WinrateHistogramEntry histogramEntry = histogramEntryList.get(currentMoveNumber);
-                    if (Objects.equals(histogramEntry.getColor(), WinrateHistogramEntry.COLOR_BLACK)) {
-                        histogramEntry.setWhiteWinrate(moveData.getWinrate());
-                    } else {
-                        histogramEntry.setBlackWinrate(moveData.getWinrate());
-                    }
-
-                    if (currentMoveNumber > 0) {
-                        histogramEntry.setBlackWindiff(histogramEntry.getBlackWinrate() - histogramEntryList.get(currentMoveNumber - 1).getBlackWinrate());
+            public void variationsUpdated(BoardHistoryNode node) {
+                // Only analysis accepted by the board for its head, so late lines about a previous head are left out
+                BoardData data = node.getData();
+                int moveNumber = data.getMoveNumber();
+                if (moveNumber < histogramEntryList.size()) {
+                    WinrateHistogramEntry histogramEntry = histogramEntryList.get(moveNumber);
+                    histogramEntry.setBlackWinrate(data.getBlackWinrate());
+                    if (moveNumber > 0) {
+                        histogramEntry.setBlackWindiff(histogramEntry.getBlackWinrate() - histogramEntryList.get(moveNumber - 1).getBlackWinrate());
                     }
 
                     rebuildFilteredHistogramData();
@@ -106,10 +96,6 @@ public class WinrateHistogramTableModel extends AbstractTableModel {
                     }
                 }
             }
-
-            @Override
-            public void engineRestarted() {
-            }
         });
     }
 
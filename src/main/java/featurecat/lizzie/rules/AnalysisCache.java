@@ -0,0 +1,536 @@
+package featurecat.lizzie.rules;
+
+import com.google.common.hash.Hashing;
+import featurecat.lizzie.util.ThreadPoolUtil;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of the analysis of positions, shared by all sessions.
+ * <p>
+ * The variations of a position are keyed by its {@link BoardData#getPositionHash() hash}, which covers the stones, the
+ * side to move and the ko point, by the board size, by the komi and by the engine command line, so they are found
+ * again whatever the moves leading to the position. When the head moves to a position cached with more playouts than
+ * it shows, the cached variations are shown at once, through the same notifications as the engine analysis, and kept
+ * until the engine reports more playouts itself (see {@link Board#tryUpdateVariations(BoardHistoryNode, List)}).
+ * <p>
+ * The entries are kept in memory as their encoded records, in least recently used order, up to the size limit. The
+ * changed ones are appended to the cache file by a background thread. Once the file grows past twice the size limit,
+ * it is merged with the memory and rewritten with the most recently used entries only. Every session takes a lock
+ * file around its writes, and every record carries a checksum, so a record cut by a crash is dropped.
+ * <p>
+ * The file is a magic number and a version, followed by the records:
+ * <pre>
+ * int    payload length
+ * int    CRC32 of the payload
+ * long   position hash       (payload begin)
+ * long   engine hash
+ * float  komi
+ * byte   board size
+ * byte   variation count, then for each variation:
+ * int      playouts
+ * float    winrate
+ * byte     move count, then the moves as shorts
+ * </pre>
+ */
+public class AnalysisCache implements BoardStateChangeObserver, Closeable {
+    private static final Logger logger = LogManager.getLogger(AnalysisCache.class);
+
+    private static final int MAGIC = 0x4c5a4143;
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_VARIATION_COUNT = 10;
+    private static final int MAX_VARIATION_LENGTH = 30;
+    private static final int MAX_PAYLOAD_SIZE = 22 + MAX_VARIATION_COUNT * (9 + 2 * MAX_VARIATION_LENGTH);
+    private static final int VARIATIONS_OFFSET = 21;
+    private static final long FLUSH_INTERVAL_MILLIS = 10 * 1000;
+
+    private final Board board;
+    private final GameInfo gameInfo;
+    private final Supplier<String> engineCommandLine;
+    private final Path cacheFile;
+    private final Path lockFile;
+    private final long maxSize;
+    private final ScheduledExecutorService cacheExecutor;
+
+    // Guarded by this. The entries in least recently used order, their total record size, and the changed ones
+    private LinkedHashMap<Key, Entry> entries;
+    private long size;
+    private LinkedHashMap<Key, Entry> pendingEntries;
+
+    // Guarded by this. The hash of the last engine command line seen
+    private String hashedCommandLine;
+    private long engineHash;
+
+    /**
+     * Starts caching the analysis of the board. The cache file is read in the background
+     *
+     * @param board             the board whose analysis is cached
+     * @param gameInfo          the game info, whose komi is part of the key
+     * @param engineCommandLine supplies the command line of the engine analyzing, part of the key
+     * @param cacheFile         the cache file, may be shared with other sessions
+     * @param maxSize           the maximum size of the cache in bytes
+     */
+    public AnalysisCache(Board board, GameInfo gameInfo, Supplier<String> engineCommandLine, Path cacheFile, long maxSize) {
+        this.board = board;
+        this.gameInfo = gameInfo;
+        this.engineCommandLine = engineCommandLine;
+        this.cacheFile = cacheFile;
+        this.lockFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".lock");
+        this.maxSize = maxSize;
+        this.cacheExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.pendingEntries = new LinkedHashMap<>();
+
+        board.registerBoardStateChangeObserver(this);
+
+        cacheExecutor.execute(this::load);
+        cacheExecutor.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void mainStreamAppended(BoardHistoryNode newNodeBegin, BoardHistoryNode head) {
+    }
+
+    @Override
+    public void mainStreamCut(BoardHistoryNode nodeBeforeCutPoint, BoardHistoryNode head) {
+    }
+
+    @Override
+    public void headMoved(BoardHistoryNode oldHead, BoardHistoryNode newHead) {
+        applyCachedVariations(newHead);
+    }
+
+    @Override
+    public void boardCleared(BoardHistoryNode initialNode, BoardHistoryNode initialHead) {
+        applyCachedVariations(initialHead);
+    }
+
+    @Override
+    public void historyReplaced(BoardHistoryNode initialNode, BoardHistoryNode head) {
+        // The whole main stream, so that a loaded game shows its known winrates at once
+        applyCachedMainStreamVariations(initialNode);
+    }
+
+    @Override
+    public void variationsUpdated(BoardHistoryNode node) {
+        BoardData data = node.getData();
+        if (CollectionUtils.isEmpty(data.getVariationDataList())) {
+            return;
+        }
+
+        Key key = getKey(data);
+        Entry entry = new Entry(key, data.getVariationDataList());
+        synchronized (this) {
+            Entry existingEntry = entries.get(key);
+            if (existingEntry == null || existingEntry.calculationCount < entry.calculationCount) {
+                putEntry(entry);
+                pendingEntries.put(key, entry);
+                evictEntries();
+            }
+        }
+    }
+
+    private void applyCachedMainStreamVariations(BoardHistoryNode initialNode) {
+        for (BoardHistoryNode node = initialNode; node != null; node = node.getNext()) {
+            applyCachedVariations(node);
+        }
+    }
+
+    private void applyCachedVariations(BoardHistoryNode node) {
+        BoardData data = node.getData();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(getKey(data));
+        }
+
+        if (entry != null) {
+            board.tryUpdateVariations(node, entry.decodeVariations());
+        }
+    }
+
+    private synchronized Key getKey(BoardData data) {
+        String commandLine = Objects.toString(engineCommandLine.get(), "");
+        if (!commandLine.equals(hashedCommandLine)) {
+            hashedCommandLine = commandLine;
+            engineHash = Hashing.murmur3_128().hashString(commandLine, StandardCharsets.UTF_8).asLong();
+        }
+        return new Key(data.getPositionHash(), engineHash, (float) gameInfo.getKomi(), Board.BOARD_SIZE);
+    }
+
+    private synchronized void putEntry(Entry entry) {
+        Entry replacedEntry = entries.put(entry.key, entry);
+        if (replacedEntry != null) {
+            size -= replacedEntry.getRecordSize();
+        }
+        size += entry.getRecordSize();
+    }
+
+    private synchronized void evictEntries() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            pendingEntries.remove(entry.key);
+            size -= entry.getRecordSize();
+        }
+    }
+
+    /**
+     * Merges the entries in the cache file into the memory. Runs on the cache executor
+     */
+    private void load() {
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+            try {
+                loadLocked();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            logger.error("Cannot read the analysis cache.", e);
+        }
+
+        synchronized (board) {
+            applyCachedMainStreamVariations(board.getHistory().getInitialNode());
+        }
+    }
+
+    private void loadLocked() throws IOException {
+        if (!Files.exists(cacheFile)) {
+            return;
+        }
+
+        long validSize;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            LinkedHashMap<Key, Entry> fileEntries = new LinkedHashMap<>();
+            validSize = readEntries(channel, fileEntries);
+            if (validSize < 0) {
+                logger.warn("The analysis cache file is not recognized, it will be overwritten.");
+            } else if (validSize < channel.size()) {
+                // A record cut by a crash, further records would be lost behind it
+                logger.warn("The analysis cache file ends with a broken record, dropped.");
+                channel.truncate(validSize);
+            }
+            mergeEntries(fileEntries);
+        }
+
+        if (validSize < 0) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Puts entries from the cache file in memory, as less recently used than the entries already there
+     */
+    private synchronized void mergeEntries(LinkedHashMap<Key, Entry> fileEntries) {
+        LinkedHashMap<Key, Entry> currentEntries = entries;
+        entries = new LinkedHashMap<>(fileEntries.size() + currentEntries.size(), 0.75f, true);
+        size = 0;
+        for (Entry entry : fileEntries.values()) {
+            putEntry(entry);
+        }
+        for (Entry entry : currentEntries.values()) {
+            Entry fileEntry = entries.get(entry.key);
+            if (fileEntry == null || fileEntry.calculationCount <= entry.calculationCount) {
+                putEntry(entry);
+            }
+        }
+        evictEntries();
+    }
+
+    /**
+     * Appends the changed entries to the cache file, and compacts it if needed. Runs on the cache executor
+     */
+    private void flush() {
+        List<Entry> flushedEntries;
+        synchronized (this) {
+            if (pendingEntries.isEmpty()) {
+                return;
+            }
+            flushedEntries = new ArrayList<>(pendingEntries.values());
+            pendingEntries = new LinkedHashMap<>();
+        }
+
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+            try {
+                flushLocked(flushedEntries);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            logger.error("Cannot write the analysis cache.", e);
+        }
+    }
+
+    private void flushLocked(List<Entry> flushedEntries) throws IOException {
+        long fileSize;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = encodeEntries(flushedEntries, channel.size() == 0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            fileSize = channel.size();
+        }
+
+        if (fileSize > 2 * maxSize) {
+            try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+                LinkedHashMap<Key, Entry> fileEntries = new LinkedHashMap<>();
+                readEntries(channel, fileEntries);
+                mergeEntries(fileEntries);
+            }
+            rewrite();
+        }
+    }
+
+    /**
+     * Replaces the cache file by the entries in memory, the least recently used first. The lock file must be held
+     */
+    private void rewrite() throws IOException {
+        List<Entry> writtenEntries;
+        synchronized (this) {
+            writtenEntries = new ArrayList<>(entries.values());
+            pendingEntries.clear();
+        }
+
+        Path temporaryFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = encodeEntries(writtenEntries, true);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+
+            try {
+                Files.move(temporaryFile, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static ByteBuffer encodeEntries(List<Entry> encodedEntries, boolean fileHeaderIncluded) {
+        int length = fileHeaderIncluded ? FILE_HEADER_SIZE : 0;
+        for (Entry entry : encodedEntries) {
+            length += entry.getRecordSize();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        if (fileHeaderIncluded) {
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+        for (Entry entry : encodedEntries) {
+            buffer.putInt(entry.payload.length).putInt(entry.checksum).put(entry.payload);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads the valid records of a cache file, a later record of a position replacing an earlier one with fewer
+     * playouts
+     *
+     * @return the size of the file up to the first invalid record, -1 if it is not a cache file
+     */
+    private static long readEntries(FileChannel channel, Map<Key, Entry> fileEntries) throws IOException {
+        if (channel.size() > Integer.MAX_VALUE) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // keep reading
+        }
+        buffer.flip();
+
+        if (buffer.remaining() < FILE_HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return -1;
+        }
+
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int recordBegin = buffer.position();
+            int payloadLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (payloadLength <= 0 || payloadLength > MAX_PAYLOAD_SIZE || payloadLength > buffer.remaining()) {
+                buffer.position(recordBegin);
+                break;
+            }
+
+            byte[] payload = new byte[payloadLength];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            Entry entry = (int) crc.getValue() == checksum ? Entry.decode(payload, checksum) : null;
+            if (entry == null) {
+                buffer.position(recordBegin);
+                break;
+            }
+
+            Entry existingEntry = fileEntries.remove(entry.key);
+            fileEntries.put(entry.key, existingEntry == null || existingEntry.calculationCount <= entry.calculationCount ? entry : existingEntry);
+        }
+
+        return buffer.position();
+    }
+
+    /**
+     * Stops caching, after writing the changed entries
+     */
+    @Override
+    public void close() {
+        board.unregisterBoardStateChangeObserver(this);
+        cacheExecutor.execute(this::flush);
+        ThreadPoolUtil.shutdownAndAwaitTermination(cacheExecutor);
+    }
+
+    private static class Key {
+        private final long positionHash;
+        private final long engineHash;
+        private final float komi;
+        private final int boardSize;
+
+        Key(long positionHash, long engineHash, float komi, int boardSize) {
+            this.positionHash = positionHash;
+            this.engineHash = engineHash;
+            this.komi = komi;
+            this.boardSize = boardSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return positionHash == key.positionHash && engineHash == key.engineHash && Float.compare(komi, key.komi) == 0
+                    && boardSize == key.boardSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((Long.hashCode(positionHash) * 31 + Long.hashCode(engineHash)) * 31 + Float.hashCode(komi)) * 31 + boardSize;
+        }
+    }
+
+    /**
+     * A cached analysis, kept encoded as the payload of its record
+     */
+    private static class Entry {
+        private final Key key;
+        private final int calculationCount;
+        private final byte[] payload;
+        private final int checksum;
+
+        private Entry(Key key, int calculationCount, byte[] payload, int checksum) {
+            this.key = key;
+            this.calculationCount = calculationCount;
+            this.payload = payload;
+            this.checksum = checksum;
+        }
+
+        Entry(Key key, List<VariationData> variations) {
+            int variationCount = Math.min(variations.size(), MAX_VARIATION_COUNT);
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_PAYLOAD_SIZE);
+            buffer.putLong(key.positionHash).putLong(key.engineHash).putFloat(key.komi).put((byte) key.boardSize)
+                    .put((byte) variationCount);
+
+            int count = 0;
+            for (int i = 0; i < variationCount; ++i) {
+                VariationData variation = variations.get(i);
+                short[] moves = variation.getVariation();
+                int moveCount = Math.min(moves.length, MAX_VARIATION_LENGTH);
+                buffer.putInt(variation.getPlayouts()).putFloat((float) variation.getWinrate()).put((byte) moveCount);
+                for (int j = 0; j < moveCount; ++j) {
+                    buffer.putShort(moves[j]);
+                }
+                count += variation.getPlayouts();
+            }
+
+            this.key = key;
+            this.calculationCount = count;
+            this.payload = new byte[buffer.position()];
+            buffer.flip();
+            buffer.get(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            this.checksum = (int) crc.getValue();
+        }
+
+        /**
+         * @return the entry, null if the payload is malformed
+         */
+        static Entry decode(byte[] payload, int checksum) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            try {
+                Key key = new Key(buffer.getLong(), buffer.getLong(), buffer.getFloat(), buffer.get() & 0xff);
+                int count = 0;
+                for (VariationData variation : decodeVariations(buffer)) {
+                    count += variation.getPlayouts();
+                }
+                return buffer.hasRemaining() ? null : new Entry(key, count, payload, checksum);
+            } catch (BufferUnderflowException e) {
+                return null;
+            }
+        }
+
+        List<VariationData> decodeVariations() {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            buffer.position(VARIATIONS_OFFSET);
+            return decodeVariations(buffer);
+        }
+
+        private static List<VariationData> decodeVariations(ByteBuffer buffer) {
+            int variationCount = buffer.get() & 0xff;
+            List<VariationData> variations = new ArrayList<>(variationCount);
+            for (int i = 0; i < variationCount; ++i) {
+                int playouts = buffer.getInt();
+                double winrate = buffer.getFloat();
+                short[] moves = new short[buffer.get() & 0xff];
+                for (int j = 0; j < moves.length; ++j) {
+                    moves[j] = buffer.getShort();
+                }
+                variations.add(new VariationData(moves, playouts, winrate));
+            }
+            return variations;
+        }
+
+        int getRecordSize() {
+            return RECORD_HEADER_SIZE + payload.length;
+        }
+    }
+}
@@ -3,16 +3,13 @@ package featurecat.lizzie.rules;
 import featurecat.lizzie.Lizzie;
 import featurecat.lizzie.analysis.BestMoveObserver;
 import featurecat.lizzie.analysis.MoveData;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.eclipse.collections.api.set.MutableSet;
-import org.eclipse.collections.impl.factory.Sets;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
 import org.jtrim2.utils.ObjectFinalizer;
 
 import java.io.Closeable;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -24,35 +21,59 @@ public class Board implements Closeable {
     public final static String alphabet = "ABCDEFGHJKLMNOPQRST";
     public static int BOARD_SIZE = Lizzie.optionSetting.getBoardSize().getWidth();
     private static List<Consumer<Integer>> boardSizeChangeObserver = new CopyOnWriteArrayList<>();
+    private static final BoardStateChangeObserver SILENT_OBSERVER = new BoardStateChangeObserverCollection();
 
     private final ObjectFinalizer objectFinalizer;
 
     private BoardHistoryList history;
     private BoardTryPlayState tryPlayState;
+    private volatile BoardSnapshot snapshot;
     private BoardStateChangeObserverCollection observerCollection;
+    private boolean loadingHistory;
     private BestMoveObserver bestMoveObserver;
+    private ChainTracker chainTracker;
+    // Guarded by this. Counts the engine runs that analyzed something, so that the analysis of a new engine run is not
+    // held back by the playouts of the previous one
+    private int engineGeneration;
+    private boolean engineGenerationAnalyzed;
 
     public Board() {
         objectFinalizer = new ObjectFinalizer(this::doCleanup, "Board.cleanup");
 
+        chainTracker = new ChainTracker();
+
         initBoardHistoryList();
         tryPlayState = null;
+        publishSnapshot();
         observerCollection = new BoardStateChangeObserverCollection();
 
         bestMoveObserver = new BestMoveObserver() {
             @Override
             public void bestMovesUpdated(List<MoveData> newBestMoves) {
+                // Only tagged best moves are stored, untagged ones cannot be told from those of a previous head
+            }
+
+            @Override
+            public void bestMovesUpdated(long positionHash, List<MoveData> newBestMoves) {
                 synchronized (Board.this) {
-                    if (CollectionUtils.isNotEmpty(newBestMoves)) {
-                        BoardData boardData = getData();
-                        boardData.tryUpdateVariationInfo(newBestMoves);
+                    BoardData boardData = getData();
+                    engineGenerationAnalyzed = true;
+                    if (positionHash == boardData.getPositionHash() && boardData.tryUpdateVariationInfo(newBestMoves, engineGeneration)) {
+                        getNotifiedObservers().variationsUpdated(history.getHead());
+                        publishSnapshot();
                     }
                 }
             }
 
             @Override
             public void engineRestarted() {
-
+                synchronized (Board.this) {
+                    // Variations shown before the first engine run, e.g. cached ones, are still compared by playouts
+                    if (engineGenerationAnalyzed) {
+                        ++engineGeneration;
+                        engineGenerationAnalyzed = false;
+                    }
+                }
             }
         };
     }
@@ -61,22 +82,83 @@ public class Board implements Closeable {
         Lizzie.leelaz.registerBestMoveObserver(bestMoveObserver);
     }
 
-    private void initBoardHistoryList() {
-        Stone[] stones = new Stone[BOARD_SIZE * BOARD_SIZE];
-        Arrays.fill(stones, Stone.EMPTY);
+    /**
+     * Replaces the variations of a node by ones found elsewhere, e.g. in the analysis cache, if they have more playouts
+     * in total, then notifies the observers and publishes the board as the engine analysis does
+     *
+     * @return whether or not the variations have been replaced
+     */
+    public synchronized boolean tryUpdateVariations(BoardHistoryNode node, List<VariationData> variations) {
+        if (!node.getData().tryUpdateVariationData(variations, engineGeneration)) {
+            return false;
+        }
+        getNotifiedObservers().variationsUpdated(node);
+        publishSnapshot();
+        return true;
+    }
 
-        history = new BoardHistoryList(new BoardData(ImmutablePair.of(BOARD_SIZE, BOARD_SIZE), stones, null, Stone.EMPTY, true, new Zobrist(), 0, new int[BOARD_SIZE * BOARD_SIZE], Sets.mutable.empty(), 0, 0));
+    private void initBoardHistoryList() {
+        history = new BoardHistoryList(new BoardData(ImmutablePair.of(BOARD_SIZE, BOARD_SIZE), new byte[BOARD_SIZE * BOARD_SIZE], null, Stone.EMPTY, true, new Zobrist(), 0, new short[BOARD_SIZE * BOARD_SIZE], new int[0], 0, 0), Lizzie.optionSetting.getHistoryKeyframeInterval());
     }
 
     public synchronized void clear() {
         // We don't use history.clear() because it will not update board size
         initBoardHistoryList();
         observerCollection.boardCleared(history.getInitialNode(), history.getHead());
+        publishSnapshot();
+    }
+
+    /**
+     * Builds a new history with the moves played by the loader, then notifies the observers once with
+     * {@link BoardStateChangeObserver#historyReplaced}. The moves are not published one by one, so the observers do not
+     * redraw or sync engines per move
+     *
+     * @param loader plays the moves through {@link #place(int, int)} and {@link #pass()}, under the board lock
+     */
+    public void loadHistory(Consumer<Board> loader) {
+        synchronized (this) {
+            initBoardHistoryList();
+            loadingHistory = true;
+            try {
+                loader.accept(this);
+            } finally {
+                loadingHistory = false;
+                observerCollection.historyReplaced(history.getInitialNode(), history.getHead());
+                publishSnapshot();
+            }
+        }
+    }
+
+    /**
+     * @return the observers to notify of a change, none while a history is being loaded
+     */
+    private BoardStateChangeObserver getNotifiedObservers() {
+        return loadingHistory ? SILENT_OBSERVER : observerCollection;
+    }
+
+    /**
+     * Publishes what the board shows now to {@link #getSnapshot()}. Called under the board lock once the observers of a
+     * change have been notified, as some of them complete the head, e.g. with cached analysis
+     */
+    private void publishSnapshot() {
+        if (!loadingHistory) {
+            snapshot = new BoardSnapshot(history.getData(), getNextMoveCoordinate(), isInTryPlayState(), getTryPlayStateBeginMoveNumber());
+        }
+    }
+
+    /**
+     * Lock free, so the UI never waits for the threads changing the board, nor the other way round
+     *
+     * @return what the board showed after its last change
+     */
+    public BoardSnapshot getSnapshot() {
+        return snapshot;
     }
 
     public synchronized void resetHead() {
         history.resetHead();
         observerCollection.boardCleared(history.getInitialNode(), history.getHead());
+        publishSnapshot();
     }
 
     public BoardStateChangeObserverCollection getObserverCollection() {
@@ -87,13 +169,16 @@ public class Board implements Closeable {
         this.observerCollection = observerCollection;
     }
 
+    /**
+     * Adds the observer and shows it the current history through {@link BoardStateChangeObserver#historyReplaced},
+     * under the board lock, so that no change is missed or seen twice in between
+     */
     public void registerBoardStateChangeObserver(BoardStateChangeObserver observer) {
-        observerCollection.add(observer);
+        synchronized (this) {
+            observerCollection.add(observer);
 
-        observer.boardCleared(history.getInitialNode(), history.getInitialNode());
-        if (history.getInitialNode().getNext() != null) {
-            observer.mainStreamAppended(history.getInitialNode().getNext(), history.getInitialNode());
-            observer.headMoved(history.getInitialNode(), history.getHead());
+            observer.historyReplaced(history.getInitialNode(), history.getHead());
+            publishSnapshot();
         }
     }
 
@@ -105,6 +190,13 @@ public class Board implements Closeable {
         return tryPlayState != null;
     }
 
+    /**
+     * @return where the main stream was cut when entering the try play state, null when not in it
+     */
+    public BoardTryPlayState getTryPlayState() {
+        return tryPlayState;
+    }
+
     public void enterTryPlayState() {
         synchronized (this) {
             if (!isInTryPlayState()) {
@@ -113,8 +205,9 @@ public class Board implements Closeable {
                 Lizzie.frame.showTryPlayTitle();
 
                 if (tryPlayState.getNextPartBegin() != null) {
-                    observerCollection.mainStreamCut(tryPlayState.getMainStreamEnd(), history.getHead());
+                    getNotifiedObservers().mainStreamCut(tryPlayState.getMainStreamEnd(), history.getHead());
                 }
+                publishSnapshot();
             }
         }
     }
@@ -141,15 +234,16 @@ public class Board implements Closeable {
 
                     tryPlayState.restoreMainStream();
 
-                    observerCollection.mainStreamCut(tryPlayState.getMainStreamEnd(), history.getHead());
+                    getNotifiedObservers().mainStreamCut(tryPlayState.getMainStreamEnd(), history.getHead());
                 }
 
                 Lizzie.frame.restoreDefaultTitle();
                 BoardHistoryNode nextBegin = tryPlayState.getNextPartBegin();
                 tryPlayState = null;
                 if (nextBegin != null) {
-                    observerCollection.mainStreamAppended(nextBegin, history.getHead());
+                    getNotifiedObservers().mainStreamAppended(nextBegin, history.getHead());
                 }
+                publishSnapshot();
             }
         }
     }
@@ -268,7 +362,7 @@ public class Board implements Closeable {
      *
      * @param color the type of pass
      */
-    private void pass(Stone color) {
+    public void pass(Stone color) {
         synchronized (this) {
             // Forbid passing if the current move is before the move when try play state began
             if (isInTryPlayState() && history.getMoveNumber() < getTryPlayStateBeginMoveNumber()) {
@@ -285,24 +379,29 @@ public class Board implements Closeable {
                 enterTryPlayState();
             }
 
-            Stone[] stones = history.getStones().clone();
+            // a pass changes no point, so the packed arrays are shared with the previous position
+            BoardData data = history.getData();
             Zobrist zobrist = history.getZobrist();
             int moveNumber = history.getMoveNumber() + 1;
-            int[] moveNumberList = history.getMoveNumberList().clone();
 
             // build the new game state
-            BoardData newState = new BoardData(stones, null, color, !history.isBlacksTurn(), zobrist, moveNumber, moveNumberList, Sets.mutable.empty(), history.getData().getBlackPrisonersCount(), history.getData().getWhitePrisonersCount());
+            BoardData newState = new BoardData(data.getBoardSize(), data.getPackedStones(), null, color, !history.isBlacksTurn(), zobrist, moveNumber, data.getPackedMoveNumbers(), new int[0], data.getBlackPrisonersCount(), data.getWhitePrisonersCount());
 
             // update history with pass
             if (history.getHead().getNext() != null) {
                 history.getHead().disconnectNextNode();
-                observerCollection.mainStreamCut(history.getHead(), history.getHead());
+                getNotifiedObservers().mainStreamCut(history.getHead(), history.getHead());
             }
             BoardHistoryNode oldHead = history.getHead();
             history.add(newState);
             BoardHistoryNode newHead = history.getHead();
-            observerCollection.mainStreamAppended(newHead, oldHead);
-            observerCollection.headMoved(oldHead, newHead);
+            // A pass keeps the stones, so chains synced with the old head still hold
+            if (chainTracker.isSyncedWith(oldHead.getData())) {
+                chainTracker.markSynced(newState);
+            }
+            getNotifiedObservers().mainStreamAppended(newHead, oldHead);
+            getNotifiedObservers().headMoved(oldHead, newHead);
+            publishSnapshot();
         }
     }
 
@@ -320,13 +419,13 @@ public class Board implements Closeable {
      * @param y     y coordinate
      * @param color the type of stone to place
      */
-    private void place(int x, int y, Stone color) {
+    public void place(int x, int y, Stone color) {
         synchronized (this) {
             if (!color.equals(Stone.BLACK) && !color.equals(Stone.WHITE)) {
                 return;
             }
 
-            if (!isValid(x, y) || history.getStones()[getIndex(x, y)] != Stone.EMPTY)
+            if (!isValid(x, y) || history.getData().getStoneOnBoard(x, y) != Stone.EMPTY)
                 return;
 
             // Forbid placing a stone if the current move is before the move when try play state began
@@ -340,33 +439,25 @@ public class Board implements Closeable {
             }
 
             // load a copy of the data at the current node of history
-            Stone[] stones = history.getStones().clone();
+            byte[] stones = history.getData().getPackedStones().clone();
             Zobrist zobrist = history.getZobrist();
             int[] lastMove = new int[]{x, y}; // keep track of the last played stone
             int moveNumber = history.getMoveNumber() + 1;
-            int[] moveNumberList = history.getMoveNumberList().clone();
+            short[] moveNumberList = history.getData().getPackedMoveNumbers().clone();
 
-            moveNumberList[Board.getIndex(x, y)] = moveNumber;
+            moveNumberList[Board.getIndex(x, y)] = (short) moveNumber;
 
-            // set the stone at (x, y) to color
-            stones[getIndex(x, y)] = color;
-            zobrist.toggleStone(x, y, color);
+            // chains are only rebuilt from scratch when the head was not reached by the previous placement
+            if (!chainTracker.isSyncedWith(history.getData())) {
+                chainTracker.syncWith(history.getData());
+            }
 
-            // remove enemy stones
-            MutableSet<Coordinates> removedStones = Sets.mutable.empty();
-            removeDeadChain(removedStones, x + 1, y, color.opposite(), stones, zobrist);
-            removeDeadChain(removedStones, x, y + 1, color.opposite(), stones, zobrist);
-            removeDeadChain(removedStones, x - 1, y, color.opposite(), stones, zobrist);
-            removeDeadChain(removedStones, x, y - 1, color.opposite(), stones, zobrist);
+            // set the stone at (x, y) to color, remove dead enemy chains and check whether the move is suicidal
+            IntArrayList removedStones = new IntArrayList();
+            boolean isSuicidal = chainTracker.place(x, y, color, stones, zobrist, removedStones);
 
-            // check to see if the player made a suicidal coordinate
-            boolean isSuicidal = removeDeadChain(Sets.mutable.empty(), x, y, color, stones, zobrist);
-
-            for (int i = 0; i < BOARD_SIZE * BOARD_SIZE; i++) {
-                if (stones[i].equals(Stone.EMPTY)) {
-                    moveNumberList[i] = 0;
-                }
-            }
+            // every other empty point already has no move number
+            removedStones.forEach(index -> moveNumberList[index] = 0);
 
             // build the new game state
             int blackPrisonersCount = history.getData().getBlackPrisonersCount();
@@ -376,22 +467,31 @@ public class Board implements Closeable {
             } else {
                 whitePrisonersCount += removedStones.size();
             }
-            BoardData newState = new BoardData(stones, lastMove, color, !history.isBlacksTurn(), zobrist, moveNumber, moveNumberList, removedStones, blackPrisonersCount, whitePrisonersCount);
+            BoardData newState = new BoardData(history.getData().getBoardSize(), stones, lastMove, color, !history.isBlacksTurn(), zobrist, moveNumber, moveNumberList, removedStones.toSortedArray(), blackPrisonersCount, whitePrisonersCount);
+            // capturing a single stone with a lone stone left in atari makes a ko
+            if (removedStones.size() == 1 && chainTracker.isLoneStoneInAtari(x, y)) {
+                int koIndex = removedStones.get(0);
+                newState.setKoPoint(new int[]{koIndex / BOARD_SIZE, koIndex % BOARD_SIZE});
+            }
 
             // don't make this coordinate if it is suicidal or violates superko
-            if (isSuicidal || history.violatesSuperko(newState))
+            if (isSuicidal || history.violatesSuperko(newState)) {
+                chainTracker.invalidate();
                 return;
+            }
 
             // update history with this coordinate
             if (history.getHead().getNext() != null) {
                 history.getHead().disconnectNextNode();
-                observerCollection.mainStreamCut(history.getHead(), history.getHead());
+                getNotifiedObservers().mainStreamCut(history.getHead(), history.getHead());
             }
             BoardHistoryNode oldHead = history.getHead();
             history.add(newState);
+            chainTracker.markSynced(newState);
             BoardHistoryNode newHead = history.getHead();
-            observerCollection.mainStreamAppended(newHead, oldHead);
-            observerCollection.headMoved(oldHead, newHead);
+            getNotifiedObservers().mainStreamAppended(newHead, oldHead);
+            getNotifiedObservers().headMoved(oldHead, newHead);
+            publishSnapshot();
         }
     }
 
@@ -417,98 +517,21 @@ public class Board implements Closeable {
     }
 
     /**
-     * Removes a chain if it has no liberties
-     *
-     *
-     * @param removedStones record for coords of removed stones
-     * @param x       x coordinate -- needn't be valid
-     * @param y       y coordinate -- needn't be valid
-     * @param color   the color of the chain to remove
-     * @param stones  the stones array to modify
-     * @param zobrist the zobrist object to modify
-     * @return whether or not stones were removed
-     */
-    private boolean removeDeadChain(MutableSet<Coordinates> removedStones, int x, int y, Stone color, Stone[] stones, Zobrist zobrist) {
-        if (!isValid(x, y) || stones[getIndex(x, y)] != color)
-            return false;
-
-        boolean hasLiberties = hasLibertiesHelper(x, y, color, stones);
-
-        // either remove stones or reset what hasLibertiesHelper does to the board
-        cleanupHasLibertiesHelper(removedStones, x, y, color.recursed(), stones, zobrist, !hasLiberties);
-
-        // if hasLiberties is false, then we removed stones
-        return !hasLiberties;
-    }
-
-    /**
-     * Recursively determines if a chain has liberties. Alters the state of stones, so it must be counteracted
-     *
-     * @param x      x coordinate -- needn't be valid
-     * @param y      y coordinate -- needn't be valid
-     * @param color  the color of the chain to be investigated
-     * @param stones the stones array to modify
-     * @return whether or not this chain has liberties
-     */
-    private boolean hasLibertiesHelper(int x, int y, Stone color, Stone[] stones) {
-        if (!isValid(x, y))
-            return false;
-
-        if (stones[getIndex(x, y)] == Stone.EMPTY)
-            return true; // a liberty was found
-        else if (stones[getIndex(x, y)] != color)
-            return false; // we are either neighboring an enemy stone, or one we've already recursed on
-
-        // set this index to be the recursed color to keep track of where we've already searched
-        stones[getIndex(x, y)] = color.recursed();
-
-        // set removeDeadChain to true if any recursive calls return true. Recurse in all 4 directions
-        boolean hasLiberties = hasLibertiesHelper(x + 1, y, color, stones) ||
-                hasLibertiesHelper(x, y + 1, color, stones) ||
-                hasLibertiesHelper(x - 1, y, color, stones) ||
-                hasLibertiesHelper(x, y - 1, color, stones);
-
-        return hasLiberties;
-    }
-
-    /**
-     * cleans up what hasLibertyHelper does to the board state
+     * get current board state
      *
-     * @param removedStones record for coords of removed stones
-     * @param x            x coordinate -- needn't be valid
-     * @param y            y coordinate -- needn't be valid
-     * @param color        color to clean up. Must be a recursed stone type
-     * @param stones       the stones array to modify
-     * @param zobrist      the zobrist object to modify
-     * @param removeStones if true, we will remove all these stones. otherwise, we will set them to their unrecursed version
+     * @return a newly created stones array corresponding to the current board state
      */
-    private void cleanupHasLibertiesHelper(MutableSet<Coordinates> removedStones, int x, int y, Stone color, Stone[] stones, Zobrist zobrist, boolean removeStones) {
-        if (!isValid(x, y) || stones[getIndex(x, y)] != color)
-            return;
-
-        if (removeStones) {
-            removedStones.add(Coordinates.of(x, y));
-        }
-
-        stones[getIndex(x, y)] = removeStones ? Stone.EMPTY : color.unrecursed();
-        if (removeStones) {
-            zobrist.toggleStone(x, y, color.unrecursed());
-        }
-
-        // use the flood fill algorithm to replace all adjacent recursed stones
-        cleanupHasLibertiesHelper(removedStones, x + 1, y, color, stones, zobrist, removeStones);
-        cleanupHasLibertiesHelper(removedStones, x, y + 1, color, stones, zobrist, removeStones);
-        cleanupHasLibertiesHelper(removedStones, x - 1, y, color, stones, zobrist, removeStones);
-        cleanupHasLibertiesHelper(removedStones, x, y - 1, color, stones, zobrist, removeStones);
+    public Stone[] getStones() {
+        return history.getStones();
     }
 
     /**
-     * get current board state
-     *
-     * @return the stones array corresponding to the current board state
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return the stone at (x, y) in the current board state
      */
-    public Stone[] getStones() {
-        return history.getStones();
+    public Stone getStone(int x, int y) {
+        return history.getData().getStoneOnBoard(x, y);
     }
 
     /**
@@ -523,7 +546,7 @@ public class Board implements Closeable {
     /**
      * get current board move number
      *
-     * @return the int array corresponding to the current board move number
+     * @return a newly created int array corresponding to the current board move number
      */
     public int[] getMoveNumberList() {
         return history.getMoveNumberList();
@@ -536,7 +559,8 @@ public class Board implements Closeable {
         synchronized (this) {
             BoardHistoryNode oldHead = history.getHead();
             if (history.next() != null) {
-                observerCollection.headMoved(oldHead, history.getHead());
+                getNotifiedObservers().headMoved(oldHead, history.getHead());
+                publishSnapshot();
                 return true;
             } else {
                 return false;
@@ -555,7 +579,8 @@ public class Board implements Closeable {
         synchronized (this) {
             BoardHistoryNode oldHead = history.getHead();
             if (history.previous() != null) {
-                observerCollection.headMoved(oldHead, history.getHead());
+                getNotifiedObservers().headMoved(oldHead, history.getHead());
+                publishSnapshot();
                 return true;
             } else {
                 return false;
@@ -564,7 +589,7 @@ public class Board implements Closeable {
     }
 
     public int getMoveNumber(int x, int y) {
-        return history.getMoveNumberList()[getIndex(x, y)];
+        return history.getData().getMoveNumberOnBoard(x, y);
     }
 
     public void gotoMove(int moveNumber) {
@@ -607,12 +632,14 @@ public class Board implements Closeable {
     public void dropSuccessiveMoves() {
         synchronized (this) {
             history.getHead().disconnectNextNode();
-            observerCollection.mainStreamCut(history.getHead(), history.getHead());
+            getNotifiedObservers().mainStreamCut(history.getHead(), history.getHead());
+            publishSnapshot();
         }
     }
 
     private void doCleanup() {
-        if (bestMoveObserver != null) {
+        // Boards not linked with the engine, e.g. headless ones, may exist without it
+        if (bestMoveObserver != null && Lizzie.leelaz != null) {
             Lizzie.leelaz.unregisterBestMoveObserver(bestMoveObserver);
             bestMoveObserver = null;
         }
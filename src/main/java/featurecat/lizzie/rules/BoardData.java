@@ -1,45 +1,99 @@
 package featurecat.lizzie.rules;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import featurecat.lizzie.analysis.MoveData;
 import org.eclipse.collections.api.set.MutableSet;
+import org.eclipse.collections.impl.factory.Sets;
 
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+/**
+ * One position of the game.
+ * <p>
+ * Points are stored packed, one byte per stone ({@link #packStone(Stone)}) and one short per move number, and the
+ * captured points as their board indexes. The {@link Stone} and int based accessors convert on the fly.
+ * <p>
+ * A position may also be {@link #encodeAsDeltaOf(BoardData) delta encoded}: it then drops its points and rebuilds
+ * them from the previous position, its last move and its captures when asked. Rebuilt points are kept in a small
+ * cache shared by all positions.
+ */
 public class BoardData {
+    public static final byte PACKED_EMPTY = 0;
+    public static final byte PACKED_BLACK = 1;
+    public static final byte PACKED_WHITE = 2;
+
+    private static final int[] NO_REMOVED_STONES = new int[0];
+    private static final int RECONSTRUCTED_POINTS_CACHE_SIZE = 64;
+
+    private static class PackedPoints {
+        private final byte[] stones;
+        private final short[] moveNumbers;
+
+        PackedPoints(byte[] stones, short[] moveNumbers) {
+            this.stones = stones;
+            this.moveNumbers = moveNumbers;
+        }
+    }
+
+    private static final Cache<BoardData, PackedPoints> reconstructedPoints = CacheBuilder.newBuilder()
+            .maximumSize(RECONSTRUCTED_POINTS_CACHE_SIZE)
+            .weakKeys()
+            .build();
+
     private ImmutablePair<Integer, Integer> boardSize;
 
-    private Stone[] stonesOnBoard;
+    // Both null for delta encoded positions, deltaBase is always written before them
+    private volatile byte[] packedStones;
+    private volatile short[] packedMoveNumbers;
+    private volatile BoardData deltaBase;
     private int[] lastMove;
     private Stone lastMoveColor;
     private boolean blackToPlay;
     private Zobrist zobrist;
     private int moveNumber;
-    private int[] moveNumberListOnBoard;
-    private MutableSet<Coordinates> removedEnemyStoneIndexes;
+    private int[] removedStoneIndexes;
+    private int[] koPoint;
     private int blackPrisonersCount;
     private int whitePrisonersCount;
 
     private List<VariationData> variationDataList;
-
-    public BoardData(ImmutablePair<Integer, Integer> boardSize, Stone[] stonesOnBoard, int[] lastMove, Stone lastMoveColor, boolean blackToPlay, Zobrist zobrist, int moveNumber, int[] moveNumberListOnBoard, List<VariationData> variationDataList, MutableSet<Coordinates> removedEnemyStoneIndexes, int blackPrisonersCount, int whitePrisonersCount) {
+    // The engine run that found the variations, see tryUpdateVariationInfo
+    private int variationEngineGeneration;
+
+    /**
+     * Creates a position from packed points without copying them.
+     *
+     * @param packedStones        the stones, see {@link #packStone(Stone)}
+     * @param packedMoveNumbers   the move number of every point, 0 for points without a numbered stone
+     * @param removedStoneIndexes the board indexes of the stones captured by the last move
+     */
+    public BoardData(ImmutablePair<Integer, Integer> boardSize, byte[] packedStones, int[] lastMove, Stone lastMoveColor, boolean blackToPlay, Zobrist zobrist, int moveNumber, short[] packedMoveNumbers, int[] removedStoneIndexes, int blackPrisonersCount, int whitePrisonersCount) {
         this.boardSize = boardSize;
-        this.stonesOnBoard = stonesOnBoard;
+        this.packedStones = packedStones;
         this.lastMove = lastMove;
         this.lastMoveColor = lastMoveColor;
         this.blackToPlay = blackToPlay;
         this.zobrist = zobrist;
         this.moveNumber = moveNumber;
-        this.moveNumberListOnBoard = moveNumberListOnBoard;
-        this.variationDataList = variationDataList;
-        this.removedEnemyStoneIndexes = removedEnemyStoneIndexes;
+        this.packedMoveNumbers = packedMoveNumbers;
+        this.deltaBase = null;
+        this.variationDataList = null;
+        this.removedStoneIndexes = removedStoneIndexes.length == 0 ? NO_REMOVED_STONES : removedStoneIndexes;
+        this.koPoint = null;
         this.blackPrisonersCount = blackPrisonersCount;
         this.whitePrisonersCount = whitePrisonersCount;
     }
 
+    public BoardData(ImmutablePair<Integer, Integer> boardSize, Stone[] stonesOnBoard, int[] lastMove, Stone lastMoveColor, boolean blackToPlay, Zobrist zobrist, int moveNumber, int[] moveNumberListOnBoard, List<VariationData> variationDataList, MutableSet<Coordinates> removedEnemyStoneIndexes, int blackPrisonersCount, int whitePrisonersCount) {
+        this(boardSize, packStones(stonesOnBoard), lastMove, lastMoveColor, blackToPlay, zobrist, moveNumber, packMoveNumbers(moveNumberListOnBoard), packCoordinates(removedEnemyStoneIndexes, boardSize.getLeft()), blackPrisonersCount, whitePrisonersCount);
+        this.variationDataList = variationDataList;
+    }
+
     public BoardData(ImmutablePair<Integer, Integer> boardSize, Stone[] stonesOnBoard, int[] lastMove, Stone lastMoveColor, boolean blackToPlay, Zobrist zobrist, int moveNumber, int[] moveNumberListOnBoard, MutableSet<Coordinates> removedEnemyStoneIndexes, int blackPrisonersCount, int whitePrisonersCount) {
         this(boardSize, stonesOnBoard, lastMove, lastMoveColor, blackToPlay, zobrist, moveNumber, moveNumberListOnBoard, null, removedEnemyStoneIndexes, blackPrisonersCount, whitePrisonersCount);
     }
@@ -52,12 +106,129 @@ public class BoardData {
         return boardSize;
     }
 
+    public static byte packStone(Stone stone) {
+        switch (stone) {
+            case BLACK:
+                return PACKED_BLACK;
+            case WHITE:
+                return PACKED_WHITE;
+            default:
+                return PACKED_EMPTY;
+        }
+    }
+
+    public static Stone unpackStone(byte packedStone) {
+        switch (packedStone) {
+            case PACKED_BLACK:
+                return Stone.BLACK;
+            case PACKED_WHITE:
+                return Stone.WHITE;
+            default:
+                return Stone.EMPTY;
+        }
+    }
+
+    private static byte[] packStones(Stone[] stones) {
+        byte[] packed = new byte[stones.length];
+        for (int i = 0; i < stones.length; ++i) {
+            packed[i] = packStone(stones[i]);
+        }
+        return packed;
+    }
+
+    private static short[] packMoveNumbers(int[] moveNumbers) {
+        short[] packed = new short[moveNumbers.length];
+        for (int i = 0; i < moveNumbers.length; ++i) {
+            packed[i] = (short) moveNumbers[i];
+        }
+        return packed;
+    }
+
+    private static int[] packCoordinates(MutableSet<Coordinates> coordinatesSet, int width) {
+        if (coordinatesSet == null || coordinatesSet.isEmpty()) {
+            return NO_REMOVED_STONES;
+        }
+        return coordinatesSet.collectInt(coordinates -> coordinates.getX() * width + coordinates.getY()).toSortedArray();
+    }
+
+    /**
+     * @return the packed stones of this position, must not be modified
+     */
+    public byte[] getPackedStones() {
+        byte[] stones = packedStones;
+        return stones != null ? stones : reconstructPoints().stones;
+    }
+
+    /**
+     * @return the packed move numbers of this position, must not be modified
+     */
+    public short[] getPackedMoveNumbers() {
+        short[] moveNumbers = packedMoveNumbers;
+        return moveNumbers != null ? moveNumbers : reconstructPoints().moveNumbers;
+    }
+
+    /**
+     * Makes this position only store its difference to base, which must be the position this one was played from.
+     * The points are rebuilt from base when needed.
+     *
+     * @param base the previous position
+     */
+    void encodeAsDeltaOf(BoardData base) {
+        if (deltaBase != null || !boardSize.equals(base.boardSize)) {
+            return;
+        }
+
+        reconstructedPoints.put(this, new PackedPoints(packedStones, packedMoveNumbers));
+        deltaBase = base;
+        packedStones = null;
+        packedMoveNumbers = null;
+    }
+
+    /**
+     * @return whether or not this position only stores its difference to the previous one
+     */
+    public boolean isDeltaEncoded() {
+        return deltaBase != null;
+    }
+
+    private PackedPoints reconstructPoints() {
+        PackedPoints points = reconstructedPoints.getIfPresent(this);
+        if (points == null) {
+            byte[] stones = deltaBase.getPackedStones().clone();
+            short[] moveNumbers = deltaBase.getPackedMoveNumbers().clone();
+
+            if (!isPass()) {
+                int index = coordsToIndex(lastMove[0], lastMove[1]);
+                stones[index] = packStone(lastMoveColor);
+                moveNumbers[index] = (short) moveNumber;
+            }
+            for (int index : removedStoneIndexes) {
+                stones[index] = PACKED_EMPTY;
+                moveNumbers[index] = 0;
+            }
+
+            points = new PackedPoints(stones, moveNumbers);
+            reconstructedPoints.put(this, points);
+        }
+        return points;
+    }
+
+    /**
+     * @return a newly created array of the stones of this position
+     */
     public Stone[] getStonesOnBoard() {
-        return stonesOnBoard;
+        byte[] packed = getPackedStones();
+        Stone[] stones = new Stone[packed.length];
+        for (int i = 0; i < packed.length; ++i) {
+            stones[i] = unpackStone(packed[i]);
+        }
+        return stones;
     }
 
     public void setStonesOnBoard(Stone[] stonesOnBoard) {
-        this.stonesOnBoard = stonesOnBoard;
+        packedMoveNumbers = getPackedMoveNumbers();
+        packedStones = packStones(stonesOnBoard);
+        deltaBase = null;
     }
 
     public int[] getLastMove() {
@@ -92,6 +263,24 @@ public class BoardData {
         this.zobrist = zobrist;
     }
 
+    /**
+     * @return the point where the side to move may not immediately retake a ko, null if there is none
+     */
+    public int[] getKoPoint() {
+        return koPoint;
+    }
+
+    public void setKoPoint(int[] koPoint) {
+        this.koPoint = koPoint;
+    }
+
+    /**
+     * @return a hash of the stones, the side to move and the ko point, stable across processes
+     */
+    public long getPositionHash() {
+        return zobrist.getPositionHash(blackToPlay, koPoint);
+    }
+
     public int getMoveNumber() {
         return moveNumber;
     }
@@ -100,12 +289,22 @@ public class BoardData {
         this.moveNumber = moveNumber;
     }
 
+    /**
+     * @return a newly created array of the move numbers of this position
+     */
     public int[] getMoveNumberListOnBoard() {
-        return moveNumberListOnBoard;
+        short[] packed = getPackedMoveNumbers();
+        int[] moveNumbers = new int[packed.length];
+        for (int i = 0; i < packed.length; ++i) {
+            moveNumbers[i] = packed[i];
+        }
+        return moveNumbers;
     }
 
     public void setMoveNumberListOnBoard(int[] moveNumberListOnBoard) {
-        this.moveNumberListOnBoard = moveNumberListOnBoard;
+        packedStones = getPackedStones();
+        packedMoveNumbers = packMoveNumbers(moveNumberListOnBoard);
+        deltaBase = null;
     }
 
     public List<VariationData> getVariationDataList() {
@@ -138,12 +337,27 @@ public class BoardData {
         return 100.0 - getBlackWinrate();
     }
 
+    /**
+     * @return a newly created set of the stones captured by the last move
+     */
     public MutableSet<Coordinates> getRemovedEnemyStoneIndexes() {
-        return removedEnemyStoneIndexes;
+        MutableSet<Coordinates> removedStones = Sets.mutable.empty();
+        int width = boardSize.getLeft();
+        for (int index : removedStoneIndexes) {
+            removedStones.add(Coordinates.of(index / width, index % width));
+        }
+        return removedStones;
     }
 
     public void setRemovedEnemyStoneIndexes(MutableSet<Coordinates> removedEnemyStoneIndexes) {
-        this.removedEnemyStoneIndexes = removedEnemyStoneIndexes;
+        this.removedStoneIndexes = packCoordinates(removedEnemyStoneIndexes, boardSize.getLeft());
+    }
+
+    /**
+     * @return the board indexes of the stones captured by the last move, must not be modified
+     */
+    public int[] getRemovedStoneIndexes() {
+        return removedStoneIndexes;
     }
 
     public int getBlackPrisonersCount() {
@@ -199,21 +413,58 @@ public class BoardData {
         return lastMove == null || lastMove[0] < 0 || lastMove[0] >= boardSize.getLeft() || lastMove[1] < 0 || lastMove[1] >= boardSize.getRight();
     }
 
-    public void tryUpdateVariationInfo(List<MoveData> newMoveDataList) {
+    /**
+     * Replaces the variations by an analysis of this position with more playouts in total, from the engine run that
+     * found the current ones
+     *
+     * @return whether or not the variations have been replaced by the new ones
+     */
+    public boolean tryUpdateVariationInfo(List<MoveData> newMoveDataList) {
+        return tryUpdateVariationInfo(newMoveDataList, variationEngineGeneration);
+    }
+
+    /**
+     * Replaces the variations by an analysis of this position with more playouts in total. An analysis restarted from
+     * scratch, e.g. when coming back to the position, only shows once it has gone further than the known one. The
+     * playouts of another engine run are not compared, so the first analysis of a restarted or switched engine
+     * replaces the variations of the previous one. The caller must make sure the analysis is about this position, see
+     * {@link featurecat.lizzie.analysis.BestMoveObserver#bestMovesUpdated(long, List)}
+     *
+     * @param engineGeneration the engine run the analysis comes from, changed whenever the engine restarts
+     * @return whether or not the variations have been replaced by the new ones
+     */
+    public boolean tryUpdateVariationInfo(List<MoveData> newMoveDataList, int engineGeneration) {
         if (CollectionUtils.isEmpty(newMoveDataList)) {
-            return;
+            return false;
+        }
+
+        int newTotalCalculation = newMoveDataList.stream().mapToInt(MoveData::getPlayouts).sum();
+        if (engineGeneration == variationEngineGeneration && newTotalCalculation <= getTotalCalculationCount()) {
+            return false;
         }
-        // FIXME: Due to boardStateCount cannot sync with bestMoves, we may receive previous move's variations
-//        if (CollectionUtils.isEmpty(variationDataList)) {
-//            variationDataList = newMoveDataList.stream().map(VariationData::new).collect(Collectors.toList());
-//        } else {
-//            int totalCalculation = variationDataList.stream().mapToInt(VariationData::getPlayouts).sum();
-//            int newTotalCalculation = newMoveDataList.stream().mapToInt(MoveData::getPlayouts).sum();
-//            if (newTotalCalculation > totalCalculation) {
-//                variationDataList = newMoveDataList.stream().map(VariationData::new).collect(Collectors.toList());
-//            }
-//        }
         variationDataList = newMoveDataList.stream().map(VariationData::new).collect(Collectors.toList());
+        variationEngineGeneration = engineGeneration;
+        return true;
+    }
+
+    /**
+     * Replaces the variations by ones found elsewhere, e.g. in the analysis cache, on the same terms as
+     * {@link #tryUpdateVariationInfo(List, int)}
+     *
+     * @return whether or not the variations have been replaced by the new ones
+     */
+    public boolean tryUpdateVariationData(List<VariationData> newVariationDataList, int engineGeneration) {
+        if (CollectionUtils.isEmpty(newVariationDataList)) {
+            return false;
+        }
+
+        int newTotalCalculation = newVariationDataList.stream().mapToInt(VariationData::getPlayouts).sum();
+        if (engineGeneration == variationEngineGeneration && newTotalCalculation <= getTotalCalculationCount()) {
+            return false;
+        }
+        variationDataList = newVariationDataList;
+        variationEngineGeneration = engineGeneration;
+        return true;
     }
 
     public int coordsToIndex(int row, int col) {
@@ -223,7 +474,7 @@ public class BoardData {
     public Stone getStoneOnBoard(int row, int col) {
         int index = coordsToIndex(row, col);
         try {
-            return stonesOnBoard[index];
+            return unpackStone(getPackedStones()[index]);
         } catch (ArrayIndexOutOfBoundsException e) {
             return null;
         }
@@ -232,7 +483,7 @@ public class BoardData {
     public int getMoveNumberOnBoard(int row, int col) {
         int index = coordsToIndex(row, col);
         try {
-            return moveNumberListOnBoard[index];
+            return getPackedMoveNumbers()[index];
         } catch (ArrayIndexOutOfBoundsException e) {
             return 0;
         }
@@ -244,10 +495,10 @@ public class BoardData {
         }
 
         VariationData bestVariation = variationDataList.get(0);
-        if (CollectionUtils.isEmpty(bestVariation.getVariation())) {
+        if (bestVariation.getVariation().length == 0) {
             return Optional.empty();
         } else {
-            return Optional.ofNullable(bestVariation.getVariation().get(0));
+            return Optional.of(MoveData.decodeMove(bestVariation.getVariation()[0]));
         }
     }
 }
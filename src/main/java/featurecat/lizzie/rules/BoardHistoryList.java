@@ -1,5 +1,7 @@
 package featurecat.lizzie.rules;
 
+import org.eclipse.collections.api.bag.primitive.MutableLongBag;
+import org.eclipse.collections.impl.bag.mutable.primitive.LongHashBag;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.AbstractCollection;
@@ -37,6 +39,12 @@ public class BoardHistoryList extends AbstractCollection<BoardData> {
 
     private BoardHistoryNode head;
 
+    private final int keyframeInterval;
+
+    // Zobrist hashes of the positions after the initial node up to head, split by the side to move
+    private final MutableLongBag blackToPlayPathHashes;
+    private final MutableLongBag whiteToPlayPathHashes;
+
     public BoardHistoryNode getHead() {
         return head;
     }
@@ -47,6 +55,8 @@ public class BoardHistoryList extends AbstractCollection<BoardData> {
 
     public void resetHead() {
         head = initialNode;
+        blackToPlayPathHashes.clear();
+        whiteToPlayPathHashes.clear();
     }
 
     /**
@@ -55,8 +65,34 @@ public class BoardHistoryList extends AbstractCollection<BoardData> {
      * @param data the data to be stored for the first entry
      */
     public BoardHistoryList(BoardData data) {
+        this(data, 1);
+    }
+
+    /**
+     * Initialize a new board history list, whose first node is data
+     *
+     * @param data             the data to be stored for the first entry
+     * @param keyframeInterval every how many moves a position is stored fully, the others are delta encoded against
+     *                         the position before them. 1 or less stores every position fully
+     */
+    public BoardHistoryList(BoardData data, int keyframeInterval) {
         initialNode = new BoardHistoryNode(data);
         head = initialNode;
+        this.keyframeInterval = keyframeInterval;
+        blackToPlayPathHashes = new LongHashBag();
+        whiteToPlayPathHashes = new LongHashBag();
+    }
+
+    private MutableLongBag getPathHashes(BoardData data) {
+        return data.isBlackToPlay() ? blackToPlayPathHashes : whiteToPlayPathHashes;
+    }
+
+    private void enterPath(BoardHistoryNode node) {
+        getPathHashes(node.getData()).add(node.getData().getZobrist().toLong());
+    }
+
+    private void leavePath(BoardHistoryNode node) {
+        getPathHashes(node.getData()).remove(node.getData().getZobrist().toLong());
     }
 
     /**
@@ -66,10 +102,14 @@ public class BoardHistoryList extends AbstractCollection<BoardData> {
      */
     @Override
     public boolean add(BoardData data) {
+        if (keyframeInterval > 1 && data.getMoveNumber() % keyframeInterval != 0) {
+            data.encodeAsDeltaOf(head.getData());
+        }
         BoardHistoryNode newNode = new BoardHistoryNode(data);
 
         head.connectNextNode(newNode);
         head = newNode;
+        enterPath(head);
 
         return true;
     }
@@ -82,8 +122,10 @@ public class BoardHistoryList extends AbstractCollection<BoardData> {
     public BoardData previous() {
         if (head.getPrevious() == null)
             return null;
-        else
+        else {
+            leavePath(head);
             head = head.getPrevious();
+        }
 
         return head.getData();
     }
@@ -96,8 +138,10 @@ public class BoardHistoryList extends AbstractCollection<BoardData> {
     public BoardData next() {
         if (head.getNext() == null)
             return null;
-        else
+        else {
             head = head.getNext();
+            enterPath(head);
+        }
 
         return head.getData();
     }
@@ -157,23 +201,15 @@ public class BoardHistoryList extends AbstractCollection<BoardData> {
     }
 
     /**
+     * Looks the position up among the ones on the way to head, which are indexed by zobrist hash as head moves.
+     * Nodes after head, including the ones cut away by try play, never take part.
+     *
      * @param data the board position to check against superko
      * @return whether or not the given position violates the superko rule at the head's state
      */
     public boolean violatesSuperko(BoardData data) {
-        BoardHistoryNode head = this.head;
-
-        // check to see if this position has occurred before
-        while (head.getPrevious() != null) {
-            // if two zobrist hashes are equal, and it's the same player to coordinate, they are the same position
-            if (data.getZobrist().equals(head.getData().getZobrist()) && data.isBlackToPlay() == head.getData().isBlackToPlay())
-                return true;
-
-            head = head.getPrevious();
-        }
-
-        // no position matched this position, so it's valid
-        return false;
+        // if two zobrist hashes are equal, and it's the same player to coordinate, they are the same position
+        return getPathHashes(data).contains(data.getZobrist().toLong());
     }
 
     @NotNull
@@ -184,7 +220,7 @@ public class BoardHistoryList extends AbstractCollection<BoardData> {
 
     @Override
     public void clear() {
-        head = initialNode;
+        resetHead();
         initialNode.disconnectNextNode();
     }
 
@@ -0,0 +1,93 @@
+package featurecat.lizzie.rules;
+
+import java.util.List;
+
+/**
+ * What the board shows at one moment: the head position, its analysis, the next move of the main stream and the try
+ * play state. A snapshot never changes once built, so it can be read from any thread without the board lock, see
+ * {@link Board#getSnapshot()}
+ */
+public class BoardSnapshot {
+    private final BoardData data;
+    private final byte[] packedStones;
+    private final short[] packedMoveNumbers;
+    private final List<VariationData> variations;
+    private final int[] nextMove;
+    private final boolean inTryPlayState;
+    private final int tryPlayStateBeginMoveNumber;
+
+    BoardSnapshot(BoardData data, int[] nextMove, boolean inTryPlayState, int tryPlayStateBeginMoveNumber) {
+        this.data = data;
+        // resolved now, as delta encoded points are rebuilt on demand
+        this.packedStones = data.getPackedStones();
+        this.packedMoveNumbers = data.getPackedMoveNumbers();
+        this.variations = data.getVariationDataList();
+        this.nextMove = nextMove;
+        this.inTryPlayState = inTryPlayState;
+        this.tryPlayStateBeginMoveNumber = tryPlayStateBeginMoveNumber;
+    }
+
+    /**
+     * @return the head position, whose variations may have been replaced since, see {@link #getVariations()}
+     */
+    public BoardData getData() {
+        return data;
+    }
+
+    /**
+     * @return the packed stones of the head position, must not be modified
+     */
+    public byte[] getPackedStones() {
+        return packedStones;
+    }
+
+    public Stone getStone(int x, int y) {
+        return BoardData.unpackStone(packedStones[Board.getIndex(x, y)]);
+    }
+
+    public int getMoveNumberOnBoard(int x, int y) {
+        return packedMoveNumbers[Board.getIndex(x, y)];
+    }
+
+    public int[] getLastMove() {
+        return data.getLastMove();
+    }
+
+    public Stone getLastMoveColor() {
+        return data.getLastMoveColor();
+    }
+
+    public boolean isBlackToPlay() {
+        return data.isBlackToPlay();
+    }
+
+    public int getMoveNumber() {
+        return data.getMoveNumber();
+    }
+
+    public Zobrist getZobrist() {
+        return data.getZobrist();
+    }
+
+    /**
+     * @return the variations of the head position when this snapshot was taken
+     */
+    public List<VariationData> getVariations() {
+        return variations;
+    }
+
+    /**
+     * @return the coordinates of the next move of the main stream, null if there is none or it is a pass
+     */
+    public int[] getNextMove() {
+        return nextMove;
+    }
+
+    public boolean isInTryPlayState() {
+        return inTryPlayState;
+    }
+
+    public int getTryPlayStateBeginMoveNumber() {
+        return tryPlayStateBeginMoveNumber;
+    }
+}
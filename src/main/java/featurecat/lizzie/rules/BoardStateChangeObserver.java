@@ -8,4 +8,27 @@ public interface BoardStateChangeObserver {
     void headMoved(BoardHistoryNode oldHead, BoardHistoryNode newHead);
 
     void boardCleared(BoardHistoryNode initialNode, BoardHistoryNode initialHead);
+
+    /**
+     * The whole history has been replaced at once, e.g. by loading a game. By default it is handled as the board
+     * being cleared, the new main stream appended and head moved to its place
+     *
+     * @param initialNode the initial node of the new history
+     * @param head        the head of the new history
+     */
+    default void historyReplaced(BoardHistoryNode initialNode, BoardHistoryNode head) {
+        boardCleared(initialNode, initialNode);
+        if (initialNode.getNext() != null) {
+            mainStreamAppended(initialNode.getNext(), initialNode);
+            headMoved(initialNode, head);
+        }
+    }
+
+    /**
+     * The variations of a node have been updated by the analyzing engine
+     *
+     * @param node the node whose variations changed
+     */
+    default void variationsUpdated(BoardHistoryNode node) {
+    }
 }
@@ -35,6 +35,16 @@ public class BoardStateChangeObserverCollection extends AbstractCollection<Board
         observerList.forEach(boardStateChangeObserver -> boardStateChangeObserver.boardCleared(initialNode, initialHead));
     }
 
+    @Override
+    public void historyReplaced(BoardHistoryNode initialNode, BoardHistoryNode head) {
+        observerList.forEach(boardStateChangeObserver -> boardStateChangeObserver.historyReplaced(initialNode, head));
+    }
+
+    @Override
+    public void variationsUpdated(BoardHistoryNode node) {
+        observerList.forEach(boardStateChangeObserver -> boardStateChangeObserver.variationsUpdated(node));
+    }
+
     @Override
     public boolean isEmpty() {
         return observerList.isEmpty();
@@ -0,0 +1,248 @@
+package featurecat.lizzie.rules;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Incrementally maintains the stone chains of one position together with their pseudo liberties, so that capture and
+ * suicide detection only cost the stones touched by a move instead of flood filling the neighbourhood every time.
+ * <p>
+ * A pseudo liberty is an (empty point, adjacent stone) pair, so one empty point may be counted several times for the
+ * same chain. A chain has no liberty at all exactly when its pseudo liberty count drops to 0.
+ * <p>
+ * The tracker follows one {@link BoardData} at a time. It is not thread safe, callers must hold the board lock.
+ */
+class ChainTracker {
+    private static final int NONE = -1;
+
+    private int boardSize;
+    private byte[] colors;
+    private int[] chainHead;
+    private int[] nextInChain;
+    private int[] chainSize;
+    private int[] pseudoLiberties;
+    private final int[] neighbours;
+    private final int[] removalNeighbours;
+
+    private BoardData syncedData;
+
+    ChainTracker() {
+        boardSize = 0;
+        neighbours = new int[4];
+        removalNeighbours = new int[4];
+        syncedData = null;
+    }
+
+    /**
+     * @param data the board data to check
+     * @return whether or not the tracked chains describe the position of data
+     */
+    boolean isSyncedWith(BoardData data) {
+        return syncedData != null && syncedData == data && boardSize == Board.BOARD_SIZE;
+    }
+
+    /**
+     * Rebuilds all the chains from the stones of data. Costs one pass over the board.
+     *
+     * @param data the board data to follow
+     */
+    void syncWith(BoardData data) {
+        reset(Board.BOARD_SIZE);
+
+        byte[] stones = data.getPackedStones();
+        for (int i = 0; i < colors.length; ++i) {
+            byte stone = stones[i];
+            if (stone == BoardData.PACKED_BLACK || stone == BoardData.PACKED_WHITE) {
+                colors[i] = stone;
+                chainHead[i] = i;
+                nextInChain[i] = i;
+                chainSize[i] = 1;
+            }
+        }
+
+        for (int i = 0; i < colors.length; ++i) {
+            if (colors[i] == BoardData.PACKED_EMPTY) {
+                continue;
+            }
+
+            int count = collectNeighbours(i, neighbours);
+            for (int k = 0; k < count; ++k) {
+                int neighbour = neighbours[k];
+                if (colors[neighbour] == BoardData.PACKED_EMPTY) {
+                    ++pseudoLiberties[chainHead[i]];
+                } else if (colors[neighbour] == colors[i] && chainHead[neighbour] != chainHead[i]) {
+                    merge(chainHead[i], chainHead[neighbour]);
+                }
+            }
+        }
+
+        syncedData = data;
+    }
+
+    /**
+     * Records that the tracked position is now the one of data, e.g. after the move built from it has been accepted.
+     *
+     * @param data the board data whose stones equal the tracked position
+     */
+    void markSynced(BoardData data) {
+        syncedData = data;
+    }
+
+    /**
+     * Forgets the tracked position, e.g. after a rejected placement left it half applied.
+     */
+    void invalidate() {
+        syncedData = null;
+    }
+
+    /**
+     * Places a stone, removes the enemy chains left without liberties and checks whether the move is suicidal.
+     * The tracker must be {@link #invalidate() invalidated} if the resulting position is not accepted.
+     *
+     * @param x             x coordinate -- must be valid and empty
+     * @param y             y coordinate -- must be valid and empty
+     * @param color         the color of the stone to place
+     * @param stones        the packed stones array to modify, must equal the tracked position
+     * @param zobrist       the zobrist object to modify
+     * @param removedStones record for board indexes of removed stones
+     * @return whether or not the move is suicidal
+     */
+    boolean place(int x, int y, Stone color, byte[] stones, Zobrist zobrist, IntArrayList removedStones) {
+        int index = Board.getIndex(x, y);
+
+        byte packedColor = BoardData.packStone(color);
+        colors[index] = packedColor;
+        stones[index] = packedColor;
+        zobrist.toggleStone(x, y, color);
+        chainHead[index] = index;
+        nextInChain[index] = index;
+        chainSize[index] = 1;
+        pseudoLiberties[index] = 0;
+
+        // The new stone takes one liberty from every adjacent chain
+        int count = collectNeighbours(index, neighbours);
+        for (int k = 0; k < count; ++k) {
+            int neighbour = neighbours[k];
+            if (colors[neighbour] == BoardData.PACKED_EMPTY) {
+                ++pseudoLiberties[index];
+            } else {
+                --pseudoLiberties[chainHead[neighbour]];
+            }
+        }
+
+        // Join friendly chains
+        for (int k = 0; k < count; ++k) {
+            int neighbour = neighbours[k];
+            if (colors[neighbour] == packedColor && chainHead[neighbour] != chainHead[index]) {
+                merge(chainHead[index], chainHead[neighbour]);
+            }
+        }
+
+        // Remove enemy chains without liberties
+        byte enemy = BoardData.packStone(color.opposite());
+        for (int k = 0; k < count; ++k) {
+            int neighbour = neighbours[k];
+            if (colors[neighbour] == enemy && pseudoLiberties[chainHead[neighbour]] == 0) {
+                removeChain(chainHead[neighbour], stones, zobrist, removedStones);
+            }
+        }
+
+        return pseudoLiberties[chainHead[index]] == 0;
+    }
+
+    /**
+     * @param x x coordinate -- must be valid
+     * @param y y coordinate -- must be valid
+     * @return whether or not the stone at (x, y) is alone in its chain and has exactly one liberty
+     */
+    boolean isLoneStoneInAtari(int x, int y) {
+        int head = chainHead[Board.getIndex(x, y)];
+        // The pseudo liberties of a single stone are all different points
+        return head != NONE && chainSize[head] == 1 && pseudoLiberties[head] == 1;
+    }
+
+    private void reset(int newBoardSize) {
+        int pointCount = newBoardSize * newBoardSize;
+        if (boardSize != newBoardSize) {
+            boardSize = newBoardSize;
+            colors = new byte[pointCount];
+            chainHead = new int[pointCount];
+            nextInChain = new int[pointCount];
+            chainSize = new int[pointCount];
+            pseudoLiberties = new int[pointCount];
+        }
+
+        Arrays.fill(colors, BoardData.PACKED_EMPTY);
+        Arrays.fill(chainHead, NONE);
+        Arrays.fill(nextInChain, NONE);
+        Arrays.fill(chainSize, 0);
+        Arrays.fill(pseudoLiberties, 0);
+    }
+
+    /**
+     * Joins two different chains, relabelling the stones of the smaller one.
+     */
+    private void merge(int head1, int head2) {
+        int largeHead = head1, smallHead = head2;
+        if (chainSize[head1] < chainSize[head2]) {
+            largeHead = head2;
+            smallHead = head1;
+        }
+
+        int p = smallHead;
+        do {
+            chainHead[p] = largeHead;
+            p = nextInChain[p];
+        } while (p != smallHead);
+
+        // Splice the two circular lists
+        int temp = nextInChain[largeHead];
+        nextInChain[largeHead] = nextInChain[smallHead];
+        nextInChain[smallHead] = temp;
+
+        chainSize[largeHead] += chainSize[smallHead];
+        pseudoLiberties[largeHead] += pseudoLiberties[smallHead];
+    }
+
+    private void removeChain(int head, byte[] stones, Zobrist zobrist, IntArrayList removedStones) {
+        int p = head;
+        do {
+            int x = p / boardSize, y = p % boardSize;
+            zobrist.toggleStone(x, y, BoardData.unpackStone(colors[p]));
+            colors[p] = BoardData.PACKED_EMPTY;
+            stones[p] = BoardData.PACKED_EMPTY;
+            chainHead[p] = NONE;
+            removedStones.add(p);
+
+            // Every removed stone gives a liberty back to its neighbouring chains
+            int count = collectNeighbours(p, removalNeighbours);
+            for (int k = 0; k < count; ++k) {
+                int neighbour = removalNeighbours[k];
+                if (colors[neighbour] != BoardData.PACKED_EMPTY) {
+                    ++pseudoLiberties[chainHead[neighbour]];
+                }
+            }
+
+            p = nextInChain[p];
+        } while (p != head);
+    }
+
+    private int collectNeighbours(int index, int[] buffer) {
+        int x = index / boardSize, y = index % boardSize;
+        int count = 0;
+        if (x + 1 < boardSize) {
+            buffer[count++] = index + boardSize;
+        }
+        if (y + 1 < boardSize) {
+            buffer[count++] = index + 1;
+        }
+        if (x > 0) {
+            buffer[count++] = index - boardSize;
+        }
+        if (y > 0) {
+            buffer[count++] = index - 1;
+        }
+        return count;
+    }
+}
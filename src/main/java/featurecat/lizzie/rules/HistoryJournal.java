@@ -0,0 +1,535 @@
+package featurecat.lizzie.rules;
+
+import featurecat.lizzie.analysis.MoveData;
+import featurecat.lizzie.util.ThreadPoolUtil;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Append only journal of the board history, to recover a session after a crash.
+ * <p>
+ * Every change of the main stream and the latest variations of the nodes are recorded as text lines. The records are
+ * collected while the board is locked, and written and forced to disk in batches by a background thread. The journal
+ * starts over whenever the whole history is cleared or replaced. It is also compacted periodically: the current
+ * history is recorded as a new journal and stored as an SGF checkpoint.
+ * <p>
+ * Try play moves are not journaled. While the board is in the try play state, the journal keeps the main stream the
+ * try play branch replaces, with the head where the try play began, which is where leaving the state returns to.
+ * <p>
+ * The records, where a node is referred to by its move number in the main stream:
+ * <pre>
+ * C size komi        the board was cleared, always the first record
+ * A n moves...       the moves appended after node n, each one is B or W followed by its coordinate, none for a pass;
+ *                    the head stays at node n, as leaving the try play state appends the main stream behind it
+ * X n                the main stream was cut after node n
+ * H n                the head moved to node n
+ * V n variations...  the variations of node n, each one is playouts,winrate,moves
+ * </pre>
+ */
+public class HistoryJournal implements BoardStateChangeObserver, Closeable {
+    private static final Logger logger = LogManager.getLogger(HistoryJournal.class);
+
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long COMPACTION_INTERVAL_MILLIS = 5 * 60 * 1000;
+    private static final char PASS_COORDINATE = '-';
+
+    private final Board board;
+    private final GameInfo gameInfo;
+    private final Path journalFile;
+    private final Path checkpointFile;
+    private final Supplier<SgfHistoryWriter> checkpointWriterFactory;
+    private final ScheduledExecutorService journalExecutor;
+
+    // Guarded by this
+    private final StringBuilder pendingRecords;
+    private boolean restartPending;
+    private BoardHistoryNode pendingVariationNode;
+    private boolean changedSinceCompaction;
+
+    // Only used by the journal executor
+    private FileChannel channel;
+
+    /**
+     * Starts journaling the board. The journal file is overwritten, so recover it first if needed
+     *
+     * @param board                   the board to journal
+     * @param gameInfo                the game info, whose komi is recorded
+     * @param journalFile             the journal file
+     * @param checkpointFile          the SGF file written on compaction
+     * @param checkpointWriterFactory creates the writer of the SGF checkpoint
+     */
+    public HistoryJournal(Board board, GameInfo gameInfo, Path journalFile, Path checkpointFile, Supplier<SgfHistoryWriter> checkpointWriterFactory) {
+        this.board = board;
+        this.gameInfo = gameInfo;
+        this.journalFile = journalFile;
+        this.checkpointFile = checkpointFile;
+        this.checkpointWriterFactory = checkpointWriterFactory;
+        this.journalExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.pendingRecords = new StringBuilder();
+
+        // Registering records the current history as the beginning of the journal
+        board.registerBoardStateChangeObserver(this);
+
+        journalExecutor.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        journalExecutor.scheduleWithFixedDelay(this::compact, COMPACTION_INTERVAL_MILLIS, COMPACTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void mainStreamAppended(BoardHistoryNode newNodeBegin, BoardHistoryNode head) {
+        if (board.isInTryPlayState()) {
+            return;
+        }
+        synchronized (this) {
+            recordPendingVariations();
+            recordAppendedMoves(mainStreamFrom(newNodeBegin, null));
+        }
+    }
+
+    @Override
+    public void mainStreamCut(BoardHistoryNode nodeBeforeCutPoint, BoardHistoryNode head) {
+        // Entering and leaving the try play state cut the main stream, but not the one journaled
+        if (board.isInTryPlayState()) {
+            return;
+        }
+        synchronized (this) {
+            recordPendingVariations();
+            startRecord('X').append(nodeBeforeCutPoint.getData().getMoveNumber()).append('\n');
+        }
+    }
+
+    @Override
+    public void headMoved(BoardHistoryNode oldHead, BoardHistoryNode newHead) {
+        if (board.isInTryPlayState()) {
+            return;
+        }
+        synchronized (this) {
+            recordPendingVariations();
+            startRecord('H').append(newHead.getData().getMoveNumber()).append('\n');
+        }
+    }
+
+    @Override
+    public void boardCleared(BoardHistoryNode initialNode, BoardHistoryNode initialHead) {
+        recordHistory();
+    }
+
+    @Override
+    public void historyReplaced(BoardHistoryNode initialNode, BoardHistoryNode head) {
+        recordHistory();
+    }
+
+    @Override
+    public void variationsUpdated(BoardHistoryNode node) {
+        // The node may be a try play move, whose move number is that of another node in the journal
+        if (board.isInTryPlayState()) {
+            return;
+        }
+        synchronized (this) {
+            // The variations of a node are only recorded once they stop changing, or at the next flush
+            if (node != pendingVariationNode) {
+                recordPendingVariations();
+                pendingVariationNode = node;
+            }
+        }
+    }
+
+    /**
+     * Drops everything recorded so far and records the main stream of the board from scratch. Called with the board
+     * locked
+     */
+    private void recordHistory() {
+        BoardTryPlayState tryPlayState = board.getTryPlayState();
+        BoardHistoryList history = board.getHistory();
+        List<BoardHistoryNode> mainStream = mainStreamFrom(history.getInitialNode(), tryPlayState);
+        BoardHistoryNode head = tryPlayState == null ? history.getHead() : tryPlayState.getMainStreamEnd();
+
+        synchronized (this) {
+            pendingRecords.setLength(0);
+            pendingVariationNode = null;
+            restartPending = true;
+
+            startRecord('C').append(Board.BOARD_SIZE).append(' ').append(gameInfo.getKomi()).append('\n');
+            if (mainStream.size() > 1) {
+                recordAppendedMoves(mainStream.subList(1, mainStream.size()));
+            }
+            for (BoardHistoryNode node : mainStream) {
+                recordVariations(node);
+            }
+            startRecord('H').append(head.getData().getMoveNumber()).append('\n');
+        }
+    }
+
+    /**
+     * @param tryPlayState where the main stream was cut for the try play state, null if it is not
+     * @return the nodes of the main stream from begin, the one preserved instead of the try play moves
+     */
+    private static List<BoardHistoryNode> mainStreamFrom(BoardHistoryNode begin, BoardTryPlayState tryPlayState) {
+        List<BoardHistoryNode> mainStream = new ArrayList<>();
+        for (BoardHistoryNode node = begin; node != null; ) {
+            mainStream.add(node);
+            if (tryPlayState != null && node == tryPlayState.getMainStreamEnd()) {
+                node = tryPlayState.getNextPartBegin();
+            } else {
+                node = node.getNext();
+            }
+        }
+        return mainStream;
+    }
+
+    private StringBuilder startRecord(char type) {
+        changedSinceCompaction = true;
+        return pendingRecords.append(type).append(' ');
+    }
+
+    private void recordAppendedMoves(List<BoardHistoryNode> nodes) {
+        StringBuilder record = startRecord('A').append(nodes.get(0).getData().getMoveNumber() - 1);
+        for (BoardHistoryNode node : nodes) {
+            BoardData data = node.getData();
+            record.append(' ').append(data.getLastMoveColor() == Stone.WHITE ? 'W' : 'B');
+            if (!data.isPass()) {
+                record.append((char) ('a' + data.getLastMove()[0])).append((char) ('a' + data.getLastMove()[1]));
+            }
+        }
+        record.append('\n');
+    }
+
+    private void recordPendingVariations() {
+        if (pendingVariationNode != null) {
+            recordVariations(pendingVariationNode);
+            pendingVariationNode = null;
+        }
+    }
+
+    private void recordVariations(BoardHistoryNode node) {
+        List<VariationData> variations = node.getData().getVariationDataList();
+        if (CollectionUtils.isEmpty(variations)) {
+            return;
+        }
+
+        StringBuilder record = startRecord('V').append(node.getData().getMoveNumber());
+        for (VariationData variation : variations) {
+            record.append(' ').append(variation.getPlayouts()).append(',').append(variation.getWinrate()).append(',');
+            for (short move : variation.getVariation()) {
+                int x = MoveData.getMoveX(move), y = MoveData.getMoveY(move);
+                if (Board.isValid(x, y)) {
+                    record.append((char) ('a' + x)).append((char) ('a' + y));
+                } else {
+                    record.append(PASS_COORDINATE).append(PASS_COORDINATE);
+                }
+            }
+        }
+        record.append('\n');
+    }
+
+    /**
+     * Writes the pending records, starting a new journal file if needed. Runs on the journal executor
+     */
+    private void flush() {
+        String records;
+        boolean restart;
+        synchronized (this) {
+            recordPendingVariations();
+            if (pendingRecords.length() == 0) {
+                return;
+            }
+            records = pendingRecords.toString();
+            restart = restartPending;
+            pendingRecords.setLength(0);
+            restartPending = false;
+        }
+
+        try {
+            if (restart) {
+                restartJournal(records);
+            } else if (channel != null) {
+                writeFully(channel, records);
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            logger.error("Cannot write the history journal.", e);
+            closeChannel();
+        }
+
+        if (channel == null) {
+            // Records may have been lost, so the next journal starts from the whole history
+            synchronized (board) {
+                recordHistory();
+            }
+        }
+    }
+
+    private void restartJournal(String records) throws IOException {
+        closeChannel();
+
+        Path temporaryFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try {
+            try (FileChannel temporaryChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(temporaryChannel, records);
+                temporaryChannel.force(true);
+            }
+
+            try {
+                Files.move(temporaryFile, journalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, journalFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void writeFully(FileChannel channel, String records) throws IOException {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(records);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close the history journal.", e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Records the whole history as a new journal and stores it as the SGF checkpoint. Runs on the journal executor
+     */
+    private void compact() {
+        String checkpoint = null;
+        synchronized (board) {
+            synchronized (this) {
+                if (!changedSinceCompaction) {
+                    return;
+                }
+            }
+            // The history written as SGF would be the try play one, so wait until the state is left
+            if (board.isInTryPlayState()) {
+                return;
+            }
+
+            BoardHistoryList history = board.getHistory();
+            recordHistory();
+            synchronized (this) {
+                changedSinceCompaction = false;
+            }
+
+            // Only the snapshot is taken with the board locked, writing it to disk is not
+            if (history.getInitialNode().getNext() != null) {
+                checkpoint = checkpointWriterFactory.get().writeToString(history);
+            }
+        }
+
+        if (checkpoint != null) {
+            try {
+                SgfHistoryWriter.writeToFile(checkpoint, checkpointFile);
+            } catch (IOException e) {
+                logger.error("Cannot write the history checkpoint.", e);
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Stops journaling, after writing the pending records
+     */
+    @Override
+    public void close() {
+        board.unregisterBoardStateChangeObserver(this);
+        journalExecutor.execute(() -> {
+            flush();
+            closeChannel();
+        });
+        ThreadPoolUtil.shutdownAndAwaitTermination(journalExecutor);
+    }
+
+    /**
+     * Stops journaling and deletes the journal, when the session has been saved otherwise
+     */
+    public void discard() {
+        close();
+        try {
+            Files.deleteIfExists(journalFile);
+        } catch (IOException e) {
+            logger.warn("Cannot delete the history journal.", e);
+        }
+    }
+
+    /**
+     * Replays a journal left by a session that did not end normally into the board
+     *
+     * @param journalFile the journal file
+     * @param board       the board to load the history into
+     * @param gameInfo    the game info to restore the komi into
+     * @return whether or not a history has been recovered
+     */
+    public static boolean recover(Path journalFile, Board board, GameInfo gameInfo) {
+        if (!Files.exists(journalFile)) {
+            return false;
+        }
+
+        List<String> records;
+        try {
+            records = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.error("Cannot read the history journal.", e);
+            return false;
+        }
+
+        // Everything before the last clearing is obsolete
+        int begin = -1;
+        for (int i = records.size() - 1; i >= 0; --i) {
+            if (records.get(i).startsWith("C ")) {
+                begin = i;
+                break;
+            }
+        }
+        if (begin < 0) {
+            return false;
+        }
+
+        String[] clearing = records.get(begin).split(" ");
+        try {
+            if (Integer.parseInt(clearing[1]) != Board.BOARD_SIZE) {
+                logger.warn("The history journal is for another board size, ignored.");
+                return false;
+            }
+            gameInfo.setKomi(Double.parseDouble(clearing[2]));
+        } catch (RuntimeException e) {
+            logger.warn("The history journal is corrupted, ignored.", e);
+            return false;
+        }
+
+        List<String> replayedRecords = new ArrayList<>(records.subList(begin + 1, records.size()));
+        board.loadHistory(loadingBoard -> {
+            for (String record : replayedRecords) {
+                boolean replayed;
+                try {
+                    replayed = replay(loadingBoard, record.split(" "));
+                } catch (RuntimeException e) {
+                    replayed = false;
+                }
+                // The last record may be incomplete if the crash happened while writing it
+                if (!replayed) {
+                    logger.warn("Cannot replay the history journal record \"" + record + "\", the rest is ignored.");
+                    break;
+                }
+            }
+        });
+
+        return true;
+    }
+
+    private static boolean replay(Board board, String[] fields) {
+        int moveNumber = Integer.parseInt(fields[1]);
+        switch (fields[0]) {
+            case "A":
+                // An incomplete move makes the whole record invalid
+                for (int i = 2; i < fields.length; ++i) {
+                    if (fields[i].length() != 1 && fields[i].length() != 3) {
+                        return false;
+                    }
+                }
+                if (!gotoMove(board, moveNumber)) {
+                    return false;
+                }
+                board.dropSuccessiveMoves();
+                for (int i = 2; i < fields.length; ++i) {
+                    Stone color = fields[i].charAt(0) == 'W' ? Stone.WHITE : Stone.BLACK;
+                    if (fields[i].length() == 1) {
+                        board.pass(color);
+                    } else {
+                        board.place(fields[i].charAt(1) - 'a', fields[i].charAt(2) - 'a', color);
+                    }
+                    if (board.getData().getMoveNumber() != moveNumber + i - 1) {
+                        return false;
+                    }
+                }
+                moveHead(board, moveNumber);
+                return true;
+            case "X":
+                if (!gotoMove(board, moveNumber)) {
+                    return false;
+                }
+                board.dropSuccessiveMoves();
+                return true;
+            case "H":
+                return gotoMove(board, moveNumber);
+            case "V":
+                BoardHistoryNode node = board.getHistory().getInitialNode();
+                for (int i = 0; i < moveNumber && node != null; ++i) {
+                    node = node.getNext();
+                }
+                if (node == null) {
+                    return false;
+                }
+                List<VariationData> variations = new ArrayList<>(fields.length - 2);
+                for (int i = 2; i < fields.length; ++i) {
+                    variations.add(parseVariation(fields[i]));
+                }
+                node.getData().setVariationDataList(variations);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static VariationData parseVariation(String field) {
+        String[] parts = field.split(",", -1);
+        String moves = parts[2];
+        short[] variation = new short[moves.length() / 2];
+        for (int i = 0; i < variation.length; ++i) {
+            char x = moves.charAt(2 * i), y = moves.charAt(2 * i + 1);
+            variation[i] = x == PASS_COORDINATE ? MoveData.PASS : MoveData.encodeMove(x - 'a', y - 'a');
+        }
+        return new VariationData(variation, Integer.parseInt(parts[0]), Double.parseDouble(parts[1]));
+    }
+
+    /**
+     * @return whether or not the node exists, the head is not moved if it does not
+     */
+    private static boolean gotoMove(Board board, int moveNumber) {
+        int originalMoveNumber = board.getData().getMoveNumber();
+        moveHead(board, moveNumber);
+        if (board.getData().getMoveNumber() == moveNumber) {
+            return true;
+        } else {
+            moveHead(board, originalMoveNumber);
+            return false;
+        }
+    }
+
+    private static void moveHead(Board board, int moveNumber) {
+        while (board.getData().getMoveNumber() > moveNumber && board.previousMove()) {
+            // keep going back
+        }
+        while (board.getData().getMoveNumber() < moveNumber && board.nextMove()) {
+            // keep going forward
+        }
+    }
+}
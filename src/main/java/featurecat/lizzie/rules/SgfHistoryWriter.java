@@ -0,0 +1,264 @@
+package featurecat.lizzie.rules;
+
+import featurecat.lizzie.analysis.MoveData;
+import org.apache.commons.collections4.CollectionUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Writes a board history as SGF while walking it, without building a game tree first.
+ * <p>
+ * The main stream is written as one sequence. Try play branches, and the analysis variations if enabled, are written
+ * as SGF variations of the node they start from. The walk keeps the branches still to write on an explicit stack, so
+ * long games do not need deep recursion.
+ */
+public class SgfHistoryWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Only well explored variations are written, and only a few of them
+    private static final int MIN_VARIATION_PLAYOUTS = 200;
+    private static final int MAX_VARIATION_COUNT = 5;
+    private static final int MIN_COMMENTED_PLAYOUTS = 100;
+
+    private final int boardSize;
+    private final double komi;
+    private final boolean variationsIncluded;
+    private final int variationLimit;
+
+    /**
+     * @param boardSize          the board size to record
+     * @param komi               the komi to record
+     * @param variationsIncluded whether or not to write the analysis variations of every node
+     * @param variationLimit     the maximum number of moves written per variation
+     */
+    public SgfHistoryWriter(int boardSize, double komi, boolean variationsIncluded, int variationLimit) {
+        this.boardSize = boardSize;
+        this.komi = komi;
+        this.variationsIncluded = variationsIncluded;
+        this.variationLimit = variationLimit;
+    }
+
+    public String writeToString(BoardHistoryList history) {
+        try (StringWriter writer = new StringWriter()) {
+            write(history, writer);
+            return writer.toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the history into a temporary file next to destination, forces it to disk and renames it to destination,
+     * so that a crash while saving leaves the previous file intact.
+     */
+    public void writeToFile(BoardHistoryList history, Path destination) throws IOException {
+        writeAtomically(destination, writer -> write(history, writer));
+    }
+
+    /**
+     * Stores SGF written by {@link #writeToString(BoardHistoryList)} like {@link #writeToFile(BoardHistoryList, Path)},
+     * e.g. to write it without holding the lock of the board.
+     */
+    public static void writeToFile(String sgf, Path destination) throws IOException {
+        writeAtomically(destination, writer -> writer.write(sgf));
+    }
+
+    private interface WriterAction {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    private static void writeAtomically(Path destination, WriterAction action) throws IOException {
+        Path temporaryFile = destination.resolveSibling(destination.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), BUFFER_SIZE)) {
+                action.writeTo(writer);
+                writer.flush();
+                channel.force(true);
+            }
+
+            try {
+                Files.move(temporaryFile, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, destination, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    public void write(BoardHistoryList history, Writer writer) throws IOException {
+        writer.write("(;");
+        writeProperty(writer, "FF", "4"); // SGF version: 4
+        writeProperty(writer, "GM", "1"); // Go game
+        writeProperty(writer, "SZ", String.valueOf(boardSize));
+        writeProperty(writer, "KM", String.valueOf(komi));
+        writeProperty(writer, "CA", "UTF-8");
+        writeProperty(writer, "AP", "MyLizzie");
+
+        // The initial node is the root node holding the game properties
+        Deque<PendingItem> pendingItems = new ArrayDeque<>();
+        writeSequence(writer, history.getInitialNode(), true, pendingItems);
+
+        while (!pendingItems.isEmpty()) {
+            PendingItem item = pendingItems.pop();
+            if (item.branchBegin != null) {
+                writer.write('(');
+                pendingItems.push(PendingItem.END_OF_BRANCH);
+                writeSequence(writer, item.branchBegin, false, pendingItems);
+            } else if (item.variation != null) {
+                writeVariation(writer, item.variation, item.blackFirst);
+            } else {
+                writer.write(')');
+            }
+        }
+
+        writer.write(')');
+    }
+
+    /**
+     * Writes the nodes from begin to the end of its sequence. The branches met on the way are left on pendingItems,
+     * above the end of the enclosing branch.
+     */
+    private void writeSequence(Writer writer, BoardHistoryNode begin, boolean rootIncluded, Deque<PendingItem> pendingItems) throws IOException {
+        for (BoardHistoryNode node = begin; node != null; node = node.getNext()) {
+            if (!(rootIncluded && node == begin)) {
+                writer.write(';');
+                writeMoveProperties(writer, node.getData());
+            }
+
+            int branchCount = pushBranches(node, pendingItems);
+            if (branchCount > 0 && node.getNext() != null) {
+                // The rest of the sequence becomes the first variation
+                writer.write('(');
+                pendingItems.push(PendingItem.END_OF_BRANCH);
+            }
+        }
+    }
+
+    /**
+     * Pushes the branches starting after node in reverse, so that they are popped in order
+     *
+     * @return the number of branches pushed
+     */
+    private int pushBranches(BoardHistoryNode node, Deque<PendingItem> pendingItems) {
+        int count = 0;
+
+        List<VariationData> variations = node.getData().getVariationDataList();
+        if (variationsIncluded && CollectionUtils.isNotEmpty(variations)) {
+            List<VariationData> selectedVariations = new ArrayList<>(MAX_VARIATION_COUNT);
+            for (VariationData variation : variations) {
+                if (selectedVariations.size() >= MAX_VARIATION_COUNT) {
+                    break;
+                }
+                if (variation.getPlayouts() > MIN_VARIATION_PLAYOUTS && variation.getVariation().length > 0) {
+                    selectedVariations.add(variation);
+                }
+            }
+            for (int i = selectedVariations.size() - 1; i >= 0; --i) {
+                pendingItems.push(new PendingItem(null, selectedVariations.get(i), node.getData().isBlackToPlay()));
+                ++count;
+            }
+        }
+
+        List<BoardHistoryNode> tryPlayHistory = node.getTryPlayHistory();
+        for (int i = tryPlayHistory.size() - 1; i >= 0; --i) {
+            pendingItems.push(new PendingItem(tryPlayHistory.get(i), null, false));
+            ++count;
+        }
+
+        return count;
+    }
+
+    private void writeMoveProperties(Writer writer, BoardData data) throws IOException {
+        Stone color = data.getLastMoveColor();
+        if (color != Stone.BLACK && color != Stone.WHITE) {
+            return;
+        }
+
+        int[] lastMove = data.getLastMove();
+        if (lastMove == null) {
+            writeProperty(writer, color == Stone.BLACK ? "B" : "W", toSgfCoordinate(boardSize, boardSize));
+        } else {
+            writeProperty(writer, color == Stone.BLACK ? "B" : "W", toSgfCoordinate(lastMove[0], lastMove[1]));
+        }
+
+        if (data.getCalculationCount() > MIN_COMMENTED_PLAYOUTS) {
+            writeProperty(writer, "C", String.format("Black: %.1f; White: %.1f", data.getBlackWinrate(), data.getWhiteWinrate()));
+        }
+    }
+
+    private void writeVariation(Writer writer, VariationData variation, boolean blackFirst) throws IOException {
+        writer.write('(');
+
+        boolean black = blackFirst;
+        short[] moves = variation.getVariation();
+        for (int i = 0; i < moves.length && i < variationLimit; ++i) {
+            writer.write(';');
+            writeProperty(writer, black ? "B" : "W", toSgfCoordinate(MoveData.getMoveX(moves[i]), MoveData.getMoveY(moves[i])));
+
+            if (i == 0 && variation.getPlayouts() > MIN_COMMENTED_PLAYOUTS) {
+                double blackWinrate = black ? variation.getWinrate() : 100 - variation.getWinrate();
+                writeProperty(writer, "C", String.format("Black: %.1f; White: %.1f", blackWinrate, 100 - blackWinrate));
+            }
+            black = !black;
+        }
+
+        writer.write(')');
+    }
+
+    /**
+     * @return the SGF coordinate, the one just outside the board for a pass
+     */
+    private String toSgfCoordinate(int x, int y) {
+        if (x < 0 || x >= boardSize || y < 0 || y >= boardSize) {
+            x = boardSize;
+            y = boardSize;
+        }
+        return new String(new char[]{(char) ('a' + x), (char) ('a' + y)});
+    }
+
+    private static void writeProperty(Writer writer, String key, String value) throws IOException {
+        writer.write(key);
+        writer.write('[');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == ']' || c == '\\') {
+                writer.write('\\');
+            }
+            writer.write(c);
+        }
+        writer.write(']');
+    }
+
+    /**
+     * A branch to write, a variation to write, or the end of a branch
+     */
+    private static class PendingItem {
+        static final PendingItem END_OF_BRANCH = new PendingItem(null, null, false);
+
+        private final BoardHistoryNode branchBegin;
+        private final VariationData variation;
+        private final boolean blackFirst;
+
+        PendingItem(BoardHistoryNode branchBegin, VariationData variation, boolean blackFirst) {
+            this.branchBegin = branchBegin;
+            this.variation = variation;
+            this.blackFirst = blackFirst;
+        }
+    }
+}
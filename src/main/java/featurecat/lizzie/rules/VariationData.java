@@ -2,22 +2,27 @@ package featurecat.lizzie.rules;
 
 import featurecat.lizzie.analysis.MoveData;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
-
 public class VariationData {
-    private List<int[]> variation;
+    private short[] variation;
     private int playouts;
     private double winrate;
 
     public VariationData(MoveData moveData) {
         playouts = moveData.getPlayouts();
         winrate = moveData.getWinrate();
-        variation = moveData.getVariation().stream().map(Board::convertNameToCoordinates).collect(Collectors.toCollection(ArrayList::new));
+        variation = moveData.getVariation();
+    }
+
+    public VariationData(short[] variation, int playouts, double winrate) {
+        this.variation = variation;
+        this.playouts = playouts;
+        this.winrate = winrate;
     }
 
-    public List<int[]> getVariation() {
+    /**
+     * @return the moves encoded as in {@link MoveData#encodeMove(int, int)}. Must not be modified
+     */
+    public short[] getVariation() {
         return variation;
     }
 
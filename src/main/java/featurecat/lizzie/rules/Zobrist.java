@@ -3,21 +3,37 @@ package featurecat.lizzie.rules;
 import java.util.Random;
 
 /**
- * Used to maintain zobrist hashes for ko detection
+ * Used to maintain zobrist hashes for ko detection.
+ * <p>
+ * The keys come from a fixed seed and are laid out for the largest supported board, so a hash does not depend on the
+ * process or on the current board size and may be persisted. The order in which the keys are drawn must not change.
  */
 public class Zobrist {
-    private static final long[] blackZobrist, whiteZobrist;
+    public static final int MAX_BOARD_SIZE = 25;
+    private static final long SEED = 0x4c697a7a69655a42L;
+
+    private static final long[] blackZobrist, whiteZobrist, koPointZobrist;
+    private static final long blackToPlayZobrist;
 
     // initialize zobrist hashing
     static {
-        Random random = new Random();
-        blackZobrist = new long[Board.BOARD_SIZE * Board.BOARD_SIZE];
-        whiteZobrist = new long[Board.BOARD_SIZE * Board.BOARD_SIZE];
+        Random random = new Random(SEED);
+        blackZobrist = new long[MAX_BOARD_SIZE * MAX_BOARD_SIZE];
+        whiteZobrist = new long[MAX_BOARD_SIZE * MAX_BOARD_SIZE];
+        koPointZobrist = new long[MAX_BOARD_SIZE * MAX_BOARD_SIZE];
 
         for (int i = 0; i < blackZobrist.length; i++) {
             blackZobrist[i] = random.nextLong();
             whiteZobrist[i] = random.nextLong();
         }
+        blackToPlayZobrist = random.nextLong();
+        for (int i = 0; i < koPointZobrist.length; i++) {
+            koPointZobrist[i] = random.nextLong();
+        }
+    }
+
+    private static int getKeyIndex(int x, int y) {
+        return x * MAX_BOARD_SIZE + y;
     }
 
     // hash to be used to compare two board states
@@ -49,14 +65,40 @@ public class Zobrist {
     public void toggleStone(int x, int y, Stone color) {
         switch (color) {
             case BLACK:
-                zhash ^= blackZobrist[Board.getIndex(x, y)];
+                zhash ^= blackZobrist[getKeyIndex(x, y)];
                 break;
             case WHITE:
-                zhash ^= whiteZobrist[Board.getIndex(x, y)];
+                zhash ^= whiteZobrist[getKeyIndex(x, y)];
                 break;
         }
     }
 
+    /**
+     * This hash only covers the stones, as positional superko needs. Positions that also differ by the side to move
+     * or by a ko point should be told apart with {@link #getPositionHash(boolean, int[])}.
+     *
+     * @return the full 64 bit hash of the stones
+     */
+    public long toLong() {
+        return zhash;
+    }
+
+    /**
+     * @param blackToPlay whether or not black is to play
+     * @param koPoint     the point the side to move may not retake a ko at, null if there is none
+     * @return a hash of the stones, the side to move and the ko point
+     */
+    public long getPositionHash(boolean blackToPlay, int[] koPoint) {
+        long hash = zhash;
+        if (blackToPlay) {
+            hash ^= blackToPlayZobrist;
+        }
+        if (koPoint != null) {
+            hash ^= koPointZobrist[getKeyIndex(koPoint[0], koPoint[1])];
+        }
+        return hash;
+    }
+
     @Override
     public boolean equals(Object o) {
         return o instanceof Zobrist && (((Zobrist) o).zhash == zhash);
@@ -0,0 +1,47 @@
+package featurecat.lizzie.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of the startup, which may run on several threads at once. Each phase is logged when it ends,
+ * with its duration and when it ended since the startup began.
+ */
+public class StartupTimer {
+    private static final Logger logger = LogManager.getLogger(StartupTimer.class);
+
+    private final long beginNanos;
+    private final List<String> phaseSummaries;
+
+    public StartupTimer() {
+        beginNanos = System.nanoTime();
+        phaseSummaries = new ArrayList<>();
+    }
+
+    public void time(String phase, Runnable action) {
+        long phaseBeginNanos = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            long endNanos = System.nanoTime();
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(endNanos - phaseBeginNanos);
+            long endMillis = TimeUnit.NANOSECONDS.toMillis(endNanos - beginNanos);
+            logger.info("Startup phase {} took {} ms, done at {} ms.", phase, durationMillis, endMillis);
+            synchronized (this) {
+                phaseSummaries.add(String.format("%s %d ms (done at %d ms)", phase, durationMillis, endMillis));
+            }
+        }
+    }
+
+    /**
+     * Logs every phase timed so far, in the order they ended
+     */
+    public synchronized void logSummary() {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos);
+        logger.info("Startup done in {} ms: {}.", elapsedMillis, String.join(", ", phaseSummaries));
+    }
+}
@@ -0,0 +1,69 @@
+package featurecat.lizzie.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Splits a stream of UTF-8 bytes into lines.
+ * <p>
+ * Bytes are decoded in bulk into one reused char buffer, which is scanned for line feeds; only the completed lines
+ * are copied out. A character cut in half at the end of the input is left in the input buffer, so the caller must
+ * keep unconsumed bytes for the next call. Not thread safe.
+ */
+public class Utf8LineDecoder {
+    private final CharsetDecoder decoder;
+    private CharBuffer charBuffer;
+
+    public Utf8LineDecoder(int initialCapacity) {
+        decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        charBuffer = CharBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * Decodes the available bytes of input and hands every completed line, including its line terminator, to
+     * lineConsumer. The unfinished line is kept until more bytes arrive.
+     *
+     * @param input        the bytes to decode, its position is moved past the consumed bytes
+     * @param lineConsumer receiver of the completed lines
+     */
+    public void decode(ByteBuffer input, Consumer<String> lineConsumer) {
+        for (; ; ) {
+            CoderResult result = decoder.decode(input, charBuffer, false);
+            emitCompletedLines(lineConsumer);
+            if (!result.isOverflow()) {
+                break;
+            }
+            if (charBuffer.remaining() < 2) {
+                // A single line fills the whole buffer, a supplementary character needs two chars
+                CharBuffer largerBuffer = CharBuffer.allocate(charBuffer.capacity() * 2);
+                charBuffer.flip();
+                largerBuffer.put(charBuffer);
+                charBuffer = largerBuffer;
+            }
+        }
+    }
+
+    private void emitCompletedLines(Consumer<String> lineConsumer) {
+        char[] chars = charBuffer.array();
+        int end = charBuffer.position();
+        int lineBegin = 0;
+        for (int i = 0; i < end; ++i) {
+            if (chars[i] == '\n') {
+                lineConsumer.accept(new String(chars, lineBegin, i + 1 - lineBegin));
+                lineBegin = i + 1;
+            }
+        }
+
+        if (lineBegin > 0) {
+            System.arraycopy(chars, lineBegin, chars, 0, end - lineBegin);
+            charBuffer.position(end - lineBegin);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.toomasr.sgf4j.parser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.toomasr.sgf4j.Parser;
+
+/**
+ * Loads game trees of 10000 nodes on a thread with a small stack, the walks
+ * over the tree used to recurse once per node and overflowed it.
+ */
+public class GameTreeStressTest {
+  private static final int NODE_COUNT = 10000;
+  private static final int NESTED_VARIATION_COUNT = 3000;
+  private static final long STACK_SIZE = 512 * 1024;
+
+  @Test(timeout = 60000)
+  public void longMainLine() throws Throwable {
+    runWithSmallStack(() -> {
+      Game game = parse(mainLine(NODE_COUNT, 0));
+      game.calculateVisualDepth();
+
+      assertThat(game.getNoMoves()).isEqualTo(NODE_COUNT);
+      assertThat(game.getLastMove().getMoveNo()).isEqualTo(NODE_COUNT);
+      assertThat(game.getLastMove().getVisualDepth()).isEqualTo(0);
+      assertThat(game.isSameGame(parse(mainLine(NODE_COUNT, 0)))).isTrue();
+    });
+  }
+
+  @Test(timeout = 60000)
+  public void mainLineWithVariations() throws Throwable {
+    runWithSmallStack(() -> {
+      // a variation of 20 moves branches off every tenth move
+      Game game = parse(mainLine(NODE_COUNT, 10));
+      game.calculateVisualDepth();
+
+      assertThat(game.getNoMoves()).isEqualTo(NODE_COUNT);
+      int variationCount = 0;
+      for (GameNode node = game.getFirstMove(); node != null; node = node.getNextNode()) {
+        assertThat(node.getVisualDepth()).isEqualTo(0);
+        for (GameNode child : node.getChildren()) {
+          variationCount++;
+          assertThat(child.getMoveNo()).isEqualTo(node.getMoveNo() + 1);
+          assertThat(child.getVisualDepth()).isGreaterThan(0);
+        }
+      }
+      assertThat(variationCount).isEqualTo(NODE_COUNT / 10 - 1);
+      assertThat(game.isSameGame(parse(mainLine(NODE_COUNT, 10)))).isTrue();
+    });
+  }
+
+  @Test(timeout = 60000)
+  public void nestedVariations() throws Throwable {
+    runWithSmallStack(() -> {
+      // a variation branches off every move, each one nested in the previous
+      // game tree
+      Game game = parse(mainLine(NESTED_VARIATION_COUNT, 1));
+      game.calculateVisualDepth();
+
+      assertThat(game.getNoMoves()).isEqualTo(NESTED_VARIATION_COUNT);
+      assertThat(game.getLastMove().getVisualDepth()).isEqualTo(0);
+      for (GameNode node = game.getFirstMove().getNextNode(); node != null; node = node.getNextNode()) {
+        assertThat(node.getPrevNode().getChildren()).hasSize(1);
+      }
+    });
+  }
+
+  private static String mainLine(int length, int variationInterval) {
+    StringBuilder sgf = new StringBuilder("(;GM[1]SZ[19]");
+    StringBuilder variations = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      if (variationInterval > 0 && i > 0 && i % variationInterval == 0) {
+        // the main line goes on in the first game tree, the variation is the
+        // second one, closed once the main line is over
+        sgf.append("(");
+        StringBuilder variation = new StringBuilder(")(");
+        for (int j = 0; j < 20; j++) {
+          variation.append(move(i + j + 7));
+        }
+        variations.insert(0, variation.append(")"));
+      }
+      sgf.append(move(i));
+    }
+    return sgf.append(variations).append(")").toString();
+  }
+
+  private static String move(int i) {
+    char x = (char) ('a' + i % 19);
+    char y = (char) ('a' + (i / 19) % 19);
+    return (i % 2 == 0 ? ";B[" : ";W[") + x + y + "]";
+  }
+
+  private static Game parse(String sgf) {
+    Game game = new Parser(sgf).parse();
+    game.postProcess();
+    return game;
+  }
+
+  private interface Check {
+    void run() throws Exception;
+  }
+
+  private static void runWithSmallStack(Check check) throws Throwable {
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread thread = new Thread(null, () -> {
+      try {
+        check.run();
+      }
+      catch (Throwable e) {
+        failure.set(e);
+      }
+    }, "small-stack", STACK_SIZE);
+    thread.start();
+    thread.join();
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+}
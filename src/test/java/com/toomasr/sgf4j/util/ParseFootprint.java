@@ -0,0 +1,55 @@
+package com.toomasr.sgf4j.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.toomasr.sgf4j.SgfCorpusReader;
+import com.toomasr.sgf4j.parser.Game;
+
+/**
+ * Parses every SGF file under a directory, keeps all the games and prints how
+ * much heap the parsed trees take.
+ *
+ * Usage: ParseFootprint directory
+ */
+public class ParseFootprint {
+  public static void main(String[] args) throws IOException {
+    Path path = Paths.get(args[0]);
+    List<Game> games = Collections.synchronizedList(new ArrayList<>());
+
+    long before = usedHeap();
+    SgfCorpusReader.Statistics statistics = new SgfCorpusReader().read(path, new SgfCorpusReader.Listener() {
+      @Override
+      public void gameParsed(Path file, int index, Game game) {
+        // the original SGF is not kept by the corpus reader
+        games.add(game);
+      }
+
+      @Override
+      public void gameFailed(Path file, int index, Exception error) {
+        System.out.format("Parsing %s, game %d failed: %s\n", file, index, error);
+      }
+    });
+    long after = usedHeap();
+
+    long nodes = 0;
+    for (Game game : games) {
+      nodes += game.getNoNodes();
+    }
+    System.out.println(statistics);
+    System.out.format("%d games, %d main line nodes, %.1f MB of heap, %.0f bytes per node\n", games.size(), nodes,
+        (after - before) / 1e6, nodes == 0 ? 0.0 : (after - before) / (double) nodes);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,57 @@
+package com.toomasr.sgf4j.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.toomasr.sgf4j.Parser;
+
+/**
+ * Reads every SGF file under a directory into memory and parses them over and
+ * over, printing the parser throughput of each round.
+ *
+ * Usage: ParseThroughput directory [rounds]
+ */
+public class ParseThroughput {
+  public static void main(String[] args) throws IOException {
+    Path path = Paths.get(args[0]);
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    List<String> games;
+    try (Stream<Path> files = Files.walk(path)) {
+      games = files.filter(file -> file.getFileName().toString().toLowerCase().endsWith("sgf"))
+          .filter(Files::isRegularFile)
+          .map(ParseThroughput::read)
+          .collect(Collectors.toList());
+    }
+
+    long bytes = 0;
+    for (String game : games) {
+      bytes += game.getBytes(StandardCharsets.UTF_8).length;
+    }
+    System.out.format("%d games, %d bytes\n", games.size(), bytes);
+
+    for (int i = 0; i < rounds; i++) {
+      long start = System.nanoTime();
+      for (String game : games) {
+        new Parser(game).parse();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.format("Round %d: %.1f MB/s, %.0f games/s\n", i + 1, bytes / 1e6 / seconds, games.size() / seconds);
+    }
+  }
+
+  private static String read(Path file) {
+    try {
+      return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
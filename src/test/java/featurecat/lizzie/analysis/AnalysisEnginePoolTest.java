@@ -0,0 +1,161 @@
+package featurecat.lizzie.analysis;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import featurecat.lizzie.rules.Board;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs {@link AnalysisEnginePool} against {@link StubGtpEngine} processes. The stub suggests a move derived from the
+ * moves it has, so the best move of an analysis tells whether the engine was brought to the submitted position.
+ */
+public class AnalysisEnginePoolTest {
+    private static final int ENGINE_COUNT = 2;
+    // One analysis line of the stub
+    private static final int MAX_VISITS = 50;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    @Test(timeout = 120000)
+    public void pipelinedEnginesReachEveryPosition() throws Exception {
+        checkPositionsOfGame(true);
+    }
+
+    @Test(timeout = 120000)
+    public void strictEnginesReachEveryPosition() throws Exception {
+        checkPositionsOfGame(false);
+    }
+
+    @Test(timeout = 120000)
+    public void cancelledPositionIsSkipped() throws Exception {
+        try (AnalysisEnginePool pool = new AnalysisEnginePool(newGtpClientBuilder(true), 1, null)) {
+            pool.start();
+
+            List<String> game = generateGame(new Random(2), 6);
+            List<ListenableFuture<List<MoveData>>> results = new ArrayList<>();
+            for (int i = 0; i <= game.size(); ++i) {
+                results.add(pool.submit(newAnalysis(game.subList(0, i))));
+            }
+            ListenableFuture<List<MoveData>> cancelled = results.remove(results.size() - 2);
+            assertThat(cancelled.cancel(false)).isTrue();
+
+            for (ListenableFuture<List<MoveData>> result : results) {
+                result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            assertThat(pool.getAnalyzedPositionCount()).isEqualTo(game.size());
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void positionsSubmittedAfterCloseFail() {
+        AnalysisEnginePool pool = new AnalysisEnginePool(newGtpClientBuilder(true), ENGINE_COUNT, null);
+        pool.start();
+        assertThat(pool.getRunningEngineCount()).isEqualTo(ENGINE_COUNT);
+        pool.close();
+
+        ListenableFuture<List<MoveData>> result = pool.submit(newAnalysis(Collections.emptyList()));
+        assertThatThrownBy(() -> result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class).hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * Analyzes the positions of a game followed by a few unrelated ones, so engines go forward, back and start over
+     */
+    private static void checkPositionsOfGame(boolean pipelined) throws Exception {
+        Random random = new Random(pipelined ? 1 : 3);
+        List<List<String>> positions = new ArrayList<>();
+        List<String> game = generateGame(random, 20);
+        for (int i = 0; i <= game.size(); ++i) {
+            positions.add(game.subList(0, i));
+        }
+        for (int i = 0; i < 4; ++i) {
+            positions.add(generateGame(random, 1 + random.nextInt(30)));
+        }
+        positions.add(game.subList(0, 5));
+
+        Set<AnalysisEnginePool.PositionAnalysis> notifiedAnalyses = ConcurrentHashMap.newKeySet();
+        AtomicInteger activeListenerCount = new AtomicInteger();
+        AtomicBoolean concurrentNotification = new AtomicBoolean();
+        AnalysisEnginePool.AnalysisListener listener = (analysis, bestMoves) -> {
+            if (activeListenerCount.incrementAndGet() > 1) {
+                concurrentNotification.set(true);
+            }
+            notifiedAnalyses.add(analysis);
+            activeListenerCount.decrementAndGet();
+        };
+
+        try (AnalysisEnginePool pool = new AnalysisEnginePool(newGtpClientBuilder(pipelined), ENGINE_COUNT, listener)) {
+            pool.start();
+            assertThat(pool.getRunningEngineCount()).isEqualTo(ENGINE_COUNT);
+
+            List<AnalysisEnginePool.PositionAnalysis> analyses = new ArrayList<>();
+            List<ListenableFuture<List<MoveData>>> results = new ArrayList<>();
+            for (List<String> position : positions) {
+                AnalysisEnginePool.PositionAnalysis analysis = newAnalysis(position);
+                analyses.add(analysis);
+                results.add(pool.submit(analysis));
+            }
+
+            for (int i = 0; i < positions.size(); ++i) {
+                List<MoveData> bestMoves = results.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                assertThat(bestMoves).as("position %d", i).isNotEmpty();
+                assertThat(bestMoves.get(0).getCoordinate()).as("best move of position %d", i)
+                        .isEqualTo(StubGtpEngine.getBestMove(toCoordinates(positions.get(i)), Board.BOARD_SIZE));
+                assertThat(bestMoves.stream().mapToInt(MoveData::getPlayouts).sum()).as("visits of position %d", i)
+                        .isGreaterThanOrEqualTo(MAX_VISITS);
+            }
+            assertThat(pool.getAnalyzedPositionCount()).isEqualTo(positions.size());
+
+            pool.close();
+            assertThat(notifiedAnalyses).containsExactlyInAnyOrderElementsOf(analyses);
+            assertThat(concurrentNotification).isFalse();
+        }
+    }
+
+    private static GtpClientBuilder newGtpClientBuilder(boolean pipelined) {
+        return new GtpClientBuilder().setCommandLine(StubGtpEngine.getCommandLine(0)).setPipelined(pipelined);
+    }
+
+    private static AnalysisEnginePool.PositionAnalysis newAnalysis(List<String> playCommands) {
+        return new AnalysisEnginePool.PositionAnalysis(playCommands, Board.BOARD_SIZE, 7.5, MAX_VISITS, 0);
+    }
+
+    /**
+     * @return play commands of distinct moves, black first
+     */
+    private static List<String> generateGame(Random random, int length) {
+        List<Integer> points = new ArrayList<>();
+        for (int i = 0; i < Board.BOARD_SIZE * Board.BOARD_SIZE; ++i) {
+            points.add(i);
+        }
+        Collections.shuffle(points, random);
+
+        List<String> game = new ArrayList<>(length);
+        for (int i = 0; i < length; ++i) {
+            int point = points.get(i);
+            String coordinate = Board.convertCoordinatesToName(new int[]{point / Board.BOARD_SIZE, point % Board.BOARD_SIZE});
+            game.add(String.format("play %s %s", i % 2 == 0 ? "B" : "W", coordinate));
+        }
+        return game;
+    }
+
+    private static List<String> toCoordinates(List<String> playCommands) {
+        List<String> coordinates = new ArrayList<>(playCommands.size());
+        for (String playCommand : playCommands) {
+            coordinates.add(playCommand.split(" ")[2]);
+        }
+        return coordinates;
+    }
+}
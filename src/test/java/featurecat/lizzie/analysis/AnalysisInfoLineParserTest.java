@@ -0,0 +1,211 @@
+package featurecat.lizzie.analysis;
+
+import featurecat.lizzie.rules.Board;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks the analysis line parsers against the golden files in info-lines, and the parser of the V2 and PhoenixGo
+ * analyzers against the Parboiled grammar it replaced, see {@link LegacyInfoLineParsers}.
+ * <p>
+ * A golden file holds engine lines, each followed by a line starting with "= " and the expected moves: coordinate,
+ * visits, winrate, policy and principal variation, moves separated by " ; ", or null when nothing is parsed. Lines
+ * starting with # and empty lines are skipped.
+ */
+public class AnalysisInfoLineParserTest {
+    static class Sample {
+        final int lineNumber;
+        final String line;
+        final String expected;
+
+        Sample(int lineNumber, String line, String expected) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.expected = expected;
+        }
+    }
+
+    @Test
+    public void v2LinesMatchGoldenFileAndParboiled() throws IOException {
+        for (Sample sample : readGoldenFile("v2.txt")) {
+            assertThat(format(OfficialLeelazAnalyzerV2.parseMoveDataLine(sample.line)))
+                    .as("v2.txt:%d", sample.lineNumber).isEqualTo(sample.expected);
+            assertThat(OfficialLeelazAnalyzerV2.parseMoveDataLine(sample.line))
+                    .as("v2.txt:%d against Parboiled", sample.lineNumber).isEqualTo(LegacyInfoLineParsers.parseV2(sample.line));
+        }
+    }
+
+    @Test
+    public void phoenixLinesMatchGoldenFileAndParboiled() throws IOException {
+        for (Sample sample : readGoldenFile("phoenix.txt")) {
+            assertThat(format(PhoenixGoAnalyzer.parseMoveDataLine(sample.line)))
+                    .as("phoenix.txt:%d", sample.lineNumber).isEqualTo(sample.expected);
+            assertThat(PhoenixGoAnalyzer.parseMoveDataLine(sample.line))
+                    .as("phoenix.txt:%d against Parboiled", sample.lineNumber).isEqualTo(LegacyInfoLineParsers.parsePhoenix(sample.line));
+        }
+    }
+
+    @Test
+    public void phoenixLinesWithoutOrderMatchGoldenFile() throws IOException {
+        for (Sample sample : readGoldenFile("phoenix-without-order.txt")) {
+            assertThat(format(PhoenixGoAnalyzer.parseMoveDataLine(sample.line)))
+                    .as("phoenix-without-order.txt:%d", sample.lineNumber).isEqualTo(sample.expected);
+            assertThatThrownBy(() -> LegacyInfoLineParsers.parsePhoenix(sample.line))
+                    .as("phoenix-without-order.txt:%d with Parboiled", sample.lineNumber).isInstanceOf(NumberFormatException.class);
+        }
+    }
+
+    @Test
+    public void v1LinesMatchGoldenFile() throws IOException {
+        for (Sample sample : readGoldenFile("v1.txt")) {
+            assertThat(format(single(OfficialLeelazAnalyzerV1.parseMoveDataLine(sample.line))))
+                    .as("v1.txt:%d", sample.lineNumber).isEqualTo(sample.expected);
+        }
+    }
+
+    @Test
+    public void classicLinesMatchGoldenFile() throws IOException {
+        for (Sample sample : readGoldenFile("classic.txt")) {
+            assertThat(format(single(ClassicModifiedLeelazAnalyzer.parseMoveDataLine(sample.line))))
+                    .as("classic.txt:%d", sample.lineNumber).isEqualTo(sample.expected);
+        }
+    }
+
+    @Test
+    public void randomLinesMatchParboiled() {
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; ++i) {
+            boolean withOrder = random.nextBoolean();
+            String line = generateLine(random, withOrder);
+            assertThat(OfficialLeelazAnalyzerV2.parseMoveDataLine(line)).as(line).isEqualTo(LegacyInfoLineParsers.parseV2(line));
+            if (withOrder) {
+                assertThat(PhoenixGoAnalyzer.parseMoveDataLine(line)).as(line).isEqualTo(LegacyInfoLineParsers.parsePhoenix(line));
+            }
+        }
+    }
+
+    static List<Sample> readGoldenFile(String name) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        try (InputStream inputStream = Objects.requireNonNull(AnalysisInfoLineParserTest.class.getResourceAsStream("info-lines/" + name), name);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line, pendingLine = null;
+            int lineNumber = 0, pendingLineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.startsWith("= ")) {
+                    samples.add(new Sample(pendingLineNumber, Objects.requireNonNull(pendingLine, name + ":" + lineNumber), line.substring(2)));
+                    pendingLine = null;
+                } else {
+                    assertThat(pendingLine).as("%s:%d has no expected moves", name, pendingLineNumber).isNull();
+                    pendingLine = line;
+                    pendingLineNumber = lineNumber;
+                }
+            }
+            assertThat(pendingLine).as("%s:%d has no expected moves", name, pendingLineNumber).isNull();
+        }
+        assertThat(samples).as(name).isNotEmpty();
+        return samples;
+    }
+
+    /**
+     * @return an lz-analyze line of a few blocks with or without the optional fields, sometimes malformed
+     */
+    static String generateLine(Random random, boolean withOrder) {
+        StringBuilder line = new StringBuilder();
+        int blockCount = 1 + random.nextInt(6);
+        for (int order = 0; order < blockCount; ++order) {
+            if (order > 0) {
+                line.append(random.nextInt(20) == 0 ? "  " : " ");
+            }
+            line.append("info move ").append(generateMove(random))
+                    .append(" visits ").append(random.nextInt(100000))
+                    .append(" winrate ").append(random.nextInt(10) == 0 ? random.nextInt(10000) / 100.0 : random.nextInt(10000));
+            switch (random.nextInt(4)) {
+                case 1:
+                    line.append(" network ").append(random.nextInt(10000));
+                    break;
+                case 2:
+                    line.append(" N ").append(random.nextInt(10000) / 100.0);
+                    break;
+                case 3:
+                    line.append(" N ").append(random.nextInt(10000));
+                    break;
+                default:
+                    break;
+            }
+            if (withOrder) {
+                line.append(" order ").append(random.nextInt(3) == 0 ? random.nextInt(blockCount) : order);
+            }
+            line.append(" pv");
+            int variationLength = random.nextInt(12);
+            for (int k = 0; k < variationLength; ++k) {
+                line.append(' ').append(generateMove(random));
+            }
+            if (random.nextInt(50) == 0) {
+                line.append(" info move");
+            }
+        }
+        return line.toString();
+    }
+
+    private static String generateMove(Random random) {
+        switch (random.nextInt(30)) {
+            case 0:
+                return "pass";
+            case 1:
+                return "PASS";
+            case 2:
+                return Board.alphabet.toLowerCase().charAt(random.nextInt(Board.BOARD_SIZE)) + String.valueOf(1 + random.nextInt(Board.BOARD_SIZE));
+            default:
+                return Board.alphabet.charAt(random.nextInt(Board.BOARD_SIZE)) + String.valueOf(1 + random.nextInt(Board.BOARD_SIZE));
+        }
+    }
+
+    private static List<MoveData> single(MoveData move) {
+        return move == null ? null : Collections.singletonList(move);
+    }
+
+    static String format(List<MoveData> moves) {
+        if (moves == null) {
+            return "null";
+        }
+        return moves.stream().map(AnalysisInfoLineParserTest::format).collect(Collectors.joining(" ; "));
+    }
+
+    private static String format(MoveData move) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(move.getCoordinate())
+                .append(' ').append(move.getPlayouts())
+                .append(' ').append(move.getWinrate())
+                .append(' ').append(move.getProbability())
+                .append(" pv");
+        for (short variationMove : move.getVariation()) {
+            builder.append(' ').append(formatMove(variationMove));
+        }
+        return builder.toString();
+    }
+
+    private static String formatMove(short move) {
+        if (move == MoveData.PASS) {
+            return "pass";
+        }
+        return Board.alphabet.charAt(MoveData.getMoveX(move)) + String.valueOf(MoveData.getMoveY(move) + 1);
+    }
+}
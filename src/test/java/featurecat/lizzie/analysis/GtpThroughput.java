@@ -0,0 +1,52 @@
+package featurecat.lizzie.analysis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many commands per second a {@link GeneralGtpClient} gets through, against a {@link StubGtpEngine}
+ * answering every command at once. The commands are posted in bursts of undo, the way the board synchronizer sends
+ * them when going back many moves.
+ * <p>
+ * Usage: GtpThroughput [commands] [burst size]
+ */
+public class GtpThroughput {
+    public static void main(String[] args) throws Exception {
+        int commandCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int burstSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        for (boolean pipelined : new boolean[]{false, true, false, true}) {
+            measure(pipelined, commandCount, burstSize);
+        }
+    }
+
+    private static void measure(boolean pipelined, int commandCount, int burstSize) throws Exception {
+        GeneralGtpClient gtpClient = new GeneralGtpClient(StubGtpEngine.getCommandLine(0));
+        gtpClient.setPipelined(pipelined);
+        gtpClient.start();
+        try {
+            // Warm up the engine
+            gtpClient.postCommand("name").get();
+
+            long writeCountBefore = gtpClient.getStdinWriteCount();
+            long start = System.nanoTime();
+            GtpFuture lastFuture = null;
+            for (int i = 0; i < commandCount; ++i) {
+                lastFuture = gtpClient.postCommand(i % burstSize == burstSize - 1 ? "play B D4" : "undo");
+                if (i % burstSize == burstSize - 1) {
+                    lastFuture.get();
+                }
+            }
+            if (lastFuture != null) {
+                lastFuture.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long writeCount = gtpClient.getStdinWriteCount() - writeCountBefore;
+
+            System.out.printf("%s: %d commands in %.2f s, %.0f commands/s, %.1f commands per write\n",
+                    pipelined ? "Pipelined" : "Strict   ", commandCount, seconds, commandCount / seconds,
+                    writeCount == 0 ? 0.0 : (double) commandCount / writeCount);
+        } finally {
+            gtpClient.shutdown(10, TimeUnit.SECONDS);
+        }
+    }
+}
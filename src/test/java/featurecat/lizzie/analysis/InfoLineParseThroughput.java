@@ -0,0 +1,54 @@
+package featurecat.lizzie.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Measures how fast lz-analyze lines are parsed, by {@link AnalysisInfoLineParser} and by the Parboiled grammar it
+ * replaced. The lines are the ones of the golden file v2.txt and random ones of one to six blocks, with and without
+ * the optional fields. Kept with the tests because the Parboiled grammar only lives here now; on Java 9 and later it
+ * needs <code>--add-opens java.base/java.lang=ALL-UNNAMED</code>.
+ * <p>
+ * Usage: InfoLineParseThroughput [random lines] [rounds]
+ */
+public class InfoLineParseThroughput {
+    public static void main(String[] args) throws Exception {
+        int randomLineCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<String> lines = new ArrayList<>();
+        for (AnalysisInfoLineParserTest.Sample sample : AnalysisInfoLineParserTest.readGoldenFile("v2.txt")) {
+            lines.add(sample.line);
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < randomLineCount; ++i) {
+            lines.add(AnalysisInfoLineParserTest.generateLine(random, random.nextBoolean()));
+        }
+        long charCount = lines.stream().mapToLong(String::length).sum();
+        System.out.printf("%d lines, %.1f MB\n", lines.size(), charCount / 1e6);
+
+        for (int i = 0; i < rounds; ++i) {
+            double parboiledNanos = measure(lines, LegacyInfoLineParsers::parseV2);
+            double parserNanos = measure(lines, OfficialLeelazAnalyzerV2::parseMoveDataLine);
+
+            System.out.printf("Round %d: Parboiled %.0f ns/line, AnalysisInfoLineParser %.0f ns/line (%.1fx, %.0f MB/s)\n",
+                    i + 1, parboiledNanos, parserNanos, parboiledNanos / parserNanos, charCount / (parserNanos * lines.size()) * 1e3);
+        }
+    }
+
+    private static double measure(List<String> lines, Function<String, List<MoveData>> parser) {
+        long moveCount = 0;
+        long start = System.nanoTime();
+        for (String line : lines) {
+            List<MoveData> moves = parser.apply(line);
+            moveCount += moves == null ? 0 : moves.size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (moveCount == 0) {
+            throw new IllegalStateException("Nothing parsed");
+        }
+        return (double) elapsed / lines.size();
+    }
+}
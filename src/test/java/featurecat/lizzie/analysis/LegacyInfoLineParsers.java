@@ -0,0 +1,200 @@
+package featurecat.lizzie.analysis;
+
+import com.google.common.collect.Streams;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.collections.api.list.MutableList;
+import org.eclipse.collections.api.map.MutableMap;
+import org.eclipse.collections.impl.factory.Lists;
+import org.eclipse.collections.impl.factory.Maps;
+import org.parboiled.BaseParser;
+import org.parboiled.Parboiled;
+import org.parboiled.Rule;
+import org.parboiled.parserunners.AbstractParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.ParsingResult;
+
+import java.util.stream.Collectors;
+
+/**
+ * The Parboiled parsers of OfficialLeelazAnalyzerV2 and PhoenixGoAnalyzer before {@link AnalysisInfoLineParser}
+ * replaced them, kept as the reference the new parser is checked and measured against. Both analyzers shared the
+ * grammar and differed in how they ordered the moves.
+ */
+class LegacyInfoLineParsers {
+    private static final EngineOutputLineParser parser = Parboiled.createParser(EngineOutputLineParser.class);
+    private static final AbstractParseRunner<?> runner = new ReportingParseRunner(parser.EngineLine());
+
+    /**
+     * @return the moves as OfficialLeelazAnalyzerV2 parsed them: in line order
+     */
+    static MutableList<MoveData> parseV2(String line) {
+        ParsingResult<?> result = runner.run(line);
+        if (!result.matched) {
+            return null;
+        }
+
+        return Streams.stream(result.valueStack)
+                .map(o -> toMoveData((MutableMap<String, Object>) o))
+                .collect(Collectors.toCollection(Lists.mutable::empty))
+                .reverseThis()
+                ;
+    }
+
+    /**
+     * @return the moves as PhoenixGoAnalyzer parsed them: by descending order, throwing when an order is missing
+     */
+    static MutableList<MoveData> parsePhoenix(String line) {
+        ParsingResult<?> result = runner.run(line);
+        if (!result.matched) {
+            return null;
+        }
+
+        MutableList<?> analyzed = Lists.mutable.withAll(result.valueStack);
+        analyzed.sortThis((o1, o2) -> {
+            MutableMap<String, Object> d1 = (MutableMap<String, Object>) o1;
+            MutableMap<String, Object> d2 = (MutableMap<String, Object>) o2;
+            return Integer.parseInt((String) d2.get("ORDER")) - Integer.parseInt((String) d1.get("ORDER"));
+        });
+        return analyzed.stream()
+                .map(o -> toMoveData((MutableMap<String, Object>) o))
+                .collect(Collectors.toCollection(Lists.mutable::empty))
+                ;
+    }
+
+    private static MoveData toMoveData(MutableMap<String, Object> data) {
+        MutableList<String> variation = (MutableList<String>) data.get("PV");
+        String coordinate = (String) data.get("MOVE");
+        int playouts = Integer.parseInt((String) data.get("CALCULATION"));
+        double winrate = Double.parseDouble((String) data.get("VALUE")) / 100.0;
+        double probability = getRate((String) data.get("POLICY"));
+
+        return new MoveData(coordinate, playouts, winrate, probability, variation);
+    }
+
+    private static double getRate(String rateString) {
+        if (StringUtils.isEmpty(rateString)) {
+            return 0.0;
+        }
+
+        if (rateString.indexOf('.') >= 0) {
+            return Double.parseDouble(rateString);
+        } else {
+            return Double.parseDouble(rateString) / 100.0;
+        }
+    }
+
+    static class EngineOutputLineParser extends BaseParser<Object> {
+        Rule EngineLine() {
+            return Sequence(
+                    MoveData()
+                    , ZeroOrMore(
+                            Sequence(Spaces(), MoveData())
+                    )
+            );
+        }
+
+        // info move D16 visits 7 winrate 4704 pv D16 Q16 D4
+        Rule MoveData() {
+            return Sequence(
+                    String("info"), pushInitialValueMap()
+                    , Spaces()
+                    , String("move")
+                    , Spaces()
+                    , Move(), saveMatchToValueMap("MOVE")
+                    , Spaces()
+                    , String("visits")
+                    , Spaces()
+                    , IntNumber(), saveMatchToValueMap("CALCULATION")
+                    , Spaces()
+                    , String("winrate")
+                    , Spaces()
+                    , DoubleNumber(), saveMatchToValueMap("VALUE")
+                    , Optional(
+                            Spaces()
+                            , FirstOf(String("network"), String("N"))
+                            , Spaces()
+                            , DoubleNumber(), saveMatchToValueMap("POLICY")
+                    )
+                    , Optional(
+                            Spaces()
+                            , String("order")
+                            , Spaces()
+                            , DoubleNumber(), saveMatchToValueMap("ORDER")
+                    )
+                    , Spaces()
+                    , String("pv"), saveAttrToValueMap("PV", Lists.mutable.empty())
+                    , ZeroOrMore(Sequence(Spaces(), Move(), pushMatchToList("PV")))
+            );
+        }
+
+        Rule Move() {
+            return FirstOf(Coord(), IgnoreCase("pass"));
+        }
+
+        Rule Coord() {
+            return Sequence(XCoord(), YCoord());
+        }
+
+        Rule XCoord() {
+            return AnyOf("ABCDEFGHJKLMNOPQRSTabcdefghjklmnopqrst");
+        }
+
+        Rule YCoord() {
+            return IntNumber();
+        }
+
+        Rule DoubleNumber() {
+            return Sequence(
+                    Optional(AnyOf("+-")),
+                    OneOrMore(Digit()),
+                    Optional(Ch('.'), ZeroOrMore(Digit()))
+            );
+        }
+
+        Rule IntNumber() {
+            return Sequence(Optional(AnyOf("+-")), OneOrMore(Digit()));
+        }
+
+        Rule Digit() {
+            return CharRange('0', '9');
+        }
+
+        Rule Spaces() {
+            return OneOrMore(SpaceChar());
+        }
+
+        Rule SpaceChar() {
+            return AnyOf(" \t\r\n");
+        }
+
+        boolean pushInitialValueMap() {
+            MutableMap<String, Object> valueMap = Maps.mutable.empty();
+            push(valueMap);
+
+            return true;
+        }
+
+        boolean saveMatchToValueMap(String key) {
+            return saveAttrToValueMap(key, match());
+        }
+
+        boolean saveAttrToValueMap(String key, Object value) {
+            MutableMap<String, Object> valueMap = (MutableMap<String, Object>) peek();
+            valueMap.put(key, value);
+
+            return true;
+        }
+
+        boolean pushMatchToList(String listKey) {
+            return pushToList(listKey, match());
+        }
+
+        boolean pushToList(String listKey, String value) {
+            MutableMap<String, Object> valueMap = (MutableMap<String, Object>) peek();
+            MutableList<String> list = (MutableList<String>) valueMap.get(listKey);
+            list.add(value);
+
+            return true;
+        }
+    }
+}
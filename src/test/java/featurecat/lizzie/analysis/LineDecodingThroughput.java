@@ -0,0 +1,131 @@
+package featurecat.lizzie.analysis;
+
+import featurecat.lizzie.rules.Board;
+import featurecat.lizzie.util.ThreadPoolUtil;
+import featurecat.lizzie.util.Utf8LineDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how fast engine output is split into lines and handed to the line consumers. Output in the format of
+ * lz-analyze is fed in chunks the size NuProcess reads, through {@link GeneralGtpClient.GeneralGtpProcessHandler},
+ * through the per chunk tasks it used before the long-lived line loop, and through the per byte StringBuilder it used
+ * before {@link Utf8LineDecoder}.
+ * <p>
+ * Usage: LineDecodingThroughput [lines] [rounds]
+ */
+public class LineDecodingThroughput {
+    private static final int CHUNK_SIZE = 65536;
+
+    private interface ChunkHandler {
+        void onChunk(ByteBuffer buffer);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        byte[] output = generateOutput(new Random(1), lineCount);
+        System.out.printf("%d lines, %.1f MB\n", lineCount, output.length / 1e6);
+
+        AtomicLong deliveredLineCount = new AtomicLong();
+        GeneralGtpClient gtpClient = new GeneralGtpClient(StubGtpEngine.getCommandLine(0));
+        gtpClient.registerDiagnosticLineConsumer(line -> deliveredLineCount.incrementAndGet());
+        GeneralGtpClient.GeneralGtpProcessHandler handler = gtpClient.new GeneralGtpProcessHandler();
+        ExecutorService chunkProcessor = Executors.newSingleThreadExecutor();
+        Utf8LineDecoder decoder = new Utf8LineDecoder(8192);
+        StringBuilder[] lineBuilder = {new StringBuilder(2048)};
+        try {
+            for (int i = 0; i < rounds; ++i) {
+                double perByteNanos = measure(output, lineCount, deliveredLineCount, buffer -> {
+                    final byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    chunkProcessor.execute(() -> {
+                        for (byte b : bytes) {
+                            lineBuilder[0].append((char) b);
+                            if (b == '\n') {
+                                handler.onEngineStdoutLine(lineBuilder[0].toString());
+                                lineBuilder[0] = new StringBuilder(2048);
+                            }
+                        }
+                    });
+                });
+                double chunkTaskNanos = measure(output, lineCount, deliveredLineCount, buffer -> {
+                    final List<String> lines = new ArrayList<>();
+                    decoder.decode(buffer, lines::add);
+                    if (!lines.isEmpty()) {
+                        chunkProcessor.execute(() -> lines.forEach(handler::onEngineStdoutLine));
+                    }
+                });
+                double handlerNanos = measure(output, lineCount, deliveredLineCount, buffer -> handler.onStdout(buffer, false));
+
+                System.out.printf("Round %d: per byte %.0f ns/line, per chunk task %.0f ns/line, line loop %.0f ns/line (%.0f MB/s)\n",
+                        i + 1, perByteNanos, chunkTaskNanos, handlerNanos, output.length / (handlerNanos * lineCount) * 1e3);
+            }
+        } finally {
+            handler.close();
+            ThreadPoolUtil.shutdownAndAwaitTermination(chunkProcessor);
+        }
+    }
+
+    /**
+     * @return nanoseconds per line from the first chunk until the last line reached its consumer
+     */
+    private static double measure(byte[] output, int lineCount, AtomicLong deliveredLineCount, ChunkHandler chunkHandler) {
+        deliveredLineCount.set(0);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long start = System.nanoTime();
+        for (int offset = 0; offset < output.length; ) {
+            // Like NuProcess: fill the buffer after the bytes left unconsumed, hand it over, keep what is left
+            int length = Math.min(buffer.remaining(), output.length - offset);
+            buffer.put(output, offset, length);
+            offset += length;
+            buffer.flip();
+            chunkHandler.onChunk(buffer);
+            buffer.compact();
+        }
+        while (deliveredLineCount.get() < lineCount) {
+            Thread.yield();
+        }
+        return (double) (System.nanoTime() - start) / lineCount;
+    }
+
+    /**
+     * @return lz-analyze output of lineCount info lines, each suggesting up to ten moves with principal variations
+     */
+    private static byte[] generateOutput(Random random, int lineCount) {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < lineCount; ++i) {
+            int moveCount = 1 + random.nextInt(10);
+            for (int order = 0; order < moveCount; ++order) {
+                if (order > 0) {
+                    output.append(' ');
+                }
+                output.append("info move ").append(randomMove(random))
+                        .append(" visits ").append(random.nextInt(5000))
+                        .append(" winrate ").append(random.nextInt(10000))
+                        .append(" prior ").append(random.nextInt(10000))
+                        .append(" lcb ").append(random.nextInt(10000))
+                        .append(" order ").append(order)
+                        .append(" pv");
+                int pvLength = 1 + random.nextInt(20);
+                for (int k = 0; k < pvLength; ++k) {
+                    output.append(' ').append(randomMove(random));
+                }
+            }
+            output.append('\n');
+        }
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String randomMove(Random random) {
+        return Board.alphabet.charAt(random.nextInt(Board.BOARD_SIZE)) + String.valueOf(1 + random.nextInt(Board.BOARD_SIZE));
+    }
+}
@@ -0,0 +1,206 @@
+package featurecat.lizzie.analysis;
+
+import featurecat.lizzie.rules.Board;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A GTP engine answering at once and analyzing nothing, to exercise the GTP clients and the analysis pool without a
+ * real engine. It calls itself Leela Zero and answers lz-analyze with synthetic info move lines derived from the moves
+ * played, so the same position always gets the same analysis.
+ * <p>
+ * Usage: StubGtpEngine [milliseconds per visit, default 0]
+ */
+public class StubGtpEngine {
+    private static final int SUGGESTED_MOVE_COUNT = 3;
+    private static final int VISITS_PER_LINE = 50;
+    private static final String END_OF_INPUT = "";
+
+    private final Writer writer;
+    private final long millisecondsPerVisit;
+    private final List<String> moves = new ArrayList<>();
+    private int boardSize = Board.BOARD_SIZE;
+    // A command read while analyzing, which stopped the analysis
+    private String nextLine;
+
+    private StubGtpEngine(Writer writer, long millisecondsPerVisit) {
+        this.writer = writer;
+        this.millisecondsPerVisit = millisecondsPerVisit;
+    }
+
+    /**
+     * @return the command line running the stub engine with the current class path
+     */
+    public static List<String> getCommandLine(long millisecondsPerVisit) {
+        return Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), StubGtpEngine.class.getName(), String.valueOf(millisecondsPerVisit));
+    }
+
+    public static void main(String[] args) throws Exception {
+        long millisecondsPerVisit = args.length > 0 ? Long.parseLong(args[0]) : 0;
+
+        // Commands are read on their own thread, so that an analysis can be interrupted by the next one
+        BlockingQueue<String> input = new LinkedBlockingQueue<>();
+        Thread readerThread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        input.put(line);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Treated as the end of input
+            }
+            input.add(END_OF_INPUT);
+        });
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        new StubGtpEngine(writer, millisecondsPerVisit).run(input);
+    }
+
+    private void run(BlockingQueue<String> input) throws IOException, InterruptedException {
+        for (; ; ) {
+            String line = nextLine != null ? nextLine : input.take();
+            nextLine = null;
+            if (line == END_OF_INPUT) {
+                break;
+            }
+
+            String[] tokens = line.trim().split("\\s+");
+            int commandIndex = tokens[0].matches("\\d+") ? 1 : 0;
+            String id = commandIndex == 1 ? tokens[0] : "";
+            String command = commandIndex < tokens.length ? tokens[commandIndex] : "";
+            String[] arguments = Arrays.copyOfRange(tokens, Math.min(commandIndex + 1, tokens.length), tokens.length);
+
+            if (command.equals("lz-analyze")) {
+                writer.write("=" + id + "\n");
+                writer.flush();
+                analyze(input, arguments.length > 0 ? Integer.parseInt(arguments[0]) : 100);
+                writer.write("\n");
+            } else {
+                String response = execute(command, arguments);
+                if (response == null) {
+                    writer.write("?" + id + " unknown command\n\n");
+                } else {
+                    writer.write("=" + id + " " + response + "\n\n");
+                }
+            }
+
+            // Answer everything read so far at once, like an engine with its input pipelined
+            if (nextLine == null && input.isEmpty()) {
+                writer.flush();
+            }
+            if (command.equals("quit")) {
+                break;
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return the response, null for an unknown command
+     */
+    private String execute(String command, String[] arguments) {
+        switch (command) {
+            case "name":
+                return "Leela Zero";
+            case "version":
+                return "0.16";
+            case "protocol_version":
+                return "2";
+            case "list_commands":
+                return String.join("\n", "name", "version", "protocol_version", "list_commands", "boardsize", "komi",
+                        "clear_board", "play", "undo", "lz-analyze", "quit");
+            case "boardsize":
+                boardSize = Integer.parseInt(arguments[0]);
+                moves.clear();
+                return "";
+            case "clear_board":
+                moves.clear();
+                return "";
+            case "play":
+                moves.add(arguments[1]);
+                return "";
+            case "undo":
+                if (moves.isEmpty()) {
+                    return null;
+                }
+                moves.remove(moves.size() - 1);
+                return "";
+            case "komi":
+            case "quit":
+                return "";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Writes info lines every interval centiseconds until the next command arrives
+     */
+    private void analyze(BlockingQueue<String> input, int interval) throws IOException, InterruptedException {
+        int seed = moves.hashCode();
+        int visits = 0;
+        long lineTime = Math.max(interval * 10L, millisecondsPerVisit * VISITS_PER_LINE);
+        for (; ; ) {
+            nextLine = input.poll(lineTime, TimeUnit.MILLISECONDS);
+            if (nextLine != null) {
+                break;
+            }
+
+            visits += VISITS_PER_LINE;
+            writer.write(getInfoLine(seed, visits));
+            writer.write("\n");
+            writer.flush();
+        }
+    }
+
+    private String getInfoLine(int seed, int visits) {
+        StringBuilder builder = new StringBuilder();
+        int remainingVisits = visits;
+        for (int order = 0; order < SUGGESTED_MOVE_COUNT; ++order) {
+            int moveVisits = order == SUGGESTED_MOVE_COUNT - 1 ? remainingVisits : remainingVisits / 2;
+            remainingVisits -= moveVisits;
+            String move = getSyntheticMove(seed, order, boardSize);
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append("info move ").append(move)
+                    .append(" visits ").append(moveVisits)
+                    .append(" winrate ").append(Math.floorMod(seed + order * 37, 10000))
+                    .append(" network ").append(1000 - order * 100)
+                    .append(" order ").append(order)
+                    .append(" pv ").append(move).append(' ').append(getSyntheticMove(seed + 1, order, boardSize));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param moves the coordinates of the moves played, e.g. Q16
+     * @return the move suggested first for the position, so callers can tell which position was analyzed
+     */
+    static String getBestMove(List<String> moves, int boardSize) {
+        return getSyntheticMove(moves.hashCode(), 0, boardSize);
+    }
+
+    private static String getSyntheticMove(int seed, int order, int boardSize) {
+        int index = Math.floorMod(seed * 31 + order * 7, boardSize * boardSize);
+        return Board.alphabet.charAt(index % boardSize) + String.valueOf(index / boardSize + 1);
+    }
+}
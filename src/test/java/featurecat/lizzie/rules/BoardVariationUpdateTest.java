@@ -0,0 +1,216 @@
+package featurecat.lizzie.rules;
+
+import featurecat.lizzie.Lizzie;
+import featurecat.lizzie.analysis.BestMoveObserver;
+import featurecat.lizzie.analysis.Leelaz;
+import featurecat.lizzie.analysis.MoveData;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Replays engine output tagged with the position it was emitted for against a board whose head moves faster than the
+ * output arrives, see {@link BoardData#tryUpdateVariationInfo(List)}.
+ */
+public class BoardVariationUpdateTest {
+    private Leelaz originalLeelaz;
+    private Board board;
+    private BestMoveObserver observer;
+
+    @Before
+    public void setUp() {
+        originalLeelaz = Lizzie.leelaz;
+        Capture<BestMoveObserver> observerCapture = EasyMock.newCapture();
+        Lizzie.leelaz = EasyMock.createNiceMock(Leelaz.class);
+        Lizzie.leelaz.registerBestMoveObserver(EasyMock.capture(observerCapture));
+        EasyMock.replay(Lizzie.leelaz);
+
+        board = new Board();
+        board.linkBoardWithAnalyzeEngine();
+        observer = observerCapture.getValue();
+    }
+
+    @After
+    public void tearDown() {
+        Lizzie.leelaz = originalLeelaz;
+    }
+
+    @Test
+    public void updatesOfPreviousHeadAreDropped() {
+        board.place(3, 3);
+        long previousHash = board.getData().getPositionHash();
+        board.place(15, 15);
+
+        observer.bestMovesUpdated(previousHash, bestMoves(100));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(0);
+
+        observer.bestMovesUpdated(board.getData().getPositionHash(), bestMoves(100));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(100);
+
+        board.previousMove();
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void untaggedUpdatesAreDropped() {
+        board.place(3, 3);
+
+        observer.bestMovesUpdated(bestMoves(100));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void samePositionMergesOnlyWhenVisitsIncrease() {
+        board.place(3, 3);
+        long hash = board.getData().getPositionHash();
+
+        observer.bestMovesUpdated(hash, bestMoves(100));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(100);
+
+        // The analysis restarted from scratch
+        observer.bestMovesUpdated(hash, bestMoves(60));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(100);
+        observer.bestMovesUpdated(hash, bestMoves(100));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(100);
+
+        observer.bestMovesUpdated(hash, bestMoves(150));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(150);
+
+        assertThat(board.getData().tryUpdateVariationInfo(Collections.emptyList())).isFalse();
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(150);
+    }
+
+    @Test
+    public void restartedEngineIsNotHeldBackByThePreviousOne() {
+        board.place(3, 3);
+        long hash = board.getData().getPositionHash();
+
+        // No engine run has analyzed anything yet, the playouts known are still compared
+        board.getData().tryUpdateVariationInfo(bestMoves(500));
+        observer.engineRestarted();
+        observer.bestMovesUpdated(hash, bestMoves(100));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(500);
+
+        observer.bestMovesUpdated(hash, bestMoves(1000));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(1000);
+
+        // The start of an engine may be notified twice
+        observer.engineRestarted();
+        observer.engineRestarted();
+        observer.bestMovesUpdated(hash, bestMoves(50));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(50);
+        observer.bestMovesUpdated(hash, bestMoves(40));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(50);
+        observer.bestMovesUpdated(hash, bestMoves(60));
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(60);
+    }
+
+    @Test
+    public void variationsFoundElsewhereAreNotifiedLikeTheEngineAnalysis() {
+        board.place(3, 3);
+        BoardHistoryNode head = board.getHistory().getHead();
+        BoardStateChangeObserver stateObserver = EasyMock.createNiceMock(BoardStateChangeObserver.class);
+        stateObserver.variationsUpdated(head);
+        EasyMock.expectLastCall().once();
+        EasyMock.replay(stateObserver);
+        board.registerBoardStateChangeObserver(stateObserver);
+
+        assertThat(board.tryUpdateVariations(head, variations(100))).isTrue();
+        assertThat(board.getSnapshot().getData().getTotalCalculationCount()).isEqualTo(100);
+        assertThat(board.tryUpdateVariations(head, variations(80))).isFalse();
+        assertThat(board.getData().getTotalCalculationCount()).isEqualTo(100);
+        EasyMock.verify(stateObserver);
+    }
+
+    @Test
+    public void interleavedOutputFollowsFastHeadMovements() {
+        Random random = new Random(1);
+        // The lines emitted by the engine and not delivered yet, each tagged with the head it was emitted for
+        Deque<long[]> pendingLines = new ArrayDeque<>();
+        // The most visits delivered for a position while it was the head
+        Map<Long, Integer> expectedVisits = new HashMap<>();
+        long analyzedHash = board.getData().getPositionHash();
+        int analyzedVisits = 0;
+        int moveCount = 0;
+
+        for (int step = 0; step < 5000; ++step) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    if (board.getHistory().getHead().getNext() == null && moveCount < Board.BOARD_SIZE * Board.BOARD_SIZE) {
+                        board.place(moveCount / Board.BOARD_SIZE, moveCount % Board.BOARD_SIZE);
+                        ++moveCount;
+                    }
+                    break;
+                case 1:
+                    board.previousMove();
+                    break;
+                case 2:
+                    board.nextMove();
+                    break;
+                case 3:
+                case 4:
+                    // The engine restarts its analysis when it learns about the new head
+                    long headHash = board.getData().getPositionHash();
+                    if (headHash != analyzedHash) {
+                        analyzedHash = headHash;
+                        analyzedVisits = 0;
+                    }
+                    analyzedVisits += 1 + random.nextInt(50);
+                    pendingLines.add(new long[]{analyzedHash, analyzedVisits});
+                    break;
+                default:
+                    for (int i = random.nextInt(4); i > 0 && !pendingLines.isEmpty(); --i) {
+                        long[] line = pendingLines.poll();
+                        long hash = board.getData().getPositionHash();
+                        observer.bestMovesUpdated(line[0], bestMoves((int) line[1]));
+                        if (line[0] == hash) {
+                            expectedVisits.merge(hash, (int) line[1], Math::max);
+                        }
+                    }
+                    break;
+            }
+
+            BoardData data = board.getData();
+            assertThat(data.getTotalCalculationCount()).as("step %d", step)
+                    .isEqualTo(expectedVisits.getOrDefault(data.getPositionHash(), 0));
+        }
+
+        assertThat(expectedVisits.size()).isGreaterThan(10);
+        for (BoardHistoryNode node = board.getHistory().getInitialNode(); node != null; node = node.getNext()) {
+            BoardData data = node.getData();
+            assertThat(data.getTotalCalculationCount()).as("move %d", data.getMoveNumber())
+                    .isEqualTo(expectedVisits.getOrDefault(data.getPositionHash(), 0));
+        }
+    }
+
+    /**
+     * @return two moves sharing the visits
+     */
+    private static List<MoveData> bestMoves(int visits) {
+        List<MoveData> moves = new ArrayList<>();
+        moves.add(new MoveData("D4", visits - visits / 3, 55.0, 40.0, Collections.singletonList("D4")));
+        moves.add(new MoveData("Q16", visits / 3, 45.0, 30.0, Collections.singletonList("Q16")));
+        return moves;
+    }
+
+    private static List<VariationData> variations(int visits) {
+        List<VariationData> variations = new ArrayList<>();
+        for (MoveData move : bestMoves(visits)) {
+            variations.add(new VariationData(move));
+        }
+        return variations;
+    }
+}
@@ -0,0 +1,134 @@
+package featurecat.lizzie.rules;
+
+import featurecat.lizzie.Lizzie;
+import org.eclipse.collections.api.set.MutableSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Replays random games into board histories, keeps them all and prints how much heap a position takes: its points
+ * stored as the Stone[], int[] and Coordinates set BoardData held before they were packed, the packed points alone,
+ * and a whole history node, with every position stored fully or with the configured keyframe interval.
+ * <p>
+ * Usage: HistoryFootprint [games] [moves per game]
+ */
+public class HistoryFootprint {
+    private static class UnpackedPoints {
+        private final Stone[] stones;
+        private final int[] moveNumbers;
+        private final MutableSet<Coordinates> removedStones;
+
+        UnpackedPoints(BoardData data) {
+            stones = data.getStonesOnBoard();
+            moveNumbers = data.getMoveNumberListOnBoard();
+            removedStones = data.getRemovedEnemyStoneIndexes();
+        }
+    }
+
+    private static class PackedPoints {
+        private final byte[] stones;
+        private final short[] moveNumbers;
+        private final int[] removedStones;
+
+        PackedPoints(BoardData data) {
+            stones = data.getPackedStones().clone();
+            moveNumbers = data.getPackedMoveNumbers().clone();
+            removedStones = data.getRemovedStoneIndexes().clone();
+        }
+    }
+
+    public static void main(String[] args) {
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int movesPerGame = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int keyframeInterval = Lizzie.optionSetting.getHistoryKeyframeInterval();
+
+        Random random = new Random(1);
+        List<int[]> games = new ArrayList<>(gameCount);
+        for (int i = 0; i < gameCount; ++i) {
+            games.add(RandomGames.generateGame(random, movesPerGame));
+        }
+
+        long positionCount = 0;
+        for (int[] game : games) {
+            positionCount += game.length;
+        }
+        System.out.printf("%d games, %d positions, %dx%d\n", gameCount, positionCount, Board.BOARD_SIZE, Board.BOARD_SIZE);
+
+        Lizzie.optionSetting.setHistoryKeyframeInterval(1);
+        List<BoardData> positions = new ArrayList<>();
+        for (int[] game : games) {
+            positions.addAll(collect(replay(game)));
+        }
+
+        print("Stone[] points", measure(() -> {
+            List<UnpackedPoints> unpackedPoints = new ArrayList<>(positions.size());
+            for (BoardData data : positions) {
+                unpackedPoints.add(new UnpackedPoints(data));
+            }
+            return unpackedPoints;
+        }), positions.size());
+        print("packed points", measure(() -> {
+            List<PackedPoints> packedPoints = new ArrayList<>(positions.size());
+            for (BoardData data : positions) {
+                packedPoints.add(new PackedPoints(data));
+            }
+            return packedPoints;
+        }), positions.size());
+        positions.clear();
+
+        for (int interval : new int[]{1, keyframeInterval}) {
+            Lizzie.optionSetting.setHistoryKeyframeInterval(interval);
+            print("history nodes, keyframe interval " + interval, measure(() -> {
+                List<Board> boards = new ArrayList<>(games.size());
+                for (int[] game : games) {
+                    boards.add(replay(game));
+                }
+                return boards;
+            }), positionCount);
+        }
+        Lizzie.optionSetting.setHistoryKeyframeInterval(keyframeInterval);
+    }
+
+    private static Board replay(int[] game) {
+        Board board = new Board();
+        for (int index : game) {
+            board.place(index / Board.BOARD_SIZE, index % Board.BOARD_SIZE);
+        }
+        return board;
+    }
+
+    private static List<BoardData> collect(Board board) {
+        List<BoardData> positions = new ArrayList<>();
+        for (BoardHistoryNode node = board.getHistory().getInitialNode().getNext(); node != null; node = node.getNext()) {
+            positions.add(node.getData());
+        }
+        return positions;
+    }
+
+    /**
+     * @return the bytes of heap still taken by what the allocation returns
+     */
+    private static long measure(Supplier<Object> allocation) {
+        long before = usedHeap();
+        Object retained = allocation.get();
+        long bytes = usedHeap() - before;
+        Objects.requireNonNull(retained);
+        return bytes;
+    }
+
+    private static void print(String description, long bytes, long count) {
+        System.out.printf("%s: %.1f MB, %.0f bytes per position\n", description, bytes / 1e6, (double) bytes / count);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,182 @@
+package featurecat.lizzie.rules;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the cost of resolving captures and suicide per placement, with {@link ChainTracker} against the recursive
+ * flood fill {@link Board#place(int, int, Stone)} used before it. Both replay the same random games of legal moves,
+ * copying the points of the previous position first as Board does. The whole {@link Board#place(int, int)} path, with
+ * the history and the superko check, is measured too.
+ * <p>
+ * Usage: PlacementThroughput [games] [moves per game] [rounds]
+ */
+public class PlacementThroughput {
+    public static void main(String[] args) {
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int movesPerGame = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Random random = new Random(1);
+        List<int[]> games = new ArrayList<>(gameCount);
+        long placementCount = 0, removedCount = 0;
+        for (int i = 0; i < gameCount; ++i) {
+            int[] game = RandomGames.generateGame(random, movesPerGame);
+            games.add(game);
+            placementCount += game.length;
+            removedCount += replayWithFloodFill(game);
+        }
+        System.out.printf("%d games, %d placements, %d stones captured\n", gameCount, placementCount, removedCount);
+
+        for (int i = 0; i < rounds; ++i) {
+            long start = System.nanoTime();
+            for (int[] game : games) {
+                replayWithFloodFill(game);
+            }
+            double floodFillNanos = (double) (System.nanoTime() - start) / placementCount;
+
+            start = System.nanoTime();
+            for (int[] game : games) {
+                replayWithChainTracker(game);
+            }
+            double chainTrackerNanos = (double) (System.nanoTime() - start) / placementCount;
+
+            start = System.nanoTime();
+            for (int[] game : games) {
+                replayOnBoard(game);
+            }
+            double boardNanos = (double) (System.nanoTime() - start) / placementCount;
+
+            System.out.printf("Round %d: flood fill %.0f ns/move, chain tracker %.0f ns/move (%.1fx), Board.place %.0f ns/move\n",
+                    i + 1, floodFillNanos, chainTrackerNanos, floodFillNanos / chainTrackerNanos, boardNanos);
+        }
+    }
+
+    private static Stone[] emptyStones() {
+        Stone[] stones = new Stone[Board.BOARD_SIZE * Board.BOARD_SIZE];
+        Arrays.fill(stones, Stone.EMPTY);
+        return stones;
+    }
+
+    private static long replayWithFloodFill(int[] game) {
+        Stone[] stones = emptyStones();
+        int[] moveNumbers = new int[stones.length];
+        Zobrist zobrist = new Zobrist();
+        Stone color = Stone.BLACK;
+        long removedCount = 0;
+        for (int i = 0; i < game.length; ++i) {
+            stones = stones.clone();
+            moveNumbers = moveNumbers.clone();
+            moveNumbers[game[i]] = i + 1;
+
+            List<Integer> removed = new ArrayList<>();
+            FloodFill.place(game[i], color, stones, zobrist, removed);
+            removedCount += removed.size();
+
+            for (int k = 0; k < stones.length; k++) {
+                if (stones[k] == Stone.EMPTY) {
+                    moveNumbers[k] = 0;
+                }
+            }
+            color = color.opposite();
+        }
+        return removedCount;
+    }
+
+    private static void replayWithChainTracker(int[] game) {
+        ChainTracker chainTracker = new ChainTracker();
+        byte[] stones = new byte[Board.BOARD_SIZE * Board.BOARD_SIZE];
+        short[] moveNumbers = new short[stones.length];
+        chainTracker.syncWith(new BoardData(ImmutablePair.of(Board.BOARD_SIZE, Board.BOARD_SIZE), stones, null, Stone.EMPTY, true, new Zobrist(), 0, moveNumbers, new int[0], 0, 0));
+        Zobrist zobrist = new Zobrist();
+        Stone color = Stone.BLACK;
+        for (int i = 0; i < game.length; ++i) {
+            stones = stones.clone();
+            short[] newMoveNumbers = moveNumbers.clone();
+            newMoveNumbers[game[i]] = (short) (i + 1);
+
+            IntArrayList removed = new IntArrayList();
+            chainTracker.place(game[i] / Board.BOARD_SIZE, game[i] % Board.BOARD_SIZE, color, stones, zobrist, removed);
+            removed.forEach(index -> newMoveNumbers[index] = 0);
+
+            moveNumbers = newMoveNumbers;
+            color = color.opposite();
+        }
+    }
+
+    private static void replayOnBoard(int[] game) {
+        Board board = new Board();
+        for (int index : game) {
+            board.place(index / Board.BOARD_SIZE, index % Board.BOARD_SIZE);
+        }
+    }
+
+    /**
+     * The capture and suicide detection of Board before {@link ChainTracker}: every placement flood fills the chains
+     * around the new stone, marking their stones as recursed and restoring them afterwards
+     */
+    private static class FloodFill {
+        /**
+         * @return whether or not the move is suicidal
+         */
+        static boolean place(int index, Stone color, Stone[] stones, Zobrist zobrist, List<Integer> removedStones) {
+            int x = index / Board.BOARD_SIZE, y = index % Board.BOARD_SIZE;
+            stones[index] = color;
+            zobrist.toggleStone(x, y, color);
+
+            removeDeadChain(removedStones, x + 1, y, color.opposite(), stones, zobrist);
+            removeDeadChain(removedStones, x, y + 1, color.opposite(), stones, zobrist);
+            removeDeadChain(removedStones, x - 1, y, color.opposite(), stones, zobrist);
+            removeDeadChain(removedStones, x, y - 1, color.opposite(), stones, zobrist);
+
+            return removeDeadChain(new ArrayList<>(), x, y, color, stones, zobrist);
+        }
+
+        private static boolean removeDeadChain(List<Integer> removedStones, int x, int y, Stone color, Stone[] stones, Zobrist zobrist) {
+            if (!Board.isValid(x, y) || stones[Board.getIndex(x, y)] != color)
+                return false;
+
+            boolean hasLiberties = hasLibertiesHelper(x, y, color, stones);
+            cleanupHasLibertiesHelper(removedStones, x, y, color.recursed(), stones, zobrist, !hasLiberties);
+            return !hasLiberties;
+        }
+
+        private static boolean hasLibertiesHelper(int x, int y, Stone color, Stone[] stones) {
+            if (!Board.isValid(x, y))
+                return false;
+
+            if (stones[Board.getIndex(x, y)] == Stone.EMPTY)
+                return true;
+            else if (stones[Board.getIndex(x, y)] != color)
+                return false;
+
+            stones[Board.getIndex(x, y)] = color.recursed();
+
+            return hasLibertiesHelper(x + 1, y, color, stones) ||
+                    hasLibertiesHelper(x, y + 1, color, stones) ||
+                    hasLibertiesHelper(x - 1, y, color, stones) ||
+                    hasLibertiesHelper(x, y - 1, color, stones);
+        }
+
+        private static void cleanupHasLibertiesHelper(List<Integer> removedStones, int x, int y, Stone color, Stone[] stones, Zobrist zobrist, boolean removeStones) {
+            if (!Board.isValid(x, y) || stones[Board.getIndex(x, y)] != color)
+                return;
+
+            if (removeStones) {
+                removedStones.add(Board.getIndex(x, y));
+                zobrist.toggleStone(x, y, color.unrecursed());
+            }
+            stones[Board.getIndex(x, y)] = removeStones ? Stone.EMPTY : color.unrecursed();
+
+            cleanupHasLibertiesHelper(removedStones, x + 1, y, color, stones, zobrist, removeStones);
+            cleanupHasLibertiesHelper(removedStones, x, y + 1, color, stones, zobrist, removeStones);
+            cleanupHasLibertiesHelper(removedStones, x - 1, y, color, stones, zobrist, removeStones);
+            cleanupHasLibertiesHelper(removedStones, x, y - 1, color, stones, zobrist, removeStones);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package featurecat.lizzie.rules;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.util.Random;
+
+/**
+ * Random games for the tests and benchmarks, played on a {@link Board} so that only the moves it accepts are kept.
+ */
+class RandomGames {
+    private RandomGames() {
+    }
+
+    /**
+     * @return board indexes of a game of legal moves, black first, that never repeats a position
+     */
+    static int[] generateGame(Random random, int moveCount) {
+        int pointCount = Board.BOARD_SIZE * Board.BOARD_SIZE;
+        Board board = new Board();
+        IntArrayList moves = new IntArrayList(moveCount);
+        for (int attempt = 0; moves.size() < moveCount && attempt < moveCount * 50; ++attempt) {
+            int index = random.nextInt(pointCount);
+            int moveNumber = board.getData().getMoveNumber();
+            board.place(index / Board.BOARD_SIZE, index % Board.BOARD_SIZE);
+            // occupied points, suicides and superko violations are refused
+            if (board.getData().getMoveNumber() > moveNumber) {
+                moves.add(index);
+            }
+        }
+        board.close();
+        return moves.toArray();
+    }
+}
@@ -0,0 +1,94 @@
+package featurecat.lizzie.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the superko check of {@link BoardHistoryList#violatesSuperko(BoardData)}, which looks the position up among
+ * the zobrist hashes of the path to head, against the walk back to the initial node used before. Both check every
+ * position of a long random game before it is added, so the walk gets slower as the game goes on. The whole
+ * {@link Board#place(int, int)} path is measured too, over the whole game and over its last hundred moves.
+ * <p>
+ * Usage: SuperkoThroughput [moves] [replays per round] [rounds]
+ */
+public class SuperkoThroughput {
+    public static void main(String[] args) {
+        int moveCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int replays = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        int[] game = RandomGames.generateGame(new Random(1), moveCount);
+        Board board = new Board();
+        for (int index : game) {
+            board.place(index / Board.BOARD_SIZE, index % Board.BOARD_SIZE);
+        }
+        BoardData initialData = board.getHistory().getInitialNode().getData();
+        List<BoardData> positions = new ArrayList<>(game.length);
+        for (BoardHistoryNode node = board.getHistory().getInitialNode().getNext(); node != null; node = node.getNext()) {
+            positions.add(node.getData());
+        }
+        int tailStart = Math.max(0, game.length - 100);
+        System.out.printf("%d moves, last %d timed separately\n", game.length, game.length - tailStart);
+
+        for (int i = 0; i < rounds; ++i) {
+            long violations = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < replays; ++r) {
+                BoardHistoryList history = new BoardHistoryList(initialData);
+                for (BoardData data : positions) {
+                    violations += walkViolatesSuperko(history, data) ? 1 : 0;
+                    history.add(data);
+                }
+            }
+            double walkNanos = (double) (System.nanoTime() - start) / replays / positions.size();
+
+            start = System.nanoTime();
+            for (int r = 0; r < replays; ++r) {
+                BoardHistoryList history = new BoardHistoryList(initialData);
+                for (BoardData data : positions) {
+                    violations += history.violatesSuperko(data) ? 1 : 0;
+                    history.add(data);
+                }
+            }
+            double lookupNanos = (double) (System.nanoTime() - start) / replays / positions.size();
+
+            long headNanos = 0, tailNanos = 0;
+            for (int r = 0; r < replays; ++r) {
+                Board replayBoard = new Board();
+                start = System.nanoTime();
+                for (int m = 0; m < tailStart; ++m) {
+                    replayBoard.place(game[m] / Board.BOARD_SIZE, game[m] % Board.BOARD_SIZE);
+                }
+                long tailBegin = System.nanoTime();
+                for (int m = tailStart; m < game.length; ++m) {
+                    replayBoard.place(game[m] / Board.BOARD_SIZE, game[m] % Board.BOARD_SIZE);
+                }
+                long end = System.nanoTime();
+                headNanos += tailBegin - start;
+                tailNanos += end - tailBegin;
+            }
+            double placeNanos = (double) (headNanos + tailNanos) / replays / game.length;
+            double tailPlaceNanos = (double) tailNanos / replays / (game.length - tailStart);
+
+            System.out.printf("Round %d: superko walk %.0f ns/move, hash lookup %.0f ns/move (%.1fx, %d violations), Board.place %.0f ns/move, last moves %.0f ns/move\n",
+                    i + 1, walkNanos, lookupNanos, walkNanos / lookupNanos, violations, placeNanos, tailPlaceNanos);
+        }
+    }
+
+    /**
+     * The superko check of BoardHistoryList before the path hashes: compares the position with every one before head
+     */
+    private static boolean walkViolatesSuperko(BoardHistoryList history, BoardData data) {
+        BoardHistoryNode head = history.getHead();
+
+        while (head.getPrevious() != null) {
+            if (data.getZobrist().equals(head.getData().getZobrist()) && data.isBlackToPlay() == head.getData().isBlackToPlay())
+                return true;
+
+            head = head.getPrevious();
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+package featurecat.lizzie.rules;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZobristTest {
+    @Test
+    public void keysAreFixedBySeed() {
+        assertThat(hashOf(0, 0, Stone.BLACK)).isEqualTo(4061158393592011429L);
+        assertThat(hashOf(0, 0, Stone.WHITE)).isEqualTo(-958534883098299949L);
+        assertThat(hashOf(18, 18, Stone.BLACK)).isEqualTo(-858992512072019227L);
+        assertThat(hashOf(3, 15, Stone.WHITE)).isEqualTo(8462765365004227776L);
+
+        Zobrist empty = new Zobrist();
+        assertThat(empty.getPositionHash(false, null)).isEqualTo(0L);
+        assertThat(empty.getPositionHash(true, null)).isEqualTo(7246536279371397873L);
+        assertThat(empty.getPositionHash(false, new int[]{3, 4})).isEqualTo(-5654521127539033899L);
+    }
+
+    @Test
+    public void togglingTwiceRestoresHash() {
+        Zobrist zobrist = new Zobrist();
+        zobrist.toggleStone(3, 3, Stone.BLACK);
+        long oneStone = zobrist.toLong();
+
+        zobrist.toggleStone(15, 16, Stone.WHITE);
+        assertThat(zobrist.toLong()).isNotEqualTo(oneStone);
+        zobrist.toggleStone(15, 16, Stone.WHITE);
+        assertThat(zobrist.toLong()).isEqualTo(oneStone);
+
+        zobrist.toggleStone(3, 3, Stone.BLACK);
+        assertThat(zobrist.toLong()).isEqualTo(0L);
+    }
+
+    @Test
+    public void positionHashTellsSideToMoveAndKoPointApart() {
+        Zobrist zobrist = new Zobrist();
+        zobrist.toggleStone(3, 3, Stone.BLACK);
+
+        assertThat(zobrist.getPositionHash(true, null)).isNotEqualTo(zobrist.getPositionHash(false, null));
+        assertThat(zobrist.getPositionHash(true, new int[]{4, 4})).isNotEqualTo(zobrist.getPositionHash(true, null));
+        assertThat(zobrist.getPositionHash(true, new int[]{4, 4})).isNotEqualTo(zobrist.getPositionHash(true, new int[]{4, 5}));
+        assertThat(zobrist.getPositionHash(true, new int[]{4, 4})).isEqualTo(zobrist.clone().getPositionHash(true, new int[]{4, 4}));
+    }
+
+    @Test
+    public void incrementalHashMatchesFullRecompute() {
+        for (int seed = 1; seed <= 20; ++seed) {
+            int[] game = RandomGames.generateGame(new Random(seed), 300);
+            Board board = new Board();
+            for (int index : game) {
+                board.place(index / Board.BOARD_SIZE, index % Board.BOARD_SIZE);
+            }
+
+            for (BoardHistoryNode node = board.getHistory().getInitialNode(); node != null; node = node.getNext()) {
+                BoardData data = node.getData();
+                Zobrist recomputed = recompute(data.getStonesOnBoard());
+
+                assertThat(data.getZobrist().toLong()).as("stones hash at move %d", data.getMoveNumber())
+                        .isEqualTo(recomputed.toLong());
+                assertThat(data.getPositionHash()).as("position hash at move %d", data.getMoveNumber())
+                        .isEqualTo(recomputed.getPositionHash(data.isBlackToPlay(), data.getKoPoint()));
+            }
+        }
+    }
+
+    @Test
+    public void positionHashFollowsKoPoint() {
+        Board board = new Board();
+        // black captures the white stone at (1, 1) with (1, 2), white may not retake at once
+        placeAll(board, 0, 1, 1, 1, 1, 0, 0, 2, 2, 1, 2, 2, 18, 18, 1, 3, 1, 2);
+        BoardData capture = board.getData();
+        assertThat(capture.getKoPoint()).containsExactly(1, 1);
+
+        Zobrist recomputed = recompute(capture.getStonesOnBoard());
+        assertThat(capture.getPositionHash()).isEqualTo(recomputed.getPositionHash(capture.isBlackToPlay(), capture.getKoPoint()));
+        assertThat(capture.getPositionHash()).isNotEqualTo(recomputed.getPositionHash(capture.isBlackToPlay(), null));
+    }
+
+    private static void placeAll(Board board, int... coordinates) {
+        for (int i = 0; i < coordinates.length; i += 2) {
+            board.place(coordinates[i], coordinates[i + 1]);
+        }
+    }
+
+    private static long hashOf(int x, int y, Stone color) {
+        Zobrist zobrist = new Zobrist();
+        zobrist.toggleStone(x, y, color);
+        return zobrist.toLong();
+    }
+
+    private static Zobrist recompute(Stone[] stones) {
+        Zobrist zobrist = new Zobrist();
+        for (int i = 0; i < stones.length; ++i) {
+            if (stones[i] != Stone.EMPTY) {
+                zobrist.toggleStone(i / Board.BOARD_SIZE, i % Board.BOARD_SIZE, stones[i]);
+            }
+        }
+        return zobrist;
+    }
+}